@@ -0,0 +1,98 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: BatchBenchmark.java
+ * Author: Christopher Fairhurst
+ * Description: JMH benchmark for the columnar BatchScorer.
+ * ------------------------------------------------------------------------------
+ * Usage:
+ * mvn -Pbench package
+ * java -jar target/benchmarks.jar BatchBenchmark -prof gc
+ * ------------------------------------------------------------------------------
+ * Throughput is reported per row (OperationsPerInvocation), so the score can be
+ * compared directly against PatientBenchmark.calculateMediScore and PatientBenchmark.score.
+ * Setup refuses to run if any row disagrees with Patient.calculateMediScore.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BatchBenchmark {
+    static final int ROWS = 1 << 20;
+
+    private ObservationBlock observations;
+    private ScoreBlock scores;
+    private byte[] errors;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        observations = block(new Vitals(42), ROWS);
+        scores = new ScoreBlock(ROWS);
+        errors = new byte[ROWS];
+        BatchScorer.score(observations, scores);
+        checkParity(observations, scores, Vitals.SIZE);
+    }
+
+    // Tiles the random vitals into a block of the requested size
+    static ObservationBlock block(Vitals vitals, int rows) {
+        ObservationBlock block = new ObservationBlock(rows);
+        for (int i = 0; i < rows; i++) {
+            int v = i & Vitals.MASK;
+            block.set(i, vitals.airOrOxygen[v], vitals.consciousness[v], vitals.respiration[v], vitals.spo2[v],
+                    vitals.temperature[v], vitals.cbg[v], vitals.fasting[v]);
+        }
+        return block;
+    }
+
+    // Compares the first rows of a scored block against Patient.calculateMediScore
+    static void checkParity(ObservationBlock observations, ScoreBlock scores, int rows) {
+        try (AsyncResultSink sink = new AsyncResultSink(Writer.nullWriter(), ResultFormat.TABLE)) {
+            for (int i = 0; i < rows; i++) {
+                Patient patient = new Patient("Parity", observations.airOrOxygen[i], observations.consciousness[i],
+                        observations.resp[i], observations.spo2[i], Tenths.toFloat(observations.tempTenths[i]), Tenths.toFloat(observations.cbgTenths[i]),
+                        observations.fasting[i]);
+                patient.setResultSink(sink);
+                patient.calculateMediScore(patient);
+                if (patient.getPackedScores() != scores.packed(i)) {
+                    throw new IllegalStateException("Batch score differs from Patient.calculateMediScore at row " + i);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public ScoreBlock scoreBlock() {
+        BatchScorer.score(observations, scores);
+        return scores;
+    }
+
+    // Validates every row into the error array before scoring
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public ScoreBlock scoreValidBlock() {
+        BatchScorer.scoreValid(observations, scores, errors);
+        return scores;
+    }
+}
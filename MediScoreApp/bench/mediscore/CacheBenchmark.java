@@ -0,0 +1,97 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: CacheBenchmark.java
+ * Author: Christopher Fairhurst
+ * Description: JMH benchmarks for scoring and rendering with and without the ScoreCache.
+ * ------------------------------------------------------------------------------
+ * Usage:
+ * mvn -Pbench package
+ * java -jar target/benchmarks.jar CacheBenchmark
+ * ------------------------------------------------------------------------------
+ * The 4096 observations are cycled through repeatedly, as repeated traffic would be.
+ * A capacity of 0 is the uncached path, 1024 holds only part of the observations so
+ * most lookups miss and evict, and 8192 holds all of them.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CacheBenchmark {
+    @Param({"0", "1024", "8192"})
+    public int capacity;
+
+    private Vitals vitals;
+    private int[] temperatureTenths;
+    private int[] cbgTenths;
+    private ScoreCache cache;
+    private final StringBuilder out = new StringBuilder(1600);
+    private int index;
+
+    @Setup
+    public void setUp() {
+        vitals = new Vitals(42);
+        temperatureTenths = new int[Vitals.SIZE];
+        cbgTenths = new int[Vitals.SIZE];
+        for (int i = 0; i < Vitals.SIZE; i++) {
+            temperatureTenths[i] = Tenths.of(vitals.temperature[i]);
+            cbgTenths[i] = Tenths.of(vitals.cbg[i]);
+        }
+        cache = capacity == 0 ? null : new ScoreCache(capacity);
+        ScoreCache.install(cache);
+    }
+
+    @TearDown
+    public void tearDown() {
+        ScoreCache.install(null);
+    }
+
+    private int next() {
+        return index = (index + 1) & Vitals.MASK;
+    }
+
+    private int score(int i) {
+        if (cache == null) {
+            return MediScore.scoreTenths(vitals.airOrOxygen[i], vitals.consciousness[i], vitals.respiration[i], vitals.spo2[i],
+                    temperatureTenths[i], cbgTenths[i], vitals.fasting[i]);
+        }
+        return cache.get(vitals.airOrOxygen[i], vitals.consciousness[i], vitals.respiration[i], vitals.spo2[i],
+                temperatureTenths[i], cbgTenths[i], vitals.fasting[i]).packedScores();
+    }
+
+    // The packed scores of one observation
+    @Benchmark
+    public int score() {
+        return score(next());
+    }
+
+    // The packed scores and the table calculateMediScore and toString render for one observation
+    @Benchmark
+    public int scoreAndRender() {
+        int i = next();
+        out.setLength(0);
+        ScoreTable.append(out, vitals.names[i], vitals.airOrOxygen[i], vitals.consciousness[i], vitals.respiration[i], vitals.spo2[i],
+                temperatureTenths[i], cbgTenths[i], vitals.fasting[i], score(i));
+        return out.length();
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: ColdStartBenchmark.java
+ * Author: Christopher Fairhurst
+ * Description: JMH benchmark of the end-to-end time of a one-shot ScoreCli run in a new JVM.
+ * ------------------------------------------------------------------------------
+ * Usage:
+ * mvn -Pbench package
+ * java -jar target/benchmarks.jar ColdStartBenchmark
+ * ------------------------------------------------------------------------------
+ * Every operation starts a new JVM that scores one observation given as arguments and
+ * exits, and is timed from starting the process to it exiting, the way a script sees it.
+ * java is the JVM with its default flags, cds adds an AppCDS archive of the classes a
+ * run loads, dumped once in setUp, and cdsC1 also stops at the C1 compiler, which is
+ * all a run this short ever reaches.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 20)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ColdStartBenchmark {
+    private static final String[] OBSERVATION = {"2", "0", "20", "95", "37.2", "7.0", "true"};
+
+    @Param({"java", "cds", "cdsC1"})
+    public String flags;
+
+    private Path archive;
+    private List<String> command;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        List<String> options = new ArrayList<>();
+        if (!flags.equals("java")) {
+            archive = Files.createTempFile("mediscore", ".jsa");
+            Files.delete(archive);
+            run(command("-XX:ArchiveClassesAtExit=" + archive));
+            options.add("-XX:SharedArchiveFile=" + archive);
+        }
+        if (flags.equals("cdsC1")) {
+            options.add("-XX:TieredStopAtLevel=1");
+        }
+        command = command(options.toArray(new String[0]));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (archive != null) {
+            Files.deleteIfExists(archive);
+        }
+    }
+
+    // Starts a JVM, scores one observation and waits for it to exit
+    @Benchmark
+    public int scoreOne() throws IOException, InterruptedException {
+        return run(command);
+    }
+
+    // This JVM's java launcher on this JVM's class path, running Main with the observation
+    private static List<String> command(String... options) {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(List.of(options));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("mediscore.Main");
+        command.addAll(List.of(OBSERVATION));
+        return command;
+    }
+
+    private static int run(List<String> command) throws IOException, InterruptedException {
+        int status = new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start()
+                .waitFor();
+        if (status != 0) {
+            throw new IllegalStateException("Invalid exit status " + status + ".");
+        }
+        return status;
+    }
+}
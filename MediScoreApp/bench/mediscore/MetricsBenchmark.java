@@ -0,0 +1,87 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: MetricsBenchmark.java
+ * Author: Christopher Fairhurst
+ * Description: JMH benchmarks for the cost of Metrics on the scoring hot path.
+ * ------------------------------------------------------------------------------
+ * Usage:
+ * mvn -Pbench package
+ * java -jar target/benchmarks.jar MetricsBenchmark
+ * ------------------------------------------------------------------------------
+ * Every benchmark runs with metrics on and off, the difference between the two is
+ * the per-observation overhead of the counters.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MetricsBenchmark {
+    @Param({"true", "false"})
+    public boolean enabled;
+
+    private Vitals vitals;
+    private PatientRegistry registry;
+    private Observation[] observations;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        Metrics.setEnabled(enabled);
+        vitals = new Vitals(42);
+        registry = new PatientRegistry();
+        observations = new Observation[Vitals.SIZE];
+        for (int i = 0; i < Vitals.SIZE; i++) {
+            observations[i] = Observation.of(vitals.airOrOxygen[i], vitals.consciousness[i], vitals.respiration[i], vitals.spo2[i],
+                    vitals.temperature[i], vitals.cbg[i], vitals.fasting[i], i);
+        }
+    }
+
+    private int next() {
+        return index = (index + 1) & Vitals.MASK;
+    }
+
+    // One scored observation
+    @Benchmark
+    public int score() {
+        return observations[next()].score();
+    }
+
+    // One observation counted, without the scoring around it
+    @Benchmark
+    public void count() {
+        Metrics.scored();
+    }
+
+    // One scored observation plus its alert outcome
+    @Benchmark
+    public PatientState record() {
+        int i = next();
+        return registry.record(i & 255, observations[i]);
+    }
+
+    // One latency recorded into a histogram
+    @Benchmark
+    public void recordLatency() {
+        Metrics.recordSince(Metrics.REQUEST_LATENCY, Metrics.start());
+    }
+}
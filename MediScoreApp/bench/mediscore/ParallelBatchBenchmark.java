@@ -0,0 +1,87 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: ParallelBatchBenchmark.java
+ * Author: Christopher Fairhurst
+ * Description: Scaling curve for ParallelBatchScorer from 1 to N cores.
+ * ------------------------------------------------------------------------------
+ * Usage:
+ * mvn -Pbench package
+ * java -jar target/benchmarks.jar ParallelBatchBenchmark -p parallelism=1,2,4,8,16
+ * ------------------------------------------------------------------------------
+ * Each parallelism value gets its own ForkJoinPool so the curve is not skewed by
+ * the size of the common pool. Setup refuses to run if the parallel output differs
+ * from sequential BatchScorer output in any row.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelBatchBenchmark {
+    static final int ROWS = 1 << 23;
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    private ForkJoinPool pool;
+    private ObservationBlock observations;
+    private byte[] previousFinalScore;
+    private ScoreBlock scores;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pool = new ForkJoinPool(parallelism);
+        observations = BatchBenchmark.block(new Vitals(42), ROWS);
+        previousFinalScore = new byte[ROWS];
+        SplittableRandom random = new SplittableRandom(7);
+        for (int i = 0; i < ROWS; i++) {
+            previousFinalScore[i] = (byte) random.nextInt(-1, 18);
+        }
+        scores = new ScoreBlock(ROWS);
+
+        ScoreBlock sequential = new ScoreBlock(ROWS);
+        BatchScorer.score(observations, sequential);
+        BatchScorer.flagAlerts(sequential, previousFinalScore, 0, ROWS);
+        ParallelBatchScorer.score(observations, scores, previousFinalScore, pool);
+        if (!Arrays.equals(sequential.finalScore, scores.finalScore) || !Arrays.equals(sequential.alert, scores.alert)) {
+            throw new IllegalStateException("Parallel scoring differs from sequential scoring.");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public ScoreBlock scoreParallel() {
+        ParallelBatchScorer.score(observations, scores, previousFinalScore, pool);
+        return scores;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: PatientBenchmark.java
+ * Author: Christopher Fairhurst
+ * Description: JMH benchmarks for the Patient class and the MediScore band methods.
+ * ------------------------------------------------------------------------------
+ * Usage:
+ * mvn -Pbench package
+ * java -jar target/benchmarks.jar PatientBenchmark -prof gc
+ * ------------------------------------------------------------------------------
+ * calculateMediScore hands the table and alert to the patient's ResultSink, so every
+ * patient is given an AsyncResultSink over a discarding Writer while the benchmarks run.
+ * The numbers therefore measure rendering and handing the record to the sink, not the
+ * console itself, which is written on the sink's own thread.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PatientBenchmark {
+    private Vitals vitals;
+    private Patient[] patients;
+    private AsyncResultSink sink;
+    private StringBuilder table;
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        sink = new AsyncResultSink(Writer.nullWriter(), ResultFormat.TABLE);
+        table = new StringBuilder(2048);
+        vitals = new Vitals(42);
+        patients = new Patient[Vitals.SIZE];
+        for (int i = 0; i < Vitals.SIZE; i++) {
+            patients[i] = vitals.patient(i);
+            patients[i].setResultSink(sink);
+            patients[i].calculateMediScore(patients[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        sink.close();
+    }
+
+    // Moves on to the next observation so every call sees different vitals
+    private int next() {
+        return index = (index + 1) & Vitals.MASK;
+    }
+
+    // Construction includes validateData
+    @Benchmark
+    public Patient construct() {
+        return vitals.patient(next());
+    }
+
+    // updatePatient includes validateUpdateData
+    @Benchmark
+    public Patient updatePatient() {
+        int i = next();
+        Patient patient = patients[i];
+        int j = (i + 1) & Vitals.MASK;
+        patient.updatePatient(vitals.airOrOxygen[j], vitals.consciousness[j], vitals.respiration[j], vitals.spo2[j],
+                vitals.temperature[j], vitals.cbg[j], vitals.fasting[j]);
+        return patient;
+    }
+
+    @Benchmark
+    public int calculateMediScore() {
+        Patient patient = patients[next()];
+        patient.calculateMediScore(patient);
+        return patient.getPackedScores();
+    }
+
+    // Lookup tables from the installed ScoringBands
+    @Benchmark
+    public int score() {
+        int i = next();
+        return MediScore.score(vitals.airOrOxygen[i], vitals.consciousness[i], vitals.respiration[i], vitals.spo2[i],
+                vitals.temperature[i], vitals.cbg[i], vitals.fasting[i]);
+    }
+
+    // The if/else band methods the default tables are built from, for comparison with score
+    @Benchmark
+    public int scoreBandMethods() {
+        int i = next();
+        return MediScore.pack(MediScore.airOrOxygenScore(vitals.airOrOxygen[i]), MediScore.consciousnessScore(vitals.consciousness[i]),
+                MediScore.respirationRateScore(vitals.respiration[i]), MediScore.spo2Score(vitals.airOrOxygen[i], vitals.spo2[i]),
+                MediScore.temperatureScore(vitals.temperature[i]), MediScore.cbgScore(vitals.cbg[i], vitals.fasting[i]));
+    }
+
+    // Band methods
+    @Benchmark
+    public int airOrOxygenScore() {
+        return MediScore.airOrOxygenScore(vitals.airOrOxygen[next()]);
+    }
+
+    @Benchmark
+    public int consciousnessScore() {
+        return MediScore.consciousnessScore(vitals.consciousness[next()]);
+    }
+
+    @Benchmark
+    public int respirationRateScore() {
+        return MediScore.respirationRateScore(vitals.respiration[next()]);
+    }
+
+    @Benchmark
+    public int spo2Score() {
+        int i = next();
+        return MediScore.spo2Score(vitals.airOrOxygen[i], vitals.spo2[i]);
+    }
+
+    @Benchmark
+    public int temperatureScore() {
+        return MediScore.temperatureScore(vitals.temperature[next()]);
+    }
+
+    @Benchmark
+    public int cbgScore() {
+        int i = next();
+        return MediScore.cbgScore(vitals.cbg[i], vitals.fasting[i]);
+    }
+
+    // Comment generators
+    @Benchmark
+    public String airOrOxygenComment() {
+        return patients[next()].AirOrOxygenComment();
+    }
+
+    @Benchmark
+    public String consciousnessComment() {
+        return patients[next()].ConsciousnessComment();
+    }
+
+    @Benchmark
+    public String spo2Comment() {
+        Patient patient = patients[next()];
+        return patient.Spo2Comment(patient);
+    }
+
+    @Benchmark
+    public String cbgComment() {
+        return patients[next()].CBGComment();
+    }
+
+    // Table rendering
+    @Benchmark
+    public String toStringTable() {
+        return patients[next()].toString();
+    }
+
+    // Rendering into a reused StringBuilder, as printTable does
+    @Benchmark
+    public StringBuilder appendTable() {
+        table.setLength(0);
+        return patients[next()].appendTable(table);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: RegistryBenchmark.java
+ * Author: Christopher Fairhurst
+ * Description: Writer throughput of the PatientRegistry as the number of feeder threads grows.
+ * ------------------------------------------------------------------------------
+ * Usage:
+ * mvn -Pbench package
+ * java -jar target/benchmarks.jar RegistryBenchmark -t 1
+ * java -jar target/benchmarks.jar RegistryBenchmark -t 4
+ * ------------------------------------------------------------------------------
+ * Each JMH thread plays a group of bedside devices that own their own patients,
+ * which is how the ward feed is partitioned.
+ * The OffHeap benchmarks do the same against an OffHeapPatientStore.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistryBenchmark {
+    // Patients owned by each writer thread
+    static final int PATIENTS_PER_WRITER = 256;
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        final PatientRegistry registry = new PatientRegistry();
+        final OffHeapPatientStore store = new OffHeapPatientStore();
+        final AtomicInteger writers = new AtomicInteger();
+    }
+
+    @State(Scope.Thread)
+    public static class Writer {
+        Observation[] observations;
+        long firstPatientId;
+        int index;
+
+        @Setup(Level.Trial)
+        public void setUp(Shared shared) {
+            firstPatientId = (long) shared.writers.getAndIncrement() * PATIENTS_PER_WRITER;
+            Vitals vitals = new Vitals(firstPatientId);
+            observations = new Observation[Vitals.SIZE];
+            for (int i = 0; i < Vitals.SIZE; i++) {
+                observations[i] = Observation.of(vitals.airOrOxygen[i], vitals.consciousness[i], vitals.respiration[i],
+                        vitals.spo2[i], vitals.temperature[i], vitals.cbg[i], vitals.fasting[i], i * 60_000L);
+            }
+        }
+    }
+
+    @Benchmark
+    public PatientState record(Shared shared, Writer writer) {
+        int i = writer.index = (writer.index + 1) & Vitals.MASK;
+        return shared.registry.record(writer.firstPatientId + (i % PATIENTS_PER_WRITER), writer.observations[i]);
+    }
+
+    // Lock-free read of the latest state and its alert
+    @Benchmark
+    public ScoreAlert read(Shared shared, Writer writer) {
+        int i = writer.index = (writer.index + 1) & Vitals.MASK;
+        PatientState state = shared.registry.get(writer.firstPatientId + (i % PATIENTS_PER_WRITER));
+        return state == null ? null : state.alert();
+    }
+
+    @Benchmark
+    public ScoreAlert recordOffHeap(Shared shared, Writer writer) {
+        int i = writer.index = (writer.index + 1) & Vitals.MASK;
+        return shared.store.record(writer.firstPatientId + (i % PATIENTS_PER_WRITER), writer.observations[i]);
+    }
+
+    // Alert read straight from the patient's slot
+    @Benchmark
+    public ScoreAlert readOffHeap(Shared shared, Writer writer) {
+        int i = writer.index = (writer.index + 1) & Vitals.MASK;
+        return shared.store.alert(writer.firstPatientId + (i % PATIENTS_PER_WRITER));
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: SchedulerBenchmark.java
+ * Author: Christopher Fairhurst
+ * Description: JMH benchmarks of the ObservationScheduler timer wheel with a full hospital of patients.
+ * ------------------------------------------------------------------------------
+ * Usage:
+ * mvn -Pbench package
+ * java -jar target/benchmarks.jar SchedulerBenchmark
+ * ------------------------------------------------------------------------------
+ * Every patient starts with a random final score and a last observation at a random
+ * point of their interval, so their due times are spread over the next 12 hours.
+ * Scores are drawn the way a hospital mostly of stable patients would score: 60% score 0
+ * and are due every 12 hours, 30% 1-4 every 4 hours, 7% 5-6 every hour and 3% 7 or more
+ * every 15 minutes, which makes about 5 reports a minute for every thousand patients.
+ * tick moves the simulated clock on by one one-minute tick and advances the wheel.
+ * Every patient reported overdue is observed again on the spot with a new random score,
+ * as if a nurse had just been round, so the number tracked and the number reported per
+ * tick stay steady however many ticks JMH runs, and the rescheduling is part of the tick.
+ * observed reschedules one random patient from a new observation.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SchedulerBenchmark {
+    // Simulated clock start, 2024-01-01T00:00:00Z
+    private static final long START_TIME = 1_704_067_200_000L;
+
+    @Param({"500000"})
+    public int patients;
+
+    private final SplittableRandom random = new SplittableRandom(42);
+    private ObservationScheduler scheduler;
+    private long now;
+
+    @Setup
+    public void setUp() {
+        now = START_TIME;
+        scheduler = new ObservationScheduler((patientId, finalScore, dueTime) ->
+                scheduler.observed(patientId, now, score()));
+        for (long patientId = 0; patientId < patients; patientId++) {
+            int score = score();
+            scheduler.observed(patientId, now - random.nextLong(ObservationScheduler.dueAfter(score)), score);
+        }
+        scheduler.advance(now);
+    }
+
+    // One tick of the wheel, returning the number of patients reported overdue on it
+    @Benchmark
+    public int tick() {
+        now += ObservationScheduler.DEFAULT_TICK;
+        return scheduler.advance(now);
+    }
+
+    @Benchmark
+    public void observed() {
+        scheduler.observed(random.nextInt(patients), now, score());
+    }
+
+    private int score() {
+        int percent = random.nextInt(100);
+        if (percent < 60) {
+            return 0;
+        } else if (percent < 90) {
+            return 1 + random.nextInt(4);
+        } else if (percent < 97) {
+            return 5 + random.nextInt(2);
+        }
+        return 7 + random.nextInt(4);
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: Vitals.java
+ * Author: Christopher Fairhurst
+ * Description: Randomised vital sign distributions shared by the JMH benchmarks.
+ * ------------------------------------------------------------------------------
+ * Half of the generated observations are drawn uniformly from the valid range of
+ * each attribute and half sit exactly on a band edge, so every branch of the band
+ * methods is exercised and the branch predictor cannot learn a single path.
+ * A fixed seed keeps runs comparable between builds.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import java.util.SplittableRandom;
+
+final class Vitals {
+    // Power of two so benchmarks can cycle through the arrays with a mask
+    static final int SIZE = 4096;
+    static final int MASK = SIZE - 1;
+
+    // Band edges taken from the thresholds in MediScore, including the value just below each edge
+    private static final int[] RESPIRATION_EDGES = {8, 9, 11, 12, 20, 21, 24, 25};
+    private static final int[] SPO2_EDGES = {83, 84, 85, 86, 87, 88, 92, 93, 94, 95, 96, 97};
+    private static final float[] TEMPERATURE_EDGES = {35.0f, 35.1f, 36.0f, 36.1f, 38.0f, 38.1f, 39.0f, 39.1f};
+    private static final float[] CBG_EDGES = {3.4f, 3.5f, 3.8f, 3.9f, 4.0f, 4.4f, 4.5f, 5.4f, 5.5f, 5.8f,
+            5.9f, 6.0f, 7.7f, 7.8f, 7.9f, 8.9f, 9.0f};
+
+    final String[] names = new String[SIZE];
+    final int[] airOrOxygen = new int[SIZE];
+    final int[] consciousness = new int[SIZE];
+    final int[] respiration = new int[SIZE];
+    final int[] spo2 = new int[SIZE];
+    final float[] temperature = new float[SIZE];
+    final float[] cbg = new float[SIZE];
+    final boolean[] fasting = new boolean[SIZE];
+
+    Vitals(long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = 0; i < SIZE; i++) {
+            boolean edge = random.nextBoolean();
+            names[i] = "Patient " + i;
+            airOrOxygen[i] = random.nextBoolean() ? 0 : 2;
+            consciousness[i] = random.nextInt(4);
+            fasting[i] = random.nextBoolean();
+            if (edge) {
+                respiration[i] = RESPIRATION_EDGES[random.nextInt(RESPIRATION_EDGES.length)];
+                spo2[i] = SPO2_EDGES[random.nextInt(SPO2_EDGES.length)];
+                temperature[i] = TEMPERATURE_EDGES[random.nextInt(TEMPERATURE_EDGES.length)];
+                cbg[i] = CBG_EDGES[random.nextInt(CBG_EDGES.length)];
+            } else {
+                respiration[i] = random.nextInt(0, 41);
+                spo2[i] = random.nextInt(70, 101);
+                temperature[i] = random.nextInt(280, 451) / 10.0f;
+                cbg[i] = random.nextInt(20, 151) / 10.0f;
+            }
+        }
+    }
+
+    // Builds a patient from observation i
+    Patient patient(int i) {
+        return new Patient(names[i], airOrOxygen[i], consciousness[i], respiration[i], spo2[i],
+                temperature[i], cbg[i], fasting[i]);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: WardBenchmark.java
+ * Author: Christopher Fairhurst
+ * Description: JMH benchmarks for keeping and reading the WardAggregates.
+ * ------------------------------------------------------------------------------
+ * Usage:
+ * mvn -Pbench package
+ * java -jar target/benchmarks.jar WardBenchmark
+ * ------------------------------------------------------------------------------
+ * Every patient is on one of 8 wards, and 4096 random scores of 0-20 are cycled through.
+ * patients is the number across all the wards. With 1000 patients most scores change the
+ * patient's last one, with 100000 nearly every patient has only one of the 4096 scores,
+ * so after the first pass their score is unchanged and record only takes the locks.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WardBenchmark {
+    private static final int WARDS = 8;
+
+    @Param({"1000", "100000"})
+    public int patients;
+
+    private final String[] names = new String[WARDS];
+    private WardAggregates wards;
+    private PatientState[] states;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        wards = new WardAggregates();
+        long now = System.currentTimeMillis();
+        for (int ward = 0; ward < WARDS; ward++) {
+            names[ward] = "Ward " + ward;
+        }
+        for (int id = 0; id < patients; id++) {
+            wards.assign(id, names[id % WARDS]);
+        }
+        states = new PatientState[Vitals.SIZE];
+        for (int i = 0; i < states.length; i++) {
+            int finalScore = random.nextInt(21);
+            ScoreAlert alert = random.nextInt(8) == 0 ? ScoreAlert.RAISED : ScoreAlert.NOT_RAISED;
+            states[i] = new PatientState(random.nextInt(patients), new Observation(0, now), finalScore << 24,
+                    PatientState.NO_PREVIOUS_SCORE, 0, alert, 0, 0, 0);
+        }
+        for (PatientState state : states) {
+            wards.record(state);
+        }
+    }
+
+    // One new score applied to its patient's ward
+    @Benchmark
+    public int record() {
+        PatientState state = states[index = (index + 1) & Vitals.MASK];
+        wards.record(state);
+        return state.finalScore();
+    }
+
+    // The high risk count for one ward
+    @Benchmark
+    public int highRisk() {
+        return wards.highRisk(names[index = (index + 1) & (WARDS - 1)]);
+    }
+
+    // The 10 worst patients on one ward
+    @Benchmark
+    public List<WardAggregates.Ranked> worst10() {
+        return wards.worst(names[index = (index + 1) & (WARDS - 1)], 10);
+    }
+}
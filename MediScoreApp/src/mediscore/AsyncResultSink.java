@@ -0,0 +1,262 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: AsyncResultSink.java
+ * Author: Christopher Fairhurst
+ * Description: ResultSink that writes on a background thread so scoring never waits on I/O.
+ * ------------------------------------------------------------------------------
+ * Key Features:
+ * The calling thread renders the record into its own reusable StringBuilder and copies
+ * the characters into a shared ring buffer, holding a lock only for the copy.
+ * A single writer thread takes everything waiting in the ring in one go, writes it in
+ * large chunks and flushes once the ring is empty, so a burst of results costs a few
+ * writes rather than one per line.
+ * If the ring is full the record is dropped and counted rather than making the scoring
+ * thread wait, see dropped. The writer reports dropped records on standard error.
+ * ------------------------------------------------------------------------------
+ * Usage:
+ * AsyncResultSink.console() is the shared sink for standard out that Patient uses by default,
+ * it is drained when the JVM exits.
+ * new AsyncResultSink(writer, ResultFormat.JSON) writes to any Writer, call close to drain it.
+ * Closing flushes the Writer but leaves it open, it still belongs to the caller.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+public final class AsyncResultSink implements ResultSink, Closeable {
+    // Characters held in the ring, a little over 700 tables
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    // A rendered table is a little under 1500 characters
+    private static final int RECORD_CAPACITY = 1536;
+    private static final long REPORT_INTERVAL_NANOS = 1_000_000_000L;
+
+    private static AsyncResultSink console;
+
+    private final Writer out;
+    private final ResultFormat format;
+    private final char[] ring;
+    private final int mask;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition written = lock.newCondition();
+    private final AtomicLong dropped = new AtomicLong();
+    private final ThreadLocal<StringBuilder> records = ThreadLocal.withInitial(() -> new StringBuilder(RECORD_CAPACITY));
+    private final Thread writer;
+
+    // Characters ever added to the ring, written from it and flushed, guarded by lock
+    private long head;
+    private long tail;
+    private long flushed;
+    private int flushWaiters;
+    private boolean closed;
+    private IOException failure;
+    // Only used by the writer thread
+    private long reportedDropped;
+    private long reportedAt = System.nanoTime();
+
+    public AsyncResultSink(Writer out, ResultFormat format) {
+        this(out, format, DEFAULT_CAPACITY);
+    }
+
+    // capacity is the number of characters the ring holds and must be a power of two
+    public AsyncResultSink(Writer out, ResultFormat format, int capacity) {
+        if (out == null) {
+            throw new IllegalArgumentException("Invalid out value.");
+        }
+        if (format == null) {
+            throw new IllegalArgumentException("Invalid format value.");
+        }
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Invalid capacity value.");
+        }
+        this.out = out;
+        this.format = format;
+        this.ring = new char[capacity];
+        this.mask = capacity - 1;
+        this.writer = Thread.ofPlatform().name("mediscore-result-writer").daemon().start(this::drain);
+    }
+
+    // The shared table sink for standard out, drained by a shutdown hook when the JVM exits
+    public static synchronized AsyncResultSink console() {
+        if (console == null) {
+            console = new AsyncResultSink(new OutputStreamWriter(System.out, System.out.charset()), ResultFormat.TABLE);
+            Runtime.getRuntime().addShutdownHook(new Thread(console::close, "mediscore-result-drain"));
+        }
+        return console;
+    }
+
+    @Override
+    public void scored(String name, int airOrOxygenObs, int consciousnessObs, int respirationRange, int spo2,
+                       int temperatureTenths, int cbgTenths, boolean isFasting, long timestamp, int packedScores) {
+        StringBuilder record = records.get();
+        record.setLength(0);
+        format.appendResult(record, name, airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperatureTenths, cbgTenths, isFasting, timestamp, packedScores);
+        publish(record);
+    }
+
+    @Override
+    public void message(String name, String message) {
+        StringBuilder record = records.get();
+        record.setLength(0);
+        format.appendMessage(record, name, message);
+        publish(record);
+    }
+
+    // Copies a rendered record into the ring, or drops it if there is no room
+    private void publish(StringBuilder record) {
+        int length = record.length();
+        lock.lock();
+        try {
+            if (closed || length > ring.length - (head - tail)) {
+                dropped.incrementAndGet();
+                return;
+            }
+            int start = (int) (head & mask);
+            int first = Math.min(length, ring.length - start);
+            record.getChars(0, first, ring, start);
+            record.getChars(first, length, ring, 0);
+            if (head == tail) {
+                notEmpty.signal();
+            }
+            head += length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Waits until everything accepted so far has been written and the Writer flushed
+    // Only call this outside the scoring path, it is the one method that waits on I/O
+    @Override
+    public void flush() {
+        lock.lock();
+        try {
+            long target = head;
+            flushWaiters++;
+            while (flushed < target && failure == null && writer.isAlive()) {
+                written.awaitUninterruptibly();
+            }
+            flushWaiters--;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Drains the ring, stops the writer thread and flushes the Writer
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Records dropped because the ring was full or the sink was closed
+    public long dropped() {
+        return dropped.get();
+    }
+
+    // The error that stopped the writer, or null
+    public IOException failure() {
+        lock.lock();
+        try {
+            return failure;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Tells standard error how many records have been dropped since the last report, at most once a second
+    private void reportDropped(boolean force) {
+        long total = dropped.get();
+        long now = System.nanoTime();
+        if (total > reportedDropped && (force || now - reportedAt >= REPORT_INTERVAL_NANOS)) {
+            System.err.println("Result output could not keep up, " + (total - reportedDropped) + " records dropped.");
+            reportedDropped = total;
+            reportedAt = now;
+        }
+    }
+
+    // Writer thread, writes whatever is in the ring and flushes when it runs dry
+    private void drain() {
+        try {
+            while (true) {
+                long from;
+                long to;
+                lock.lock();
+                try {
+                    while (head == tail && !closed) {
+                        notEmpty.awaitUninterruptibly();
+                    }
+                    if (head == tail) {
+                        return;
+                    }
+                    from = tail;
+                    to = head;
+                } finally {
+                    lock.unlock();
+                }
+
+                // The range from tail to head is only written by producers once tail has moved past it
+                int start = (int) (from & mask);
+                int length = (int) (to - from);
+                int first = Math.min(length, ring.length - start);
+                out.write(ring, start, first);
+                out.write(ring, 0, length - first);
+
+                boolean flushNow;
+                lock.lock();
+                try {
+                    tail = to;
+                    flushNow = head == tail || flushWaiters > 0;
+                } finally {
+                    lock.unlock();
+                }
+                reportDropped(false);
+                if (flushNow) {
+                    out.flush();
+                    lock.lock();
+                    try {
+                        flushed = to;
+                        written.signalAll();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            lock.lock();
+            try {
+                failure = e;
+                closed = true;
+                written.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            System.err.println("Result output failed: " + e.getMessage());
+        } finally {
+            reportDropped(true);
+            try {
+                out.flush();
+            } catch (IOException ignored) {
+                // Already reported or nothing left to flush
+            }
+        }
+    }
+}
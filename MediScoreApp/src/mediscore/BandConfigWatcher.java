@@ -0,0 +1,93 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: BandConfigWatcher.java
+ * Author: Christopher Fairhurst
+ * Description: Reloads the scoring bands whenever their config file changes.
+ * ------------------------------------------------------------------------------
+ * The file is loaded and installed when the watcher starts, so a bad config stops
+ * startup rather than running with the wrong bands.
+ * After that a background thread watches the file's directory and installs the new
+ * bands each time the file is written. A config that fails to load is reported on
+ * standard error and the bands already in use are kept.
+ * Installing is a single atomic swap in ScoringBands, so scoring never pauses for a reload.
+ * ------------------------------------------------------------------------------
+ * Usage:
+ * BandConfigWatcher watcher = BandConfigWatcher.start(Path.of("bands.properties"));
+ * ...
+ * watcher.close();
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+public final class BandConfigWatcher implements Closeable {
+    private final Path path;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    private BandConfigWatcher(Path path) throws IOException {
+        this.path = path;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        path.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this.thread = Thread.ofPlatform().name("mediscore-band-watcher").daemon().start(this::watch);
+    }
+
+    // Loads and installs the bands in the file, then keeps them up to date with it
+    // Throws if the file cannot be read or is not a valid band config
+    public static BandConfigWatcher start(Path path) throws IOException {
+        Path absolute = path.toAbsolutePath();
+        ScoringBands.install(ScoringBands.load(absolute));
+        return new BandConfigWatcher(absolute);
+    }
+
+    // Stops watching, the bands in use stay installed
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW || path.getFileName().equals(event.context())) {
+                        changed = true;
+                    }
+                }
+                key.reset();
+                if (changed) {
+                    reload();
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // Closed, stop watching
+        }
+    }
+
+    private void reload() {
+        try {
+            ScoringBands bands = ScoringBands.load(path);
+            ScoringBands.install(bands);
+            System.err.println("Installed scoring bands " + bands.version() + " from " + path);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Kept scoring bands " + ScoringBands.current().version() + ", could not load " + path + ": " + e.getMessage());
+        }
+    }
+}
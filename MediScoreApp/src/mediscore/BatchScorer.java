@@ -0,0 +1,160 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: BatchScorer.java
+ * Author: Christopher Fairhurst
+ * Description: Scores a columnar block of observations into preallocated score columns.
+ * ------------------------------------------------------------------------------
+ * Key Features:
+ * No Patient objects and no allocation per row.
+ * Every band is a lookup table from ScoringBands indexed by the clamped observation value,
+ * so a row costs a handful of array loads instead of a chain of if/else branches.
+ * A block is scored with one set of bands from start to finish, even if new bands are
+ * installed part way through, and the results match Patient.calculateMediScore exactly.
+ * scoreValid checks every row first and records an error mask per row in a side array,
+ * instead of throwing at the first bad row.
+ * ------------------------------------------------------------------------------
+ * Usage:
+ * ObservationBlock in = new ObservationBlock(rows);
+ * ScoreBlock out = new ScoreBlock(rows);
+ * BatchScorer.score(in, out);
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+public final class BatchScorer {
+    private BatchScorer() {
+    }
+
+    // Scores every row of the block with the bands currently installed
+    public static void score(ObservationBlock in, ScoreBlock out) {
+        if (out.size() < in.size()) {
+            throw new IllegalArgumentException("Score block is smaller than the observation block.");
+        }
+        score(ScoringBands.current(), in, out, 0, in.size());
+    }
+
+    // Scores rows [from, to) of the block with the bands currently installed
+    public static void score(ObservationBlock in, ScoreBlock out, int from, int to) {
+        score(ScoringBands.current(), in, out, from, to);
+    }
+
+    // Scores rows [from, to) of the block with the given bands, writing to the same rows of the output
+    // The observations are expected to have passed the Patient validation rules
+    public static void score(ScoringBands bands, ObservationBlock in, ScoreBlock out, int from, int to) {
+        Metrics.scored(to - from);
+        scoreRows(bands, in, out, from, to);
+    }
+
+    // Checks every row against the Patient validation rules, then scores the block with the bands currently installed
+    // errors receives each row's ObservationValidator mask, 0 for a valid row
+    // Rejected rows get a final score of ScoreBlock.REJECTED and individual scores of 0, so they never raise an alert
+    // Returns the number of rows rejected
+    public static int scoreValid(ObservationBlock in, ScoreBlock out, byte[] errors) {
+        if (out.size() < in.size() || errors.length < in.size()) {
+            throw new IllegalArgumentException("Score block or error array is smaller than the observation block.");
+        }
+        return scoreValid(ScoringBands.current(), in, out, errors, 0, in.size());
+    }
+
+    // As above for rows [from, to) with the given bands
+    public static int scoreValid(ScoringBands bands, ObservationBlock in, ScoreBlock out, byte[] errors, int from, int to) {
+        return scoreValidated(bands, in, out, errors, from, to, validate(in, errors, from, to));
+    }
+
+    // Scores rows [from, to) that have already been checked, rejecting every row whose error is not 0
+    // For callers such as ObservationImporter that check rows as they read them
+    public static int scoreValidated(ScoringBands bands, ObservationBlock in, ScoreBlock out, byte[] errors, int from, int to) {
+        int rejected = 0;
+        for (int i = from; i < to; i++) {
+            rejected += errors[i] != 0 ? 1 : 0;
+        }
+        return scoreValidated(bands, in, out, errors, from, to, rejected);
+    }
+
+    private static int scoreValidated(ScoringBands bands, ObservationBlock in, ScoreBlock out, byte[] errors, int from, int to, int rejected) {
+        scoreRows(bands, in, out, from, to);
+        Metrics.scored(to - from - rejected);
+        if (rejected > 0) {
+            for (int i = from; i < to; i++) {
+                if (errors[i] != 0) {
+                    out.reject(i);
+                }
+            }
+        }
+        return rejected;
+    }
+
+    // Writes each row's ObservationValidator mask for rows [from, to) without throwing and returns the number of invalid rows
+    public static int validate(ObservationBlock in, byte[] errors, int from, int to) {
+        int[] resp = in.resp;
+        int[] spo2 = in.spo2;
+        short[] tempTenths = in.tempTenths;
+        int[] cbgTenths = in.cbgTenths;
+        byte[] airOrOxygen = in.airOrOxygen;
+        byte[] consciousness = in.consciousness;
+        int invalid = 0;
+        for (int i = from; i < to; i++) {
+            int mask = ObservationValidator.invalidFieldsTenths(airOrOxygen[i], consciousness[i], resp[i], spo2[i], tempTenths[i], cbgTenths[i]);
+            errors[i] = (byte) mask;
+            invalid += mask != 0 ? 1 : 0;
+        }
+        return invalid;
+    }
+
+    // The scoring loop shared by score and scoreValid
+    private static void scoreRows(ScoringBands bands, ObservationBlock in, ScoreBlock out, int from, int to) {
+        byte[] airOrOxygenBands = bands.airOrOxygen;
+        byte[] consciousnessBands = bands.consciousness;
+        byte[] respirationBands = bands.respiration;
+        byte[] spo2Bands = bands.spo2;
+        byte[] temperatureBands = bands.temperature;
+        byte[] cbgBands = bands.cbg;
+        int respirationMax = bands.respirationMax;
+        int spo2Max = bands.spo2Max;
+        int temperatureMaxTenths = bands.temperatureMaxTenths;
+        int cbgMaxTenths = bands.cbgMaxTenths;
+
+        int[] resp = in.resp;
+        int[] spo2 = in.spo2;
+        short[] tempTenths = in.tempTenths;
+        int[] cbgTenths = in.cbgTenths;
+        byte[] airOrOxygen = in.airOrOxygen;
+        byte[] consciousness = in.consciousness;
+        boolean[] fasting = in.fasting;
+
+        for (int i = from; i < to; i++) {
+            int air = airOrOxygen[i] & 2;
+            int airScore = airOrOxygenBands[air];
+            int consciousnessScore = consciousnessBands[consciousness[i] & 3];
+            int respirationScore = respirationBands[clamp(resp[i], respirationMax)];
+            int spo2Score = spo2Bands[clamp(spo2[i], spo2Max) + (air >> 1) * (spo2Max + 1)];
+            int temperatureScore = temperatureBands[clamp(tempTenths[i], temperatureMaxTenths)];
+            int cbgScore = cbgBands[clamp(cbgTenths[i], cbgMaxTenths) + (fasting[i] ? cbgMaxTenths + 1 : 0)];
+
+            out.airOrOxygenScore[i] = (byte) airScore;
+            out.consciousnessScore[i] = (byte) consciousnessScore;
+            out.respirationScore[i] = (byte) respirationScore;
+            out.spo2Score[i] = (byte) spo2Score;
+            out.temperatureScore[i] = (byte) temperatureScore;
+            out.cbgScore[i] = (byte) cbgScore;
+            out.finalScore[i] = (byte) (airScore + consciousnessScore + respirationScore + spo2Score + temperatureScore + cbgScore);
+        }
+    }
+
+    // Flags rows [from, to) whose final score has risen by more than 2 points, the same rule as Patient.scoreAlert
+    // A negative previous score means the patient has no previous score to compare with
+    public static void flagAlerts(ScoreBlock out, byte[] previousFinalScore, int from, int to) {
+        byte[] finalScore = out.finalScore;
+        boolean[] alert = out.alert;
+        for (int i = from; i < to; i++) {
+            int previous = previousFinalScore[i];
+            alert[i] = previous >= 0 & finalScore[i] - previous > 2;
+        }
+    }
+
+    // Clamps an index into [0, max] without branching
+    private static int clamp(int value, int max) {
+        return Math.min(Math.max(value, 0), max);
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: Comments.java
+ * Author: Christopher Fairhurst
+ * Description: Precomputed comments for the MediScore table.
+ * ------------------------------------------------------------------------------
+ * There are only a handful of distinct comments, so every possible comment is worked
+ * out once when the class loads and looked up by observation value afterwards.
+ * SpO2 comments are indexed by the SpO2 value and CBG comments by CBG in tenths,
+ * the same way BatchScorer indexes its bands, so a lookup is a single array load.
+ * The tables are filled from the comment rules below, so the comments are exactly the
+ * ones Patient has always produced, including for the CBG values that fall between the bands.
+ * Each distinct comment also has a small code, numbered from 1 in the order the tables are
+ * filled (air and consciousness, then SpO2 for air and oxygen and CBG fasting and not,
+ * each from the highest reading down), for exports that write codes instead of sentences.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class Comments {
+    public static final String AIR = "The patient is breathing air, and does not require supplementary oxygen.";
+    public static final String OXYGEN = "The patient requires supplementary oxygen.";
+    public static final String CONSCIOUS = "The patient is conscious.";
+    public static final String NOT_CONSCIOUS = "The patient is unconscious or confused.";
+
+    private static final int SPO2_MAX = 100;
+    // CBG of 10.0 and above gets the same comment whether fasting or not
+    private static final int CBG_MAX_TENTHS = 100;
+
+    private static final String[] SPO2_FOR_AIR = new String[SPO2_MAX + 1];
+    private static final String[] SPO2_FOR_OXYGEN = new String[SPO2_MAX + 1];
+    private static final String[] CBG_FASTING = new String[CBG_MAX_TENTHS + 1];
+    private static final String[] CBG_NOT_FASTING = new String[CBG_MAX_TENTHS + 1];
+
+    private static final List<String> BY_CODE = new ArrayList<>();
+    private static final Map<String, Integer> CODES = new HashMap<>();
+
+    static {
+        for (int spo2 = 0; spo2 <= SPO2_MAX; spo2++) {
+            SPO2_FOR_AIR[spo2] = spo2CommentForAir(spo2);
+            SPO2_FOR_OXYGEN[spo2] = spo2CommentForOxygen(spo2);
+        }
+        for (int k = 0; k <= CBG_MAX_TENTHS; k++) {
+            CBG_FASTING[k] = cbgComment(k, true);
+            CBG_NOT_FASTING[k] = cbgComment(k, false);
+        }
+        for (String comment : List.of(AIR, OXYGEN, CONSCIOUS, NOT_CONSCIOUS)) {
+            addCode(comment);
+        }
+        for (String[] table : List.of(SPO2_FOR_AIR, SPO2_FOR_OXYGEN, CBG_FASTING, CBG_NOT_FASTING)) {
+            for (int i = table.length - 1; i >= 0; i--) {
+                addCode(table[i]);
+            }
+        }
+    }
+
+    private Comments() {
+    }
+
+    public static String airOrOxygen(int airOrOxygenObs) {
+        return airOrOxygenObs == 0 ? AIR : OXYGEN;
+    }
+
+    public static String consciousness(int consciousnessObs) {
+        return consciousnessObs == 0 ? CONSCIOUS : NOT_CONSCIOUS;
+    }
+
+    // SpO2 comment, choosing the air or oxygen comments from the observation
+    public static String spo2(int airOrOxygenObs, int spo2) {
+        return switch (airOrOxygenObs) {
+            case 0 -> spo2ForAir(spo2);
+            case 2 -> spo2ForOxygen(spo2);
+            default -> throw new java.lang.IllegalStateException("Unexpected value: " + airOrOxygenObs);
+        };
+    }
+
+    public static String spo2ForAir(int spo2) {
+        return SPO2_FOR_AIR[Math.min(Math.max(spo2, 0), SPO2_MAX)];
+    }
+
+    public static String spo2ForOxygen(int spo2) {
+        return SPO2_FOR_OXYGEN[Math.min(Math.max(spo2, 0), SPO2_MAX)];
+    }
+
+    // CBG comment, rounding the reading to tenths first as Patient does
+    public static String cbg(float CBG, boolean isFasting) {
+        return cbgTenths(Tenths.of(CBG), isFasting);
+    }
+
+    // CBG comment for a reading in tenths
+    public static String cbgTenths(int cbgTenths, boolean isFasting) {
+        int tenths = Math.min(Math.max(cbgTenths, 0), CBG_MAX_TENTHS);
+        return isFasting ? CBG_FASTING[tenths] : CBG_NOT_FASTING[tenths];
+    }
+
+    // The code of a comment returned by this class, or 0 for any other text
+    public static int code(String comment) {
+        Integer code = CODES.get(comment);
+        return code == null ? 0 : code;
+    }
+
+    // The comment with the given code
+    public static String ofCode(int code) {
+        if (code < 1 || code > BY_CODE.size()) {
+            throw new IllegalArgumentException("Invalid code value.");
+        }
+        return BY_CODE.get(code - 1);
+    }
+
+    // The number of distinct comments, the highest code
+    public static int codes() {
+        return BY_CODE.size();
+    }
+
+    private static void addCode(String comment) {
+        if (!CODES.containsKey(comment)) {
+            BY_CODE.add(comment);
+            CODES.put(comment, BY_CODE.size());
+        }
+    }
+
+    // The comment rules, only used to fill the tables
+
+    private static String spo2CommentForAir(int spo2) {
+        if (spo2 >= 97) {
+            return "As the patient is breathing air, this is a normal range.";
+        } else if (spo2 >= 95) {
+            return "As the patient is breathing air, this is a normal range.";
+        } else if (spo2 == 94) {
+            return "As the patient is breathing air, this is a normal range.";
+        } else if (spo2 >= 88) {
+            return "This is a normal range for patients breathing either air or oxygen.";
+        } else if (spo2 >= 86) {
+            return "This is a slightly low range for patients breathing either air or oxygen.";
+        } else if (spo2 >= 84) {
+            return "This is a low range for patients breathing either air or oxygen.";
+        } else {
+            return "The patient's oxygen saturation is dangerously low.";
+        }
+    }
+
+    private static String spo2CommentForOxygen(int spo2) {
+        if (spo2 >= 97) {
+            return "As the patient is breathing oxygen, this is very elevated.";
+        } else if (spo2 >= 95) {
+            return "As the patient is breathing oxygen, this is elevated.";
+        } else if (spo2 >= 93) {
+            return "As the patient is breathing oxygen, this is slightly elevated.";
+        } else if (spo2 >= 88) {
+            return "This is a normal range for patients breathing either air or oxygen.";
+        } else if (spo2 >= 86) {
+            return "This is a slightly low range for patients breathing either air or oxygen.";
+        } else if (spo2 >= 84) {
+            return "This is a low range for patients breathing either air or oxygen.";
+        } else {
+            return "This is a very low range for patients breathing either air or oxygen.";
+        }
+    }
+
+    // CBG comment rules in tenths, with the same gaps as the scores: fasting 3.9 has always
+    // been commented as low and not fasting 7.8 as slightly low
+    private static String cbgComment(int cbgTenths, boolean isFasting) {
+        if (isFasting) {
+            if (cbgTenths >= 60) {
+                return "The patient is fasting and their blood sugar is high.";
+            } else if (cbgTenths >= 55) {
+                return "The patient is fasting and their blood sugar is slightly high.";
+            } else if (cbgTenths >= 40) {
+                return "The patient is fasting and their blood sugar is normal.";
+            } else if (cbgTenths >= 35 && cbgTenths < 39) {
+                return "The patient is fasting and their blood sugar is slightly low.";
+            } else {
+                return "The patient is fasting and their blood sugar is low.";
+            }
+        } else {
+            if (cbgTenths >= 90) {
+                return "The patient isn't fasting so their blood sugar is high.";
+            } else if (cbgTenths >= 79) {
+                return "The patient isn't fasting so their blood sugar is slightly high.";
+            } else if (cbgTenths >= 59 && cbgTenths < 78) {
+                return "The patient isn't fasting so their blood sugar is normal.";
+            } else if (cbgTenths >= 45) {
+                return "The patient isn't fasting so their blood sugar is slightly low.";
+            } else {
+                return "The patient isn't fasting so their blood sugar is low.";
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: HashRing.java
+ * Author: Christopher Fairhurst
+ * Description: Consistent hash ring mapping patient ids to shards.
+ * ------------------------------------------------------------------------------
+ * Key Features:
+ * Each shard is placed on the ring at many points (virtual nodes), so patients spread
+ * evenly and adding or removing one shard only moves about 1/n of the patients,
+ * all of them to or from that shard.
+ * The ring depends only on the shard names, so every router and shard given the same
+ * names agrees on who owns each patient without talking to each other.
+ * Immutable, a new ring is built whenever the shards change.
+ * ------------------------------------------------------------------------------
+ * Usage:
+ * HashRing ring = new HashRing(List.of("http://127.0.0.1:8081", "http://127.0.0.1:8082"));
+ * String shard = ring.owner(patientId);
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+public final class HashRing {
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private final List<String> nodes;
+    // Ring positions in ascending order and the index of the node at each one
+    private final long[] points;
+    private final int[] owners;
+
+    public HashRing(Collection<String> nodes) {
+        this(nodes, DEFAULT_VIRTUAL_NODES);
+    }
+
+    public HashRing(Collection<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty() || virtualNodes < 1) {
+            throw new IllegalArgumentException("A ring needs at least one node and one virtual node per node.");
+        }
+        this.nodes = List.copyOf(nodes);
+        if (this.nodes.stream().distinct().count() != this.nodes.size()) {
+            throw new IllegalArgumentException("Ring nodes must be unique.");
+        }
+        int size = this.nodes.size() * virtualNodes;
+        long[] entries = new long[size];
+        long[][] placed = new long[size][];
+        for (int n = 0; n < this.nodes.size(); n++) {
+            for (int v = 0; v < virtualNodes; v++) {
+                placed[n * virtualNodes + v] = new long[] {hash(this.nodes.get(n) + "#" + v), n};
+            }
+        }
+        // Ties between positions go to the node listed first, so the order is the same everywhere
+        Arrays.sort(placed, (a, b) -> a[0] != b[0] ? Long.compareUnsigned(a[0], b[0]) : Long.compare(a[1], b[1]));
+        this.points = new long[size];
+        this.owners = new int[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = placed[i][0];
+            owners[i] = (int) placed[i][1];
+        }
+    }
+
+    // The shard that owns the patient
+    public String owner(long patientId) {
+        return nodes.get(ownerIndex(patientId));
+    }
+
+    // Index into nodes() of the shard that owns the patient
+    public int ownerIndex(long patientId) {
+        long key = mix(patientId);
+        // First point at or after the key, wrapping round to the first point
+        int low = 0;
+        int high = points.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (Long.compareUnsigned(points[middle], key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return owners[low == points.length ? 0 : low];
+    }
+
+    public List<String> nodes() {
+        return nodes;
+    }
+
+    // 64-bit FNV-1a of the name, mixed so nearby names land far apart
+    private static long hash(String name) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    // Stafford's variant 13 of the MurmurHash3 finaliser, spreads sequential patient ids over the whole ring
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: Json.java
+ * Author: Christopher Fairhurst
+ * Description: Minimal JSON reading and writing for the scoring service.
+ * ------------------------------------------------------------------------------
+ * The service only exchanges flat objects of numbers, strings and booleans, or arrays
+ * of them, so this reads exactly that rather than pulling in a JSON library.
+ * Objects are read into a map of field name to value, where a value is a String,
+ * a Double, a Boolean or null.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+final class Json {
+    private final String text;
+    private int position;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    // Reads a single flat object
+    static Map<String, Object> parseObject(String text) {
+        Json json = new Json(text);
+        Map<String, Object> object = json.readObject();
+        json.expectEnd();
+        return object;
+    }
+
+    // Reads an array of flat objects
+    static List<Map<String, Object>> parseArray(String text) {
+        Json json = new Json(text);
+        List<Map<String, Object>> array = new ArrayList<>();
+        json.expect('[');
+        if (!json.consume(']')) {
+            do {
+                array.add(json.readObject());
+            } while (json.consume(','));
+            json.expect(']');
+        }
+        json.expectEnd();
+        return array;
+    }
+
+    private Map<String, Object> readObject() {
+        Map<String, Object> object = new HashMap<>();
+        expect('{');
+        if (!consume('}')) {
+            do {
+                String name = readString();
+                expect(':');
+                object.put(name, readValue());
+            } while (consume(','));
+            expect('}');
+        }
+        return object;
+    }
+
+    private Object readValue() {
+        skipWhitespace();
+        if (position >= text.length()) {
+            throw error("Unexpected end of JSON");
+        }
+        char c = text.charAt(position);
+        if (c == '"') {
+            return readString();
+        }
+        if (text.startsWith("true", position)) {
+            position += 4;
+            return Boolean.TRUE;
+        }
+        if (text.startsWith("false", position)) {
+            position += 5;
+            return Boolean.FALSE;
+        }
+        if (text.startsWith("null", position)) {
+            position += 4;
+            return null;
+        }
+        int start = position;
+        while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0) {
+            position++;
+        }
+        if (start == position) {
+            throw error("Unexpected character '" + c + "'");
+        }
+        try {
+            return Double.parseDouble(text.substring(start, position));
+        } catch (NumberFormatException e) {
+            throw error("Invalid number");
+        }
+    }
+
+    private String readString() {
+        expect('"');
+        StringBuilder value = new StringBuilder();
+        while (position < text.length()) {
+            char c = text.charAt(position++);
+            if (c == '"') {
+                return value.toString();
+            }
+            if (c == '\\') {
+                if (position >= text.length()) {
+                    break;
+                }
+                char escaped = text.charAt(position++);
+                switch (escaped) {
+                    case 'n' -> value.append('\n');
+                    case 't' -> value.append('\t');
+                    case 'r' -> value.append('\r');
+                    case 'b' -> value.append('\b');
+                    case 'f' -> value.append('\f');
+                    case 'u' -> {
+                        if (position + 4 > text.length()) {
+                            throw error("Invalid unicode escape");
+                        }
+                        value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        position += 4;
+                    }
+                    default -> value.append(escaped);
+                }
+            } else {
+                value.append(c);
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private void skipWhitespace() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+    }
+
+    private boolean consume(char c) {
+        skipWhitespace();
+        if (position < text.length() && text.charAt(position) == c) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) {
+        if (!consume(c)) {
+            throw error("Expected '" + c + "'");
+        }
+    }
+
+    private void expectEnd() {
+        skipWhitespace();
+        if (position != text.length()) {
+            throw error("Unexpected trailing content");
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + position + ".");
+    }
+
+    // Appends a string value with the characters JSON requires escaping
+    static StringBuilder appendString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+        return out.append('"');
+    }
+}
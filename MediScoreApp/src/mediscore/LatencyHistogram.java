@@ -0,0 +1,113 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: LatencyHistogram.java
+ * Author: Christopher Fairhurst
+ * Description: Lock-free log-linear histogram of latencies in nanoseconds.
+ * ------------------------------------------------------------------------------
+ * Key Features:
+ * Laid out like an HdrHistogram: every power of two is split into 8 equal buckets, so any
+ * value from 1 ns to Long.MAX_VALUE is recorded to within 12.5% in a fixed 488 buckets.
+ * Each bucket is a LongAdder, so recording from many threads is a single uncontended add
+ * with no locks, and readers never stop writers.
+ * Percentiles are read from a snapshot of the buckets and report the top of the bucket
+ * the percentile falls in, so they never understate a latency.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAdder sum = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    // Records one latency, negative values are recorded as 0
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        counts[index(value)].increment();
+        sum.add(value);
+    }
+
+    // Number of latencies recorded so far
+    public long count() {
+        long count = 0;
+        for (LongAdder bucket : counts) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    // Sum of every latency recorded so far, in nanoseconds
+    public long sum() {
+        return sum.sum();
+    }
+
+    // Copies the bucket counts, so several percentiles can be read from one consistent view
+    public long[] snapshot() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts[i].sum();
+        }
+        return snapshot;
+    }
+
+    // The latency at the given quantile (0 to 1) of a snapshot, or 0 if it is empty
+    public static long valueAt(long[] snapshot, double quantile) {
+        long total = 0;
+        for (long count : snapshot) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(snapshot.length - 1);
+    }
+
+    // The latency at the given quantile of everything recorded so far
+    public long valueAt(double quantile) {
+        return valueAt(snapshot(), quantile);
+    }
+
+    // Values below SUB_BUCKETS get a bucket each, above that each power of two gets SUB_BUCKETS buckets
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    // Smallest value recorded in the bucket
+    static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    // Largest value recorded in the bucket
+    static long upperBound(int index) {
+        return index + 1 < BUCKETS ? lowerBound(index + 1) - 1 : Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: LoadGenerator.java
+ * Author: Christopher Fairhurst
+ * Description: Local load generator for the ScoringServer.
+ * ------------------------------------------------------------------------------
+ * Runs a fixed number of closed-loop clients for a fixed time, each on its own virtual
+ * thread, sending randomised observations and timing every request.
+ * Reports requests per second and the p50, p99 and p999 latency, so nodes can be sized
+ * from measured numbers.
+ * ------------------------------------------------------------------------------
+ * Usage:
+ * java -cp target/classes mediscore.LoadGenerator [url] [clients] [seconds] [batchSize] [warmupSeconds]
+ * Defaults: http://localhost:8080 64 clients 30 seconds batchSize 1 (single /score requests) 5 seconds warm-up
+ * A batchSize above 1 posts arrays of that many observations to /score/batch.
+ * Requests during the warm-up are sent but not recorded, so JIT compilation on
+ * both sides does not end up in the percentiles.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LoadGenerator {
+    // Distinct request bodies generated up front so building them is not measured
+    private static final int BODIES = 1024;
+
+    public static void main(String[] args) throws Exception {
+        String url = args.length > 0 ? args[0] : "http://localhost:" + ScoringServer.DEFAULT_PORT;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        int batchSize = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        int warmupSeconds = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+
+        URI uri = URI.create(url + (batchSize > 1 ? "/score/batch" : "/score"));
+        String[] bodies = bodies(batchSize, new SplittableRandom(42));
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+
+        AtomicLong errors = new AtomicLong();
+        long[][] latencies = new long[clients][];
+        long measureFrom = System.nanoTime() + warmupSeconds * 1_000_000_000L;
+        long deadline = measureFrom + seconds * 1_000_000_000L;
+        List<Thread> threads = new ArrayList<>(clients);
+        for (int c = 0; c < clients; c++) {
+            int clientIndex = c;
+            threads.add(Thread.ofVirtual().start(() -> {
+                long[] samples = new long[1024];
+                int count = 0;
+                int next = clientIndex;
+                while (System.nanoTime() < deadline) {
+                    HttpRequest request = HttpRequest.newBuilder(uri)
+                            .POST(HttpRequest.BodyPublishers.ofString(bodies[next++ % BODIES]))
+                            .header("Content-Type", "application/json")
+                            .build();
+                    long start = System.nanoTime();
+                    try {
+                        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                        if (response.statusCode() != 200) {
+                            if (start >= measureFrom) {
+                                errors.incrementAndGet();
+                            }
+                            continue;
+                        }
+                    } catch (Exception e) {
+                        if (start >= measureFrom) {
+                            errors.incrementAndGet();
+                        }
+                        continue;
+                    }
+                    if (start < measureFrom) {
+                        continue;
+                    }
+                    if (count == samples.length) {
+                        samples = Arrays.copyOf(samples, count * 2);
+                    }
+                    samples[count++] = System.nanoTime() - start;
+                }
+                latencies[clientIndex] = Arrays.copyOf(samples, count);
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.println("Target:        " + uri);
+        System.out.println("Clients:       " + clients + ", batch size " + batchSize + ", " + seconds + " s after " + warmupSeconds + " s warm-up");
+        System.out.println("Requests:      " + all.length + " ok, " + errors.get() + " failed");
+        System.out.printf("Throughput:    %.0f requests/s (%.0f observations/s)%n",
+                all.length / (double) seconds, all.length * (double) batchSize / seconds);
+        if (all.length > 0) {
+            System.out.printf("Latency p50:   %.3f ms%n", percentile(all, 0.50) / 1e6);
+            System.out.printf("Latency p99:   %.3f ms%n", percentile(all, 0.99) / 1e6);
+            System.out.printf("Latency p999:  %.3f ms%n", percentile(all, 0.999) / 1e6);
+            System.out.printf("Latency max:   %.3f ms%n", all[all.length - 1] / 1e6);
+        }
+    }
+
+    // Value at the given quantile of a sorted array
+    static long percentile(long[] sorted, double quantile) {
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    // Builds JSON bodies with random vitals for a rolling set of patients
+    private static String[] bodies(int batchSize, SplittableRandom random) {
+        String[] bodies = new String[BODIES];
+        for (int b = 0; b < BODIES; b++) {
+            StringBuilder body = new StringBuilder();
+            if (batchSize > 1) {
+                body.append('[');
+            }
+            for (int i = 0; i < batchSize; i++) {
+                if (i > 0) {
+                    body.append(',');
+                }
+                body.append("{\"patientId\":").append(random.nextInt(10_000))
+                        .append(",\"airOrOxygen\":").append(random.nextBoolean() ? 0 : 2)
+                        .append(",\"consciousness\":").append(random.nextInt(4))
+                        .append(",\"respirationRange\":").append(random.nextInt(5, 35))
+                        .append(",\"spo2\":").append(random.nextInt(80, 101))
+                        .append(",\"temperature\":").append(random.nextInt(340, 410) / 10.0)
+                        .append(",\"CBG\":").append(random.nextInt(30, 110) / 10.0)
+                        .append(",\"fasting\":").append(random.nextBoolean())
+                        .append('}');
+            }
+            if (batchSize > 1) {
+                body.append(']');
+            }
+            bodies[b] = body.toString();
+        }
+        return bodies;
+    }
+}
@@ -1,7 +1,15 @@
+package mediscore;
+
+import java.io.IOException;
 
 public class Main {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        // With arguments score them from the command line, see ScoreCli
+        if (args.length > 0) {
+            ScoreCli.exit(ScoreCli.run(args));
+            return;
+        }
         // Create 3 patients
         Patient patient1 = new Patient("Patient 1", 2,
                 0, 20, 95, 37.15638f, 7.0F, true);
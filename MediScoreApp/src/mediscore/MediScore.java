@@ -0,0 +1,253 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: MediScore.java
+ * Author: Christopher Fairhurst
+ * Description: Stateless scoring kernel for the MediScore assessment.
+ * ------------------------------------------------------------------------------
+ * Key Features:
+ * Scores primitive vitals without creating a Patient object.
+ * Returns every individual score and the final score packed into a single int.
+ * Allocates nothing per call so it can sit in the hot path of a monitoring feed.
+ * Scores with the bands currently installed in ScoringBands, which are the band methods
+ * below unless a site config has been loaded.
+ * ------------------------------------------------------------------------------
+ * Packed layout (low bit first):
+ * bits 0-3   Air or Oxygen score
+ * bits 4-7   Consciousness score
+ * bits 8-11  Respiration Range score
+ * bits 12-15 SpO2 score
+ * bits 16-19 Temperature score
+ * bits 20-23 CBG score
+ * bits 24-31 Final score
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+public final class MediScore {
+    private static final int AIR_OR_OXYGEN_SHIFT = 0;
+    private static final int CONSCIOUSNESS_SHIFT = 4;
+    private static final int RESPIRATION_SHIFT = 8;
+    private static final int SPO2_SHIFT = 12;
+    private static final int TEMPERATURE_SHIFT = 16;
+    private static final int CBG_SHIFT = 20;
+    private static final int FINAL_SHIFT = 24;
+    private static final int SCORE_MASK = 0xF;
+
+    private MediScore() {
+    }
+
+    // Scores a single observation with temperature and CBG in tenths and returns the packed result
+    // The observation values are expected to have passed the Patient validation rules
+    public static int scoreTenths(int airOrOxygenObs, int consciousnessObs, int respirationRange, int spo2, int temperatureTenths, int cbgTenths, boolean isFasting) {
+        Metrics.scored();
+        return ScoringBands.current().scoreTenths(airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperatureTenths, cbgTenths, isFasting);
+    }
+
+    // As above with temperature and CBG as floats, which are rounded to tenths first as Patient does
+    public static int score(int airOrOxygenObs, int consciousnessObs, int respirationRange, int spo2, float temperature, float CBG, boolean isFasting) {
+        return scoreTenths(airOrOxygenObs, consciousnessObs, respirationRange, spo2, Tenths.of(temperature), Tenths.of(CBG), isFasting);
+    }
+
+    // Packs the six individual scores together with their sum
+    public static int pack(int airOrOxygenScore, int consciousnessScore, int respirationScore, int spo2Score, int temperatureScore, int cbgScore) {
+        int finalScore = airOrOxygenScore + consciousnessScore + respirationScore + spo2Score + temperatureScore + cbgScore;
+        return airOrOxygenScore << AIR_OR_OXYGEN_SHIFT
+                | consciousnessScore << CONSCIOUSNESS_SHIFT
+                | respirationScore << RESPIRATION_SHIFT
+                | spo2Score << SPO2_SHIFT
+                | temperatureScore << TEMPERATURE_SHIFT
+                | cbgScore << CBG_SHIFT
+                | finalScore << FINAL_SHIFT;
+    }
+
+    // Accessors for the packed result
+    public static int airOrOxygenScoreOf(int packed) {
+        return (packed >>> AIR_OR_OXYGEN_SHIFT) & SCORE_MASK;
+    }
+
+    public static int consciousnessScoreOf(int packed) {
+        return (packed >>> CONSCIOUSNESS_SHIFT) & SCORE_MASK;
+    }
+
+    public static int respirationScoreOf(int packed) {
+        return (packed >>> RESPIRATION_SHIFT) & SCORE_MASK;
+    }
+
+    public static int spo2ScoreOf(int packed) {
+        return (packed >>> SPO2_SHIFT) & SCORE_MASK;
+    }
+
+    public static int temperatureScoreOf(int packed) {
+        return (packed >>> TEMPERATURE_SHIFT) & SCORE_MASK;
+    }
+
+    public static int cbgScoreOf(int packed) {
+        return (packed >>> CBG_SHIFT) & SCORE_MASK;
+    }
+
+    public static int finalScoreOf(int packed) {
+        return packed >>> FINAL_SHIFT;
+    }
+
+    // The following methods hold the built-in band logic for each attribute
+    // ScoringBands.DEFAULT is tabulated from these so there is only one copy of every threshold
+
+    // Air or Oxygen score taken from the AirOrOxygen enum
+    public static int airOrOxygenScore(int airOrOxygenObs) {
+        if (airOrOxygenObs == 0) {
+            return Patient.AirOrOxygen.AIR.getRespValue();
+        } else {
+            return Patient.AirOrOxygen.OXYGEN.getRespValue();
+        }
+    }
+
+    // Consciousness score taken from the Consciousness enum
+    public static int consciousnessScore(int consciousnessObs) {
+        if (consciousnessObs == 0) {
+            return Patient.Consciousness.ALERT.getConsciousValue();
+        } else {
+            return Patient.Consciousness.CVPU.getConsciousValue();
+        }
+    }
+
+    // Respiration rate score
+    public static int respirationRateScore(int respirationRange) {
+        int respirationRateScore;
+        if (respirationRange >= 25) {
+            respirationRateScore = 3;
+        } else if (respirationRange >= 21) {
+            respirationRateScore = 2;
+        } else if (respirationRange >= 12) {
+            respirationRateScore = 0;
+        } else if (respirationRange >= 9) {
+            respirationRateScore = 1;
+        } else {
+            respirationRateScore = 3;
+        }
+        return respirationRateScore;
+    }
+
+    // SpO2 score, choosing the air or oxygen bands from the observation
+    public static int spo2Score(int airOrOxygenObs, int spo2) {
+        return switch (airOrOxygenObs) {
+            case 0 -> spo2ScoreForAir(spo2);
+            case 2 -> spo2ScoreForOxygen(spo2);
+            default -> throw new java.lang.IllegalStateException("Unexpected value: " + airOrOxygenObs);
+        };
+    }
+
+    // SpO2 score for a patient that is breathing air and not on oxygen
+    public static int spo2ScoreForAir(int spo2) {
+        int spo2Score;
+        if (spo2 >= 93) {
+            spo2Score = 0;
+        } else if (spo2 >= 86) {
+            spo2Score = 1;
+        } else if (spo2 >= 84) {
+            spo2Score = 2;
+        } else {
+            spo2Score = 3;
+        }
+        return spo2Score;
+    }
+
+    // SpO2 score for a patient that is on oxygen supported breathing
+    public static int spo2ScoreForOxygen(int spo2) {
+        int spo2Score;
+        if (spo2 >= 97) {
+            spo2Score = 0;
+        } else if (spo2 >= 93) {
+            spo2Score = 1;
+        } else if (spo2 >= 88) {
+            spo2Score = 2;
+        } else {
+            spo2Score = 3;
+        }
+        return spo2Score;
+    }
+
+    // Temperature score for a reading in tenths
+    // The thresholds are where the original float comparisons switched: 39.1f is just below 39.1,
+    // so a reading of 39.1 has always scored 1 and the top band starts at 39.2, and so on down
+    public static int temperatureScoreTenths(int temperatureTenths) {
+        int temperatureScore;
+        if (temperatureTenths >= 392) {
+            temperatureScore = 2;
+        } else if (temperatureTenths >= 382) {
+            temperatureScore = 1;
+        } else if (temperatureTenths >= 362) {
+            temperatureScore = 0;
+        } else if (temperatureTenths >= 352) {
+            temperatureScore = 1;
+        } else {
+            temperatureScore = 3;
+        }
+        return temperatureScore;
+    }
+
+    // Temperature score, rounding the reading to tenths first as Patient does
+    public static int temperatureScore(float temperature) {
+        return temperatureScoreTenths(Tenths.of(temperature));
+    }
+
+    // CBG score for a reading in tenths, choosing the fasting or not fasting bands
+    public static int cbgScoreTenths(int cbgTenths, boolean isFasting) {
+        if (isFasting) {
+            return cbgFastingTenths(cbgTenths);
+        } else {
+            return cbgNotFastingTenths(cbgTenths);
+        }
+    }
+
+    // CBG score, rounding the reading to tenths first as Patient does
+    public static int cbgScore(float CBG, boolean isFasting) {
+        return cbgScoreTenths(Tenths.of(CBG), isFasting);
+    }
+
+    // CBG score in tenths for a patient that is fasting
+    // 3.9 falls between the slightly low band (below 3.9) and the normal band (4.0 and above)
+    // and has always scored 0, which is kept here
+    public static int cbgFastingTenths(int cbgTenths) {
+        int CBGScore;
+        if (cbgTenths >= 60) {
+            CBGScore = 3;
+        } else if (cbgTenths >= 55) {
+            CBGScore = 2;
+        } else if (cbgTenths >= 39) {
+            CBGScore = 0;
+        } else {
+            CBGScore = 2;
+        }
+        return CBGScore;
+    }
+
+    // CBG score in tenths for a patient that is not fasting
+    // 7.8 falls between the normal band (below 7.8) and the slightly high band (7.9 and above)
+    // and has always scored 2, which is kept here
+    public static int cbgNotFastingTenths(int cbgTenths) {
+        int CBGScore;
+        if (cbgTenths >= 90) {
+            CBGScore = 3;
+        } else if (cbgTenths >= 78) {
+            CBGScore = 2;
+        } else if (cbgTenths >= 59) {
+            CBGScore = 0;
+        } else if (cbgTenths >= 45) {
+            CBGScore = 2;
+        } else {
+            CBGScore = 3;
+        }
+        return CBGScore;
+    }
+
+    // CBG score for a patient that is fasting, rounding the reading to tenths first
+    public static int cbgFasting(float CBG) {
+        return cbgFastingTenths(Tenths.of(CBG));
+    }
+
+    // CBG score for a patient that is not fasting, rounding the reading to tenths first
+    public static int cbgNotFasting(float CBG) {
+        return cbgNotFastingTenths(Tenths.of(CBG));
+    }
+}
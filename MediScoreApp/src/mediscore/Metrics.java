@@ -0,0 +1,389 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: Metrics.java
+ * Author: Christopher Fairhurst
+ * Description: Counters and latency histograms for scoring, alerting and validation.
+ * ------------------------------------------------------------------------------
+ * Key Features:
+ * Every counter is a LongAdder, so the hot path pays one uncontended add per event and
+ * threads scoring in parallel never fight over a shared cache line.
+ * Observations scored are counted once per observation, so that count skips even the LongAdder's
+ * CAS: each platform thread adds to a field only it writes, and readers sum those fields.
+ * Counts observations scored (by Patient, Observation, the registry and BatchScorer),
+ * alert outcomes, validation failures per parameter, and ScoreCache hits, misses and evictions.
+ * Latency histograms for scoring service requests and pipeline score batches.
+ * Exposed over JMX as mediscore:type=Metrics and as Prometheus text by appendText,
+ * which ScoringServer serves at GET /metrics.
+ * Metrics can be switched off with setEnabled(false) or -Dmediscore.metrics=false,
+ * leaving a single volatile read on the hot path.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public final class Metrics {
+    public static final String OBJECT_NAME = "mediscore:type=Metrics";
+
+    // Quantiles reported by the text format and the MXBean
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private static final ThreadCounter SCORED = new ThreadCounter();
+    private static final LongAdder[] ALERTS = adders(ScoreAlert.values().length);
+    private static final LongAdder[] VALIDATION_FAILURES = adders(ObservationField.values().length);
+    private static final LongAdder CACHE_HITS = new LongAdder();
+    private static final LongAdder CACHE_MISSES = new LongAdder();
+    private static final LongAdder CACHE_EVICTIONS = new LongAdder();
+
+    // Time to handle one scoring service request
+    public static final LatencyHistogram REQUEST_LATENCY = new LatencyHistogram();
+
+    // Time for the pipeline's score stage to record one batch
+    public static final LatencyHistogram BATCH_LATENCY = new LatencyHistogram();
+
+    private static volatile boolean enabled = !"false".equals(System.getProperty("mediscore.metrics"));
+
+    private Metrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+
+    // Counts one observation scored
+    public static void scored() {
+        if (enabled) {
+            SCORED.add(1);
+        }
+    }
+
+    // Counts a block of observations scored together
+    public static void scored(long count) {
+        if (enabled) {
+            SCORED.add(count);
+        }
+    }
+
+    // Counts one alert outcome
+    public static void alert(ScoreAlert alert) {
+        if (enabled) {
+            ALERTS[alert.ordinal()].increment();
+        }
+    }
+
+    // Counts one observation rejected because of the given field
+    public static void validationFailed(ObservationField field) {
+        if (enabled) {
+            VALIDATION_FAILURES[field.ordinal()].increment();
+        }
+    }
+
+    // Counts one ScoreCache lookup answered from the cache
+    public static void cacheHit() {
+        if (enabled) {
+            CACHE_HITS.increment();
+        }
+    }
+
+    // Counts one ScoreCache lookup that had to score the observation
+    public static void cacheMiss() {
+        if (enabled) {
+            CACHE_MISSES.increment();
+        }
+    }
+
+    // Counts one ScoreCache entry replaced to make room
+    public static void cacheEvicted() {
+        if (enabled) {
+            CACHE_EVICTIONS.increment();
+        }
+    }
+
+    // Start time for a latency, or 0 when metrics are off so the matching record is skipped
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    // Records the time since start into the histogram
+    public static void recordSince(LatencyHistogram histogram, long start) {
+        if (start != 0) {
+            histogram.record(System.nanoTime() - start);
+        }
+    }
+
+    public static long observationsScored() {
+        return SCORED.sum();
+    }
+
+    public static long alerts(ScoreAlert alert) {
+        return ALERTS[alert.ordinal()].sum();
+    }
+
+    public static long validationFailures(ObservationField field) {
+        return VALIDATION_FAILURES[field.ordinal()].sum();
+    }
+
+    public static long cacheHits() {
+        return CACHE_HITS.sum();
+    }
+
+    public static long cacheMisses() {
+        return CACHE_MISSES.sum();
+    }
+
+    public static long cacheEvictions() {
+        return CACHE_EVICTIONS.sum();
+    }
+
+    // Fraction of ScoreCache lookups answered from the cache, 0 before the first lookup
+    public static double cacheHitRate() {
+        long hits = cacheHits();
+        long lookups = hits + cacheMisses();
+        return lookups == 0 ? 0 : hits / (double) lookups;
+    }
+
+    // Appends every metric in the Prometheus text exposition format
+    public static StringBuilder appendText(StringBuilder out) {
+        out.append("# HELP mediscore_observations_scored_total Observations scored.\n")
+                .append("# TYPE mediscore_observations_scored_total counter\n")
+                .append("mediscore_observations_scored_total ").append(observationsScored()).append('\n');
+
+        out.append("# HELP mediscore_alerts_total Score comparisons by outcome.\n")
+                .append("# TYPE mediscore_alerts_total counter\n");
+        for (ScoreAlert alert : ScoreAlert.values()) {
+            out.append("mediscore_alerts_total{outcome=\"").append(alert).append("\"} ").append(alerts(alert)).append('\n');
+        }
+
+        out.append("# HELP mediscore_validation_failures_total Observations rejected by parameter.\n")
+                .append("# TYPE mediscore_validation_failures_total counter\n");
+        for (ObservationField field : ObservationField.values()) {
+            out.append("mediscore_validation_failures_total{parameter=\"").append(field.parameter()).append("\"} ")
+                    .append(validationFailures(field)).append('\n');
+        }
+
+        out.append("# HELP mediscore_score_cache_lookups_total ScoreCache lookups by result.\n")
+                .append("# TYPE mediscore_score_cache_lookups_total counter\n")
+                .append("mediscore_score_cache_lookups_total{result=\"hit\"} ").append(cacheHits()).append('\n')
+                .append("mediscore_score_cache_lookups_total{result=\"miss\"} ").append(cacheMisses()).append('\n');
+        out.append("# HELP mediscore_score_cache_evictions_total ScoreCache entries replaced to make room.\n")
+                .append("# TYPE mediscore_score_cache_evictions_total counter\n")
+                .append("mediscore_score_cache_evictions_total ").append(cacheEvictions()).append('\n');
+
+        appendSummary(out, "mediscore_request_latency_seconds", "Scoring service request latency.", REQUEST_LATENCY);
+        return appendSummary(out, "mediscore_batch_latency_seconds", "Pipeline score stage latency per batch.", BATCH_LATENCY);
+    }
+
+    private static StringBuilder appendSummary(StringBuilder out, String name, String help, LatencyHistogram histogram) {
+        long[] snapshot = histogram.snapshot();
+        long count = 0;
+        for (long bucket : snapshot) {
+            count += bucket;
+        }
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(" summary\n");
+        for (double quantile : QUANTILES) {
+            out.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(LatencyHistogram.valueAt(snapshot, quantile) / 1e9).append('\n');
+        }
+        return out.append(name).append("_sum ").append(histogram.sum() / 1e9).append('\n')
+                .append(name).append("_count ").append(count).append('\n');
+    }
+
+    // Registers the MXBean with the platform MBean server, doing nothing if it is already registered
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MBean(), name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Unable to register " + OBJECT_NAME + ": " + e.getMessage(), e);
+        }
+    }
+
+    // A counter for events too frequent for a LongAdder, with one cell per platform thread that only
+    // that thread writes, so an add is a plain load and store with no CAS and no lock prefix.
+    // Virtual threads are created per request, so they share a LongAdder instead of leaving a cell
+    // behind each, and a cell whose thread has exited is folded into it when the cells are swept.
+    private static final class ThreadCounter {
+        private static final VarHandle COUNT;
+
+        static {
+            try {
+                COUNT = MethodHandles.lookup().findVarHandle(Cell.class, "count", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final LongAdder shared = new LongAdder();
+        private final List<Cell> cells = new ArrayList<>();
+        private final ThreadLocal<Cell> local = ThreadLocal.withInitial(this::register);
+
+        void add(long count) {
+            if (Thread.currentThread().isVirtual()) {
+                shared.add(count);
+                return;
+            }
+            Cell cell = local.get();
+            COUNT.setOpaque(cell, cell.count + count);
+        }
+
+        synchronized long sum() {
+            sweep();
+            long sum = shared.sum();
+            for (Cell cell : cells) {
+                sum += (long) COUNT.getOpaque(cell);
+            }
+            return sum;
+        }
+
+        private synchronized Cell register() {
+            sweep();
+            Cell cell = new Cell(Thread.currentThread());
+            cells.add(cell);
+            return cell;
+        }
+
+        // Moves the counts of exited threads into the shared adder, a thread's exit happens-before
+        // isAlive returns false so its last add is seen
+        private void sweep() {
+            cells.removeIf(cell -> {
+                if (cell.thread.isAlive()) {
+                    return false;
+                }
+                shared.add(cell.count);
+                return true;
+            });
+        }
+
+        private static final class Cell {
+            private final Thread thread;
+            private long count;
+
+            Cell(Thread thread) {
+                this.thread = thread;
+            }
+        }
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    // Reads straight from the counters, so JMX and /metrics always agree
+    private static final class MBean implements MetricsMXBean {
+        @Override
+        public boolean isEnabled() {
+            return Metrics.isEnabled();
+        }
+
+        @Override
+        public void setEnabled(boolean enabled) {
+            Metrics.setEnabled(enabled);
+        }
+
+        @Override
+        public long getObservationsScored() {
+            return observationsScored();
+        }
+
+        @Override
+        public Map<String, Long> getAlerts() {
+            Map<String, Long> alerts = new LinkedHashMap<>();
+            for (ScoreAlert alert : ScoreAlert.values()) {
+                alerts.put(alert.name(), alerts(alert));
+            }
+            return alerts;
+        }
+
+        @Override
+        public Map<String, Long> getValidationFailures() {
+            Map<String, Long> failures = new LinkedHashMap<>();
+            for (ObservationField field : ObservationField.values()) {
+                failures.put(field.parameter(), validationFailures(field));
+            }
+            return failures;
+        }
+
+        @Override
+        public long getScoreCacheHits() {
+            return cacheHits();
+        }
+
+        @Override
+        public long getScoreCacheMisses() {
+            return cacheMisses();
+        }
+
+        @Override
+        public long getScoreCacheEvictions() {
+            return cacheEvictions();
+        }
+
+        @Override
+        public double getScoreCacheHitRate() {
+            return cacheHitRate();
+        }
+
+        @Override
+        public long getRequestCount() {
+            return REQUEST_LATENCY.count();
+        }
+
+        @Override
+        public long getRequestLatencyP50Nanos() {
+            return REQUEST_LATENCY.valueAt(0.5);
+        }
+
+        @Override
+        public long getRequestLatencyP99Nanos() {
+            return REQUEST_LATENCY.valueAt(0.99);
+        }
+
+        @Override
+        public long getRequestLatencyP999Nanos() {
+            return REQUEST_LATENCY.valueAt(0.999);
+        }
+
+        @Override
+        public long getBatchCount() {
+            return BATCH_LATENCY.count();
+        }
+
+        @Override
+        public long getBatchLatencyP50Nanos() {
+            return BATCH_LATENCY.valueAt(0.5);
+        }
+
+        @Override
+        public long getBatchLatencyP99Nanos() {
+            return BATCH_LATENCY.valueAt(0.99);
+        }
+
+        @Override
+        public long getBatchLatencyP999Nanos() {
+            return BATCH_LATENCY.valueAt(0.999);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: MetricsMXBean.java
+ * Author: Christopher Fairhurst
+ * Description: JMX view of the scoring metrics, registered as mediscore:type=Metrics.
+ * ------------------------------------------------------------------------------
+ * Every attribute is read from the same counters as the /metrics endpoint.
+ * Latencies are in nanoseconds.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import java.util.Map;
+
+public interface MetricsMXBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getObservationsScored();
+
+    // Alert outcomes keyed by ScoreAlert name
+    Map<String, Long> getAlerts();
+
+    // Validation failures keyed by parameter name
+    Map<String, Long> getValidationFailures();
+
+    long getScoreCacheHits();
+
+    long getScoreCacheMisses();
+
+    long getScoreCacheEvictions();
+
+    double getScoreCacheHitRate();
+
+    long getRequestCount();
+
+    long getRequestLatencyP50Nanos();
+
+    long getRequestLatencyP99Nanos();
+
+    long getRequestLatencyP999Nanos();
+
+    long getBatchCount();
+
+    long getBatchLatencyP50Nanos();
+
+    long getBatchLatencyP99Nanos();
+
+    long getBatchLatencyP999Nanos();
+}
@@ -0,0 +1,129 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: Observation.java
+ * Author: Christopher Fairhurst
+ * Description: An immutable snapshot of one set of vital sign readings for a patient.
+ * ------------------------------------------------------------------------------
+ * Observations are what the PatientRegistry stores instead of the mutable fields of Patient,
+ * so a reader on another thread always sees a complete set of readings.
+ * Use Observation.of to apply the same rounding and validation as Patient.updatePatient.
+ * The readings are held packed into a single long with temperature and CBG in tenths,
+ * so an observation is two longs and scoring it never touches a float.
+ * ------------------------------------------------------------------------------
+ * The readings (everything except the timestamp) pack into a single long (low bit first):
+ * bits 0-1   airOrOxygenObs
+ * bits 2-3   consciousnessObs
+ * bit  4     isFasting
+ * bits 5-11  spo2
+ * bits 12-21 temperature in tenths
+ * bits 22-41 CBG in tenths
+ * bits 42-62 respirationRange
+ * Respiration and CBG saturate at the largest value their bits hold, far above any real reading.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+public record Observation(long vitals, long timestamp) {
+    private static final int FASTING_SHIFT = 4;
+    private static final int SPO2_SHIFT = 5;
+    private static final int TEMPERATURE_SHIFT = 12;
+    private static final int CBG_SHIFT = 22;
+    private static final int RESPIRATION_SHIFT = 42;
+    private static final int SPO2_MASK = (1 << 7) - 1;
+    private static final int TEMPERATURE_MASK = (1 << 10) - 1;
+    private static final int CBG_MASK = (1 << 20) - 1;
+    private static final int RESPIRATION_MASK = (1 << 21) - 1;
+
+    // Validates the readings, rounds temperature and CBG to one decimal place and stamps the current time
+    public static Observation of(int airOrOxygenObs, int consciousnessObs, int respirationRange, int spo2,
+                                 float temperature, float CBG, boolean isFasting) {
+        return of(airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperature, CBG, isFasting, System.currentTimeMillis());
+    }
+
+    // As above but with the time the readings were taken, in epoch milliseconds
+    public static Observation of(int airOrOxygenObs, int consciousnessObs, int respirationRange, int spo2,
+                                 float temperature, float CBG, boolean isFasting, long timestamp) {
+        Patient.validateUpdateData(airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperature, CBG);
+        return ofValidated(airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperature, CBG, isFasting, timestamp);
+    }
+
+    // Rounds readings that ObservationValidator has already accepted, without checking them again
+    static Observation ofValidated(int airOrOxygenObs, int consciousnessObs, int respirationRange, int spo2,
+                                   float temperature, float CBG, boolean isFasting, long timestamp) {
+        return new Observation(pack(airOrOxygenObs, consciousnessObs, respirationRange, spo2,
+                Tenths.of(temperature), Tenths.of(CBG), isFasting), timestamp);
+    }
+
+    // Packs readings that have already been validated, see the layout above
+    public static long pack(int airOrOxygenObs, int consciousnessObs, int respirationRange, int spo2,
+                            int temperatureTenths, int cbgTenths, boolean isFasting) {
+        return (long) (airOrOxygenObs & 3)
+                | (long) (consciousnessObs & 3) << 2
+                | (isFasting ? 1L : 0L) << FASTING_SHIFT
+                | (long) (spo2 & SPO2_MASK) << SPO2_SHIFT
+                | (long) (temperatureTenths & TEMPERATURE_MASK) << TEMPERATURE_SHIFT
+                | (long) Math.min(cbgTenths, CBG_MASK) << CBG_SHIFT
+                | (long) Math.min(respirationRange, RESPIRATION_MASK) << RESPIRATION_SHIFT;
+    }
+
+    // Rebuilds an observation from packed readings, the readings are trusted to have been validated when packed
+    public static Observation unpack(long vitals, long timestamp) {
+        return new Observation(vitals, timestamp);
+    }
+
+    public int airOrOxygenObs() {
+        return (int) (vitals & 3);
+    }
+
+    public int consciousnessObs() {
+        return (int) (vitals >>> 2 & 3);
+    }
+
+    public int respirationRange() {
+        return (int) (vitals >>> RESPIRATION_SHIFT & RESPIRATION_MASK);
+    }
+
+    public int spo2() {
+        return (int) (vitals >>> SPO2_SHIFT & SPO2_MASK);
+    }
+
+    public int temperatureTenths() {
+        return (int) (vitals >>> TEMPERATURE_SHIFT & TEMPERATURE_MASK);
+    }
+
+    public int cbgTenths() {
+        return (int) (vitals >>> CBG_SHIFT & CBG_MASK);
+    }
+
+    public boolean isFasting() {
+        return (vitals >>> FASTING_SHIFT & 1) != 0;
+    }
+
+    // Temperature and CBG as floats, for display and for callers still working in floats
+    public float temperature() {
+        return Tenths.toFloat(temperatureTenths());
+    }
+
+    public float CBG() {
+        return Tenths.toFloat(cbgTenths());
+    }
+
+    // Scores the readings, see MediScore for the packed layout
+    public int score() {
+        return MediScore.scoreTenths(airOrOxygenObs(), consciousnessObs(), respirationRange(), spo2(),
+                temperatureTenths(), cbgTenths(), isFasting());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder(128).append("Observation[airOrOxygenObs=").append(airOrOxygenObs())
+                .append(", consciousnessObs=").append(consciousnessObs())
+                .append(", respirationRange=").append(respirationRange())
+                .append(", spo2=").append(spo2())
+                .append(", temperature=");
+        Tenths.append(out, temperatureTenths()).append(", CBG=");
+        return Tenths.append(out, cbgTenths()).append(", isFasting=").append(isFasting())
+                .append(", timestamp=").append(timestamp).append(']').toString();
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: ObservationBlock.java
+ * Author: Christopher Fairhurst
+ * Description: A block of observations stored column by column (struct of arrays).
+ * ------------------------------------------------------------------------------
+ * Each array holds one attribute for every row in the block, so the batch scorer
+ * can stream through them without creating a Patient object per row.
+ * The encodings match the Patient constructor:
+ * airOrOxygen 0 = air, 2 = oxygen
+ * consciousness 0 = alert, 1-3 = CVPU
+ * temperature and CBG are held in tenths, see Tenths, and set rounds float readings the same way Patient does
+ * A value too large for its column is stored as the column's largest or smallest value instead
+ * of wrapping, which is never valid, so BatchScorer.validate rejects the row for the same field
+ * Patient would and a rejected reading can never wrap round into a valid one.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+public final class ObservationBlock {
+    public final int[] resp;
+    public final int[] spo2;
+    public final short[] tempTenths;
+    public final int[] cbgTenths;
+    public final byte[] airOrOxygen;
+    public final byte[] consciousness;
+    public final boolean[] fasting;
+    private final int size;
+
+    // Creates an empty block that can hold the given number of rows
+    public ObservationBlock(int size) {
+        this(new int[size], new int[size], new short[size], new int[size], new byte[size], new byte[size], new boolean[size]);
+    }
+
+    // Wraps existing column arrays, which must all be the same length
+    public ObservationBlock(int[] resp, int[] spo2, short[] tempTenths, int[] cbgTenths, byte[] airOrOxygen, byte[] consciousness, boolean[] fasting) {
+        int size = resp.length;
+        if (spo2.length != size || tempTenths.length != size || cbgTenths.length != size || airOrOxygen.length != size
+                || consciousness.length != size || fasting.length != size) {
+            throw new IllegalArgumentException("All observation columns must have the same length.");
+        }
+        this.resp = resp;
+        this.spo2 = spo2;
+        this.tempTenths = tempTenths;
+        this.cbgTenths = cbgTenths;
+        this.airOrOxygen = airOrOxygen;
+        this.consciousness = consciousness;
+        this.fasting = fasting;
+        this.size = size;
+    }
+
+    // Writes a single row into the block, rounding temperature and CBG to tenths
+    public void set(int row, int airOrOxygenObs, int consciousnessObs, int respirationRange, int spo2, float temperature, float CBG, boolean isFasting) {
+        setTenths(row, airOrOxygenObs, consciousnessObs, respirationRange, spo2, Tenths.of(temperature), Tenths.of(CBG), isFasting);
+    }
+
+    // Writes a single row into the block with temperature and CBG already in tenths
+    public void setTenths(int row, int airOrOxygenObs, int consciousnessObs, int respirationRange, int spo2, int temperatureTenths, int cbgTenths, boolean isFasting) {
+        this.airOrOxygen[row] = toByte(airOrOxygenObs);
+        this.consciousness[row] = toByte(consciousnessObs);
+        this.resp[row] = respirationRange;
+        this.spo2[row] = spo2;
+        this.tempTenths[row] = (short) Math.min(Math.max(temperatureTenths, Short.MIN_VALUE), Short.MAX_VALUE);
+        this.cbgTenths[row] = cbgTenths;
+        this.fasting[row] = isFasting;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Narrows to a byte, keeping values outside the byte range outside it
+    private static byte toByte(int value) {
+        return (byte) Math.min(Math.max(value, Byte.MIN_VALUE), Byte.MAX_VALUE);
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: ObservationField.java
+ * Author: Christopher Fairhurst
+ * Description: The fields of an observation that validation can reject.
+ * ------------------------------------------------------------------------------
+ * parameter is the name used in the "Invalid <parameter> value." messages,
+ * so metrics and errors refer to a field by the same name.
+ * Each field has one bit in the masks ObservationValidator returns, in the order the
+ * fields have always been checked, so the lowest bit set is the error Patient reports.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+public enum ObservationField {
+    AIR_OR_OXYGEN("airOrOxygenObs"),
+    CONSCIOUSNESS("consciousnessObs"),
+    RESPIRATION_RANGE("respirationRange"),
+    SPO2("spo2"),
+    TEMPERATURE("temperature"),
+    CBG("CBG"),
+    NAME("name");
+
+    private final String parameter;
+
+    ObservationField(String parameter) {
+        this.parameter = parameter;
+    }
+
+    public String parameter() {
+        return parameter;
+    }
+
+    // This field's bit in a validation mask
+    public int bit() {
+        return 1 << ordinal();
+    }
+
+    // The first field set in a non-zero validation mask
+    public static ObservationField first(int mask) {
+        return FIELDS[Integer.numberOfTrailingZeros(mask)];
+    }
+
+    private static final ObservationField[] FIELDS = values();
+}
@@ -0,0 +1,464 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: ObservationImporter.java
+ * Author: Christopher Fairhurst
+ * Description: Bulk imports an observation extract by parsing it straight from a memory-mapped file.
+ * ------------------------------------------------------------------------------
+ * Key Features:
+ * The file is mapped in windows of up to 64 MB and every field is parsed from the mapped
+ * bytes into primitives, so there is no String, no line object and no copy per line.
+ * Lines are in the ObservationParser format. Fields may be separated by commas or by
+ * HL7-style vertical bars. Blank lines and lines starting with # are skipped.
+ * Temperature and CBG readings with at most one decimal place are read straight into tenths.
+ * Any other reading, such as 37.25 or 3.7e1, is parsed as a float and checked with the
+ * float rules, so every row is accepted or rejected exactly as Patient.validateData would.
+ * Rows are collected into blocks and each block is checked, scored with BatchScorer and
+ * handed to a Handler, such as a ScoreExporter, before the block is reused.
+ * A line that is not in the expected format is rejected with the MALFORMED error rather
+ * than stopping the import.
+ * ------------------------------------------------------------------------------
+ * Usage:
+ * java -cp target/classes mediscore.ObservationImporter <extract> [<scores.csv>]
+ * java -cp target/classes mediscore.ObservationImporter --codes
+ * The first form scores the extract, writes the scores if an output file is given and
+ * reports the throughput. The second lists the comment codes the exporter writes.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public final class ObservationImporter {
+    public static final int DEFAULT_BLOCK_ROWS = 4096;
+
+    // Error of a line that is not in the ObservationParser format, a bit no ObservationField uses
+    public static final byte MALFORMED = (byte) 0x80;
+
+    // Largest part of the file mapped at once
+    private static final int WINDOW = 64 << 20;
+
+    // Readings below this many tenths in magnitude with at most one decimal place are read straight into tenths,
+    // every one of them rounds to the same tenths when parsed as a float
+    private static final int EXACT_TENTHS_LIMIT = 100_000;
+
+    // Receives each block once it has been scored, the block is reused after the call returns
+    public interface Handler {
+        void onBlock(Block block) throws IOException;
+    }
+
+    // One block of imported rows, column by column like ObservationBlock
+    public static final class Block {
+        public final ObservationBlock observations;
+        public final ScoreBlock scores;
+        public final long[] patientIds;
+        public final long[] timestamps;
+        // Line number of each row in the file, counting from 1
+        public final long[] lines;
+        // ObservationValidator mask of each row, MALFORMED for a line that could not be read, or 0
+        public final byte[] errors;
+        private int rows;
+        private int rejected;
+
+        public Block(int size) {
+            this.observations = new ObservationBlock(size);
+            this.scores = new ScoreBlock(size);
+            this.patientIds = new long[size];
+            this.timestamps = new long[size];
+            this.lines = new long[size];
+            this.errors = new byte[size];
+        }
+
+        // Number of rows filled
+        public int rows() {
+            return rows;
+        }
+
+        // Number of rows rejected as malformed or invalid
+        public int rejected() {
+            return rejected;
+        }
+
+        public int size() {
+            return errors.length;
+        }
+    }
+
+    // Totals for one import
+    public record Summary(long bytes, long rows, long rejected) {
+    }
+
+    private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+
+    private final int blockRows;
+
+    // Parsing state for the line being read
+    private MappedByteBuffer buffer;
+    private int position;
+    private int lineEnd;
+    private boolean malformed;
+    // Whether the last field read was followed by a separator
+    private boolean separated;
+    private boolean exact;
+    private float reading;
+
+    public ObservationImporter() {
+        this(DEFAULT_BLOCK_ROWS);
+    }
+
+    public ObservationImporter(int blockRows) {
+        if (blockRows < 1) {
+            throw new IllegalArgumentException("Invalid blockRows value.");
+        }
+        this.blockRows = blockRows;
+    }
+
+    // Imports the whole file, handing every scored block to the handler
+    // Rows without a timestamp are stamped with the time the import started
+    public Summary read(Path file, Handler handler) throws IOException {
+        Block block = new Block(blockRows);
+        long defaultTimestamp = System.currentTimeMillis();
+        long rows = 0;
+        long rejected = 0;
+        long lineNumber = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long offset = 0;
+            while (offset < size) {
+                int length = (int) Math.min(WINDOW, size - offset);
+                boolean last = offset + length == size;
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                // Little endian so the lowest set byte of a word is the first in the file
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                int start = 0;
+                while (start < length) {
+                    int end = indexOfNewline(start, length);
+                    if (end < 0) {
+                        if (!last) {
+                            break;
+                        }
+                        end = length;
+                    }
+                    lineNumber++;
+                    if (!skipped(start, end)) {
+                        readLine(block, block.rows, start, end, lineNumber, defaultTimestamp);
+                        if (++block.rows == block.size()) {
+                            rejected += finish(block, handler);
+                            rows += block.rows;
+                            block.rows = 0;
+                        }
+                    }
+                    start = end + 1;
+                }
+                if (start == 0 && !last) {
+                    throw new IOException("Line " + (lineNumber + 1) + " is longer than " + WINDOW + " bytes.");
+                }
+                offset += Math.min(start, length);
+            }
+            if (block.rows > 0) {
+                rejected += finish(block, handler);
+                rows += block.rows;
+            }
+            return new Summary(size, rows, rejected);
+        } finally {
+            buffer = null;
+        }
+    }
+
+    // Scores the filled rows, with the bands installed when the block started scoring, and passes the block on
+    private static int finish(Block block, Handler handler) throws IOException {
+        block.rejected = BatchScorer.scoreValidated(ScoringBands.current(), block.observations, block.scores, block.errors, 0, block.rows);
+        handler.onBlock(block);
+        return block.rejected;
+    }
+
+    // Looks at eight bytes at a time, the first byte of a word that is a newline has its top bit set in found
+    private int indexOfNewline(int from, int to) {
+        MappedByteBuffer bytes = buffer;
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            long word = bytes.getLong(i) ^ NEWLINES;
+            long found = (word - 0x0101010101010101L) & ~word & 0x8080808080808080L;
+            if (found != 0) {
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            if (bytes.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Blank lines and comments, as the pipeline skips them
+    private boolean skipped(int start, int end) {
+        if (start < end && buffer.get(start) == '#') {
+            return true;
+        }
+        for (int i = start; i < end; i++) {
+            if (!isSpace(buffer.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Reads one line into the given row and checks it
+    private void readLine(Block block, int row, int start, int end, long lineNumber, long defaultTimestamp) {
+        position = start;
+        lineEnd = end;
+        malformed = false;
+
+        long patientId = readLong();
+        int airOrOxygenObs = readInt();
+        int consciousnessObs = readInt();
+        int respirationRange = readInt();
+        int spo2 = readInt();
+        int temperatureTenths = readTenths();
+        boolean temperatureExact = exact;
+        float temperature = reading;
+        int cbgTenths = readTenths();
+        boolean cbgExact = exact;
+        float CBG = reading;
+        boolean isFasting = readBoolean();
+        long timestamp = separated ? readLong() : defaultTimestamp;
+        if (separated) {
+            // More fields than the format allows
+            malformed = true;
+        }
+
+        block.patientIds[row] = patientId;
+        block.timestamps[row] = timestamp;
+        block.lines[row] = lineNumber;
+        if (malformed) {
+            block.errors[row] = MALFORMED;
+            block.observations.setTenths(row, 0, 0, 0, 0, 0, 0, false);
+            return;
+        }
+        int mask;
+        if (temperatureExact && cbgExact) {
+            mask = ObservationValidator.invalidFieldsTenths(airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperatureTenths, cbgTenths);
+        } else {
+            mask = ObservationValidator.invalidFields(airOrOxygenObs, consciousnessObs, respirationRange, spo2,
+                    temperatureExact ? Tenths.toFloat(temperatureTenths) : temperature, cbgExact ? Tenths.toFloat(cbgTenths) : CBG);
+        }
+        block.errors[row] = (byte) mask;
+        block.observations.setTenths(row, airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperatureTenths, cbgTenths, isFasting);
+    }
+
+    // The field readers each read one field and step past its separator, setting malformed if the field is not valid
+
+    private long readLong() {
+        skipSpaces();
+        MappedByteBuffer bytes = buffer;
+        int i = position;
+        boolean negative = false;
+        if (i < lineEnd && (bytes.get(i) == '-' || bytes.get(i) == '+')) {
+            negative = bytes.get(i) == '-';
+            i++;
+        }
+        int digitsStart = i;
+        long value = 0;
+        // Accumulated as a negative number so Long.MIN_VALUE can be read
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        while (i < lineEnd) {
+            int digit = bytes.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            if (value < (limit + digit) / 10) {
+                malformed = true;
+            }
+            value = value * 10 - digit;
+            i++;
+        }
+        if (i == digitsStart) {
+            malformed = true;
+        }
+        position = i;
+        endField();
+        return negative ? value : -value;
+    }
+
+    private int readInt() {
+        long value = readLong();
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            malformed = true;
+        }
+        return (int) value;
+    }
+
+    // Reads a reading in tenths, setting exact if it was read directly
+    // Otherwise it is parsed as a float into reading and rounded to tenths as Patient rounds it
+    private int readTenths() {
+        skipSpaces();
+        MappedByteBuffer bytes = buffer;
+        int fieldStart = position;
+        int i = position;
+        boolean negative = false;
+        if (i < lineEnd && (bytes.get(i) == '-' || bytes.get(i) == '+')) {
+            negative = bytes.get(i) == '-';
+            i++;
+        }
+        int tenths = 0;
+        int digits = 0;
+        while (i < lineEnd && tenths < EXACT_TENTHS_LIMIT) {
+            int digit = bytes.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            tenths = tenths * 10 + digit * 10;
+            digits++;
+            i++;
+        }
+        if (i < lineEnd && bytes.get(i) == '.') {
+            i++;
+            if (i < lineEnd) {
+                int digit = bytes.get(i) - '0';
+                if (digit >= 0 && digit <= 9) {
+                    tenths += digit;
+                    digits++;
+                    i++;
+                }
+            }
+        }
+        position = i;
+        if (digits > 0 && tenths < EXACT_TENTHS_LIMIT && atFieldEnd()) {
+            exact = true;
+            endField();
+            return negative ? -tenths : tenths;
+        }
+        // Anything else goes through Float.parseFloat so it is read exactly as ObservationParser reads it
+        exact = false;
+        position = fieldStart;
+        int fieldEnd = fieldStart;
+        while (fieldEnd < lineEnd && !isSeparator(bytes.get(fieldEnd))) {
+            fieldEnd++;
+        }
+        byte[] field = new byte[fieldEnd - fieldStart];
+        bytes.get(fieldStart, field);
+        position = fieldEnd;
+        endField();
+        try {
+            reading = Float.parseFloat(new String(field, StandardCharsets.ISO_8859_1).trim());
+        } catch (NumberFormatException e) {
+            malformed = true;
+            reading = 0;
+        }
+        return Tenths.of(reading);
+    }
+
+    // Accepts true/false in any case as well as 1/0, as ObservationParser does
+    private boolean readBoolean() {
+        skipSpaces();
+        MappedByteBuffer bytes = buffer;
+        int i = position;
+        int length = 0;
+        while (i + length < lineEnd && !isSpace(bytes.get(i + length)) && !isSeparator(bytes.get(i + length))) {
+            length++;
+        }
+        position = i + length;
+        endField();
+        if (length == 1 && (bytes.get(i) == '1' || bytes.get(i) == '0')) {
+            return bytes.get(i) == '1';
+        }
+        if (matches(i, length, "true")) {
+            return true;
+        }
+        if (!matches(i, length, "false")) {
+            malformed = true;
+        }
+        return false;
+    }
+
+    private boolean matches(int from, int length, String word) {
+        if (length != word.length()) {
+            return false;
+        }
+        for (int k = 0; k < length; k++) {
+            if ((buffer.get(from + k) | 0x20) != word.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Skips trailing spaces, then the separator if there is one
+    // The field must end at a separator or at the end of the line
+    private void endField() {
+        // Nearly every field ends right at its separator
+        if (position < lineEnd && isSeparator(buffer.get(position))) {
+            position++;
+            separated = true;
+            return;
+        }
+        skipSpaces();
+        separated = false;
+        if (position < lineEnd) {
+            if (isSeparator(buffer.get(position))) {
+                position++;
+                separated = true;
+            } else {
+                malformed = true;
+                position = lineEnd;
+            }
+        }
+    }
+
+    private boolean atFieldEnd() {
+        int i = position;
+        while (i < lineEnd && isSpace(buffer.get(i))) {
+            i++;
+        }
+        return i == lineEnd || isSeparator(buffer.get(i));
+    }
+
+    // Spaces, tabs and the carriage return of a CRLF line, as String.trim removes them
+    private void skipSpaces() {
+        while (position < lineEnd && isSpace(buffer.get(position))) {
+            position++;
+        }
+    }
+
+    private static boolean isSpace(byte b) {
+        return (b & 0xFF) <= ' ';
+    }
+
+    private static boolean isSeparator(byte b) {
+        return b == ',' || b == '|';
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 1 && args[0].equals("--codes")) {
+            for (int code = 1; code <= Comments.codes(); code++) {
+                System.out.println(code + " " + Comments.ofCode(code));
+            }
+            return;
+        }
+        if (args.length != 1 && args.length != 2) {
+            System.err.println("Usage: ObservationImporter <extract> [<scores.csv>]");
+            System.err.println("       ObservationImporter --codes");
+            return;
+        }
+        ObservationImporter importer = new ObservationImporter();
+        long start = System.nanoTime();
+        Summary summary;
+        if (args.length == 2) {
+            try (ScoreExporter exporter = new ScoreExporter(Path.of(args[1]))) {
+                summary = importer.read(Path.of(args[0]), exporter::write);
+            }
+        } else {
+            summary = importer.read(Path.of(args[0]), block -> { });
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println("Rows:        " + summary.rows() + ", " + summary.rejected() + " rejected");
+        System.out.printf("Throughput:  %.0f MB/s, %.0f rows/s%n", summary.bytes() / seconds / 1e6, summary.rows() / seconds);
+    }
+}
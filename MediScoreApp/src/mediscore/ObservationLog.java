@@ -0,0 +1,305 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: ObservationLog.java
+ * Author: Christopher Fairhurst
+ * Description: Append-only binary log of scored observations, replayed at startup.
+ * ------------------------------------------------------------------------------
+ * Key Features:
+ * Every record is a fixed 32 bytes, so the log can be read with plain offset arithmetic.
+ * Records are batched in a direct buffer and written through a FileChannel.
+ * Replay memory-maps the file and rebuilds each patient's latest state and 24-hour score
+ * history in a PatientRegistry, the state that alerting depends on, without scoring the
+ * observations again. Only a patient's last two records and the scores in the 24 hours
+ * before their last one matter, so replay walks the log backwards, looking each record's
+ * patient up once and keeping only those, then builds each patient's history and
+ * PatientState once.
+ * ------------------------------------------------------------------------------
+ * Record layout (little-endian):
+ * offset 0   long  patient id
+ * offset 8   long  timestamp in epoch milliseconds
+ * offset 16  long  packed readings, see Observation
+ * offset 24  int   packed scores, see MediScore
+ * offset 28  int   record marker in the top 16 bits, alert ordinal in the bottom 8 bits
+ * ------------------------------------------------------------------------------
+ * A crash can leave a partly written record at the end of the file. Replay stops
+ * at the first record without the marker, and the next open truncates the file back
+ * to the last complete record before appending.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ObservationLog implements Closeable {
+    public static final int RECORD_SIZE = 32;
+
+    private static final int MARKER = 0x4D530000;
+    private static final int MARKER_MASK = 0xFFFF0000;
+    // Records buffered before they are written to the channel
+    private static final int BUFFER_RECORDS = 1024;
+    private static final int ALERT_MASK = 0xFF;
+    private static final ScoreAlert[] ALERTS = ScoreAlert.values();
+    // Largest region mapped at once during replay, a whole number of records below 2 GB
+    private static final int CHUNK_RECORDS = Integer.MAX_VALUE / RECORD_SIZE;
+    private static final long MAP_CHUNK = CHUNK_RECORDS * (long) RECORD_SIZE;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    // Opens the log for appending, creating it if it does not exist
+    public ObservationLog(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.truncate(validLength(channel));
+        channel.position(channel.size());
+    }
+
+    // Adds the state's observation and scores to the log
+    // Records are buffered, call flush to hand them to the operating system
+    public synchronized void append(PatientState state) throws IOException {
+        if (!buffer.hasRemaining()) {
+            writeBuffer();
+        }
+        Observation observation = state.observation();
+        buffer.putLong(state.patientId())
+                .putLong(observation.timestamp())
+                .putLong(observation.vitals())
+                .putInt(state.packedScores())
+                .putInt(MARKER | state.alert().ordinal());
+    }
+
+    // Writes any buffered records to the file
+    public synchronized void flush() throws IOException {
+        writeBuffer();
+    }
+
+    // Flushes and forces the records to the storage device
+    public synchronized void sync() throws IOException {
+        writeBuffer();
+        channel.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            writeBuffer();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Rebuilds every patient in the complete records into the registry, as if the records had been recorded in order
+    // The states and histories match recording every record, for timestamps that never go backwards per patient,
+    // and each state keeps the alert logged with the patient's last record, the one they were given at the time
+    // Returns the number of records replayed, or 0 if the log does not exist
+    public static long replay(Path path, PatientRegistry registry) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size() - channel.size() % RECORD_SIZE;
+            List<MappedByteBuffer> maps = new ArrayList<>();
+            for (long position = 0; position < size; position += MAP_CHUNK) {
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_CHUNK, size - position));
+                map.order(ByteOrder.LITTLE_ENDIAN);
+                maps.add(map);
+            }
+            long records = completeRecords(maps);
+            LatestRecords latest = new LatestRecords();
+            for (int chunk = (int) ((records + CHUNK_RECORDS - 1) / CHUNK_RECORDS) - 1; chunk >= 0; chunk--) {
+                MappedByteBuffer map = maps.get(chunk);
+                long first = (long) chunk * CHUNK_RECORDS;
+                for (int offset = (int) (Math.min(records - first, CHUNK_RECORDS) - 1) * RECORD_SIZE; offset >= 0; offset -= RECORD_SIZE) {
+                    latest.visit(map.getLong(offset), first + offset / RECORD_SIZE, map.getLong(offset + 8), map.getInt(offset + 24));
+                }
+            }
+            latest.restore(maps, registry);
+            return records;
+        }
+    }
+
+    // The number of records before the first one without the marker, where replay stops
+    private static long completeRecords(List<MappedByteBuffer> maps) {
+        long records = 0;
+        for (MappedByteBuffer map : maps) {
+            int limit = map.limit();
+            for (int offset = 0; offset < limit; offset += RECORD_SIZE) {
+                int marker = map.getInt(offset + 28);
+                if ((marker & MARKER_MASK) != MARKER || (marker & ALERT_MASK) >= ALERTS.length) {
+                    return records;
+                }
+                records++;
+            }
+        }
+        return records;
+    }
+
+    // Length of the log up to the end of the last complete record
+    private static long validLength(FileChannel channel) throws IOException {
+        long size = channel.size() - channel.size() % RECORD_SIZE;
+        ByteBuffer marker = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        // Walk back over records that were only partly written
+        while (size > 0) {
+            marker.clear();
+            channel.read(marker, size - RECORD_SIZE + 28);
+            if ((marker.getInt(0) & MARKER_MASK) == MARKER) {
+                break;
+            }
+            size -= RECORD_SIZE;
+        }
+        return size;
+    }
+
+    // What replay keeps per patient while walking the log backwards: their last record, the score and timestamp of
+    // the one before it, and the scores in the 24 hours up to the last one, newest first
+    // Patients are found through an open-addressed hash table with linear probing, whose entries are four longs:
+    // the id, the patient's slot plus one, so 0 marks an empty entry, the last timestamp and whether the previous
+    // record has been seen, so a record outside its patient's window costs one lookup in one entry
+    // Replay only adds patients, so nothing is ever removed
+    private static final class LatestRecords {
+        private static final int ENTRY_LONGS = 4;
+        private static final int FIRST_WINDOW = 8;
+
+        private long[] table = new long[1024 * ENTRY_LONGS];
+        private int mask = 1023;
+        private int patients;
+
+        // Per slot, in the order the patients were first seen from the end
+        private long[] ids = new long[512];
+        private long[] lastRecord = new long[512];
+        private int[] previousFinalScore = new int[512];
+        private long[] previousTimestamp = new long[512];
+        private long[][] windowTimestamps = new long[512][];
+        private byte[][] windowScores = new byte[512][];
+        private int[] windowCount = new int[512];
+
+        // Takes in one record, each earlier than the last one visited
+        void visit(long id, long record, long timestamp, int packedScores) {
+            int i = home(id);
+            while (table[i * ENTRY_LONGS + 1] != 0 && table[i * ENTRY_LONGS] != id) {
+                i = (i + 1) & mask;
+            }
+            int at = i * ENTRY_LONGS;
+            if (table[at + 1] == 0) {
+                first(at, id, record, timestamp, packedScores);
+                return;
+            }
+            if (table[at + 3] == 0) {
+                previous(at, timestamp, packedScores);
+            }
+            if (timestamp >= table[at + 2] - ScoreAlert.MILLISECONDS_IN_A_DAY) {
+                window((int) table[at + 1] - 1, timestamp, packedScores);
+            }
+        }
+
+        // The first record seen for a patient is their last
+        private void first(int at, long id, long record, long timestamp, int packedScores) {
+            int slot = add(id, record);
+            table[at] = id;
+            table[at + 1] = slot + 1;
+            table[at + 2] = timestamp;
+            window(slot, timestamp, packedScores);
+            // Kept at most half full so probe sequences stay short
+            if (patients > (mask + 1) >>> 1) {
+                resize();
+            }
+        }
+
+        // The second is the one before it
+        private void previous(int at, long timestamp, int packedScores) {
+            int slot = (int) table[at + 1] - 1;
+            table[at + 3] = 1;
+            previousFinalScore[slot] = MediScore.finalScoreOf(packedScores);
+            previousTimestamp[slot] = timestamp;
+        }
+
+        private void window(int slot, long timestamp, int packedScores) {
+            int count = windowCount[slot];
+            if (count == windowScores[slot].length) {
+                windowTimestamps[slot] = Arrays.copyOf(windowTimestamps[slot], count * 2);
+                windowScores[slot] = Arrays.copyOf(windowScores[slot], count * 2);
+            }
+            windowTimestamps[slot][count] = timestamp;
+            windowScores[slot][count] = (byte) MediScore.finalScoreOf(packedScores);
+            windowCount[slot] = count + 1;
+        }
+
+        // Builds every patient's history oldest first and their state from their last record, and installs both
+        void restore(List<MappedByteBuffer> maps, PatientRegistry registry) {
+            for (int slot = 0; slot < patients; slot++) {
+                ScoreHistory history = new ScoreHistory(registry.historyCapacity());
+                for (int i = windowCount[slot] - 1; i >= 0; i--) {
+                    history.add(windowTimestamps[slot][i], windowScores[slot][i]);
+                }
+                windowTimestamps[slot] = null;
+                windowScores[slot] = null;
+                MappedByteBuffer map = maps.get((int) (lastRecord[slot] / CHUNK_RECORDS));
+                int offset = (int) (lastRecord[slot] % CHUNK_RECORDS) * RECORD_SIZE;
+                long timestamp = map.getLong(offset + 8);
+                registry.restore(new PatientState(ids[slot], Observation.unpack(map.getLong(offset + 16), timestamp), map.getInt(offset + 24),
+                        previousFinalScore[slot], previousTimestamp[slot], ALERTS[map.getInt(offset + 28) & ALERT_MASK],
+                        history.min(), history.max(), history.mean()), history);
+            }
+        }
+
+        private int add(long id, long record) {
+            if (patients == ids.length) {
+                int capacity = patients * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                lastRecord = Arrays.copyOf(lastRecord, capacity);
+                previousFinalScore = Arrays.copyOf(previousFinalScore, capacity);
+                previousTimestamp = Arrays.copyOf(previousTimestamp, capacity);
+                windowTimestamps = Arrays.copyOf(windowTimestamps, capacity);
+                windowScores = Arrays.copyOf(windowScores, capacity);
+                windowCount = Arrays.copyOf(windowCount, capacity);
+            }
+            int slot = patients++;
+            ids[slot] = id;
+            lastRecord[slot] = record;
+            previousFinalScore[slot] = PatientState.NO_PREVIOUS_SCORE;
+            windowTimestamps[slot] = new long[FIRST_WINDOW];
+            windowScores[slot] = new byte[FIRST_WINDOW];
+            return slot;
+        }
+
+        private void resize() {
+            long[] old = table;
+            table = new long[old.length * 2];
+            mask = mask * 2 + 1;
+            for (int at = 0; at < old.length; at += ENTRY_LONGS) {
+                if (old[at + 1] != 0) {
+                    int i = home(old[at]);
+                    while (table[i * ENTRY_LONGS + 1] != 0) {
+                        i = (i + 1) & mask;
+                    }
+                    System.arraycopy(old, at, table, i * ENTRY_LONGS, ENTRY_LONGS);
+                }
+            }
+        }
+
+        private int home(long key) {
+            key = (key ^ (key >>> 30)) * 0xbf58476d1ce4e5b9L;
+            key = (key ^ (key >>> 27)) * 0x94d049bb133111ebL;
+            return (int) (key ^ (key >>> 31)) & mask;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: ObservationParser.java
+ * Author: Christopher Fairhurst
+ * Description: Parses one line of the observation feed.
+ * ------------------------------------------------------------------------------
+ * Line format (comma separated, the timestamp is optional):
+ * patientId,airOrOxygen,consciousness,respirationRange,spo2,temperature,CBG,fasting[,epochMillis]
+ * Example:
+ * 1,2,0,20,95,37.2,7.0,true,1708473600000
+ * Blank lines and lines starting with # are skipped by the pipeline.
+ * ------------------------------------------------------------------------------
+ * Parsing only checks the shape of the line, the range checks are done by
+ * ObservationValidator using the same rules as Patient.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+public final class ObservationParser {
+    private static final int FIELDS = 8;
+
+    private ObservationParser() {
+    }
+
+    // The parsed fields of a line before validation
+    public record RawObservation(long patientId, int airOrOxygenObs, int consciousnessObs, int respirationRange, int spo2,
+                                 float temperature, float CBG, boolean isFasting, long timestamp) {
+
+        // The fields that fail the Patient validation rules, 0 if the observation is valid, see ObservationValidator
+        public int invalidFields() {
+            return ObservationValidator.invalidFields(airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperature, CBG);
+        }
+
+        // Rounds an observation that invalidFields has accepted, without checking it again
+        public PatientObservation accept() {
+            return new PatientObservation(patientId, Observation.ofValidated(airOrOxygenObs, consciousnessObs, respirationRange, spo2,
+                    temperature, CBG, isFasting, timestamp));
+        }
+    }
+
+    // Parses a line, stamping it with the current time if it has no timestamp
+    // Throws IllegalArgumentException if the line is not in the expected format
+    public static RawObservation parse(String line) {
+        String[] fields = line.split(",", -1);
+        if (fields.length != FIELDS && fields.length != FIELDS + 1) {
+            throw new IllegalArgumentException("Expected " + FIELDS + " or " + (FIELDS + 1) + " fields but found " + fields.length + ".");
+        }
+        try {
+            long patientId = Long.parseLong(fields[0].trim());
+            int airOrOxygenObs = Integer.parseInt(fields[1].trim());
+            int consciousnessObs = Integer.parseInt(fields[2].trim());
+            int respirationRange = Integer.parseInt(fields[3].trim());
+            int spo2 = Integer.parseInt(fields[4].trim());
+            float temperature = Float.parseFloat(fields[5].trim());
+            float CBG = Float.parseFloat(fields[6].trim());
+            boolean isFasting = parseBoolean(fields[7].trim());
+            long timestamp = fields.length > FIELDS ? Long.parseLong(fields[FIELDS].trim()) : System.currentTimeMillis();
+            return new RawObservation(patientId, airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperature, CBG, isFasting, timestamp);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number: " + e.getMessage());
+        }
+    }
+
+    // Accepts true/false as well as 1/0 from devices that send flags as numbers
+    static boolean parseBoolean(String value) {
+        if (value.equalsIgnoreCase("true") || value.equals("1")) {
+            return true;
+        }
+        if (value.equalsIgnoreCase("false") || value.equals("0")) {
+            return false;
+        }
+        throw new IllegalArgumentException("Invalid fasting value.");
+    }
+}
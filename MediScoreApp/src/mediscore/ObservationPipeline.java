@@ -0,0 +1,404 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: ObservationPipeline.java
+ * Author: Christopher Fairhurst
+ * Description: Streams observations from a file, stdin or a socket through parse,
+ * validate, score and alert stages.
+ * ------------------------------------------------------------------------------
+ * Key Features:
+ * Each stage runs on its own thread and hands batches to the next stage through a bounded queue.
+ * When a stage falls behind its input queue fills up and the stage before it blocks,
+ * all the way back to the reader, which stops reading from the stream (backpressure).
+ * Batches are as large as whatever is already waiting, so a quiet feed is handled one
+ * observation at a time and a burst is handled in batches without waiting for a batch to fill.
+ * A stage that throws, for example when the log cannot be written, stops the pipeline: the
+ * input stream is closed so the reader stops, the batches already queued are dropped, and
+ * run throws the failure once every stage has finished. main then exits with status 1, and
+ * a connection on --port is closed.
+ * ------------------------------------------------------------------------------
+ * Usage:
+ * java -cp mediscore.jar mediscore.ObservationPipeline observations.csv
+ * java -cp mediscore.jar mediscore.ObservationPipeline - < observations.csv
+ * java -cp mediscore.jar mediscore.ObservationPipeline --port 9000
+ * Add --log <file> before the other arguments to replay an ObservationLog at startup
+ * and append every scored observation to it.
+ * Add --bands <file> to score with a site's band config, reloaded whenever the file changes.
+ * Score stage latency per batch is recorded in Metrics, readable over JMX as mediscore:type=Metrics.
+ * Add --overdue <tickSeconds> to report patients whose next observation is overdue, see ObservationScheduler.
+ * See ObservationParser for the line format.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ObservationPipeline {
+    // Largest batch handed from one stage to the next
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    // Batches each queue can hold before the stage feeding it blocks
+    public static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+    // An empty batch marks the end of the stream
+    private static final List<?> END = List.of();
+
+    // Receives the output of the pipeline
+    // onResult, onAlert and onBatchEnd are called from the alert stage thread,
+    // onRejected is called from the parse and validate stage threads
+    public interface Listener {
+        void onResult(PatientState state);
+
+        default void onAlert(PatientState state) {
+        }
+
+        void onRejected(String input, String reason);
+
+        // Called after each batch, for example to flush buffered output
+        default void onBatchEnd() {
+        }
+    }
+
+    // Turns one batch into the next stage's batch
+    private interface BatchFunction<I, O> {
+        List<O> apply(List<I> batch) throws Exception;
+    }
+
+    private final PatientRegistry registry;
+    private final Listener listener;
+    private final ObservationLog log;
+    private final int batchSize;
+    private final int queueCapacity;
+
+    public ObservationPipeline(PatientRegistry registry, Listener listener) {
+        this(registry, listener, null, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    // log may be null, otherwise every scored observation is appended to it
+    public ObservationPipeline(PatientRegistry registry, Listener listener, ObservationLog log, int batchSize, int queueCapacity) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Invalid batchSize value.");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Invalid queueCapacity value.");
+        }
+        this.registry = registry;
+        this.listener = listener;
+        this.log = log;
+        this.batchSize = batchSize;
+        this.queueCapacity = queueCapacity;
+    }
+
+    // Runs the stream through the pipeline and returns once every observation has been handled
+    // Throws the first stage failure as an IOException, after closing the input and waiting for every stage to stop
+    public void run(InputStream input) throws IOException, InterruptedException {
+        BlockingQueue<List<String>> lines = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<List<ObservationParser.RawObservation>> parsed = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<List<PatientObservation>> validated = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<List<PatientState>> scored = new ArrayBlockingQueue<>(queueCapacity);
+
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        List<Thread> stages = List.of(
+                stage("parse", lines, parsed, this::parse, failure, input),
+                stage("validate", parsed, validated, this::validate, failure, input),
+                stage("score", validated, scored, this::score, failure, input),
+                stage("alert", scored, null, this::alert, failure, input));
+        stages.forEach(Thread::start);
+
+        try {
+            read(input, lines, failure);
+        } catch (IOException e) {
+            // Reading fails once a stage has closed the input, the stage's failure is the one to report
+            if (failure.get() == null) {
+                throw e;
+            }
+        } finally {
+            lines.put(end());
+            for (Thread stage : stages) {
+                stage.join();
+            }
+        }
+        IOException failed = failure.get();
+        if (failed != null) {
+            throw failed;
+        }
+    }
+
+    // Reads lines into batches, a batch is sent as soon as no more input is ready or it is full
+    private void read(InputStream input, BlockingQueue<List<String>> lines, AtomicReference<IOException> failure)
+            throws IOException, InterruptedException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        List<String> batch = new ArrayList<>(batchSize);
+        String line;
+        while (failure.get() == null && (line = reader.readLine()) != null) {
+            batch.add(line);
+            if (batch.size() == batchSize || !reader.ready()) {
+                lines.put(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty() && failure.get() == null) {
+            lines.put(batch);
+        }
+    }
+
+    // Starts a stage that takes batches from in, applies the function and puts the result on out
+    // A stage that fails records the failure and closes the input so the reader stops, then keeps
+    // draining its input so the stages before it never block forever
+    // Once any stage has failed, every stage drops the batches still queued
+    private static <I, O> Thread stage(String name, BlockingQueue<List<I>> in, BlockingQueue<List<O>> out, BatchFunction<I, O> function,
+                                       AtomicReference<IOException> failure, InputStream input) {
+        return new Thread(() -> {
+            try {
+                while (true) {
+                    List<I> batch = in.take();
+                    if (batch.isEmpty()) {
+                        break;
+                    }
+                    if (failure.get() != null) {
+                        continue;
+                    }
+                    try {
+                        List<O> result = function.apply(batch);
+                        if (out != null && !result.isEmpty()) {
+                            out.put(result);
+                        }
+                    } catch (InterruptedException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        if (failure.compareAndSet(null, new IOException("Pipeline stage " + name + " failed: " + e.getMessage(), e))) {
+                            try {
+                                input.close();
+                            } catch (IOException closeFailure) {
+                                e.addSuppressed(closeFailure);
+                            }
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (out != null) {
+                    try {
+                        out.put(end());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }, "observation-pipeline-" + name);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> end() {
+        return (List<T>) END;
+    }
+
+    // Parse stage, skips blank lines and comments
+    private List<ObservationParser.RawObservation> parse(List<String> batch) {
+        List<ObservationParser.RawObservation> result = new ArrayList<>(batch.size());
+        for (String line : batch) {
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                result.add(ObservationParser.parse(line));
+            } catch (IllegalArgumentException e) {
+                listener.onRejected(line, e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    // Validate stage, applies the Patient validation rules without throwing for bad rows
+    // Rejected rows never reach the score stage, so they never touch the registry or the log
+    private List<PatientObservation> validate(List<ObservationParser.RawObservation> batch) {
+        List<PatientObservation> result = new ArrayList<>(batch.size());
+        for (ObservationParser.RawObservation raw : batch) {
+            int invalidFields = raw.invalidFields();
+            if (invalidFields == 0) {
+                result.add(raw.accept());
+            } else {
+                listener.onRejected(raw.toString(), ObservationValidator.message(invalidFields));
+            }
+        }
+        return result;
+    }
+
+    // Score stage, records each observation in the registry and the log
+    private List<PatientState> score(List<PatientObservation> batch) throws IOException {
+        long start = Metrics.start();
+        List<PatientState> result = new ArrayList<>(batch.size());
+        for (PatientObservation observation : batch) {
+            PatientState state = log == null
+                    ? registry.record(observation.patientId(), observation.observation())
+                    : registry.record(observation.patientId(), observation.observation(), log::append);
+            result.add(state);
+        }
+        if (log != null) {
+            log.flush();
+        }
+        Metrics.recordSince(Metrics.BATCH_LATENCY, start);
+        return result;
+    }
+
+    // Alert stage, hands every result and every raised alert to the listener
+    private List<Void> alert(List<PatientState> batch) {
+        for (PatientState state : batch) {
+            listener.onResult(state);
+            if (state.alert() == ScoreAlert.RAISED) {
+                listener.onAlert(state);
+            }
+        }
+        listener.onBatchEnd();
+        return List.of();
+    }
+
+    // Passes every result to the scheduler so it knows when each patient's next observation is due
+    static final class SchedulingListener implements Listener {
+        private final Listener listener;
+        private final ObservationScheduler scheduler;
+
+        SchedulingListener(Listener listener, ObservationScheduler scheduler) {
+            this.listener = listener;
+            this.scheduler = scheduler;
+        }
+
+        @Override
+        public void onResult(PatientState state) {
+            scheduler.observed(state.patientId(), state.timestamp(), state.finalScore());
+            listener.onResult(state);
+        }
+
+        @Override
+        public void onAlert(PatientState state) {
+            listener.onAlert(state);
+        }
+
+        @Override
+        public void onRejected(String input, String reason) {
+            listener.onRejected(input, reason);
+        }
+
+        @Override
+        public void onBatchEnd() {
+            listener.onBatchEnd();
+        }
+    }
+
+    // Prints results as CSV lines to standard out and rejected lines to standard error
+    static final class ConsoleListener implements Listener, ObservationScheduler.Listener {
+        private final PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false, StandardCharsets.UTF_8);
+
+        @Override
+        public synchronized void onResult(PatientState state) {
+            out.println(state.patientId() + "," + state.timestamp() + "," + state.finalScore() + "," + state.alert());
+        }
+
+        @Override
+        public synchronized void onAlert(PatientState state) {
+            out.println("ALERT!!!! Patient " + state.patientId() + " MediScore has changed by more than 2 points in the last 24 hours.");
+        }
+
+        @Override
+        public void onRejected(String input, String reason) {
+            System.err.println("Rejected " + input + ": " + reason);
+        }
+
+        @Override
+        public synchronized void onBatchEnd() {
+            out.flush();
+        }
+
+        @Override
+        public synchronized void onOverdue(long patientId, int finalScore, long dueTime) {
+            out.println("OVERDUE!!!! Patient " + patientId + " observation was due at " + dueTime + " (last MediScore " + finalScore + ").");
+            out.flush();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        PatientRegistry registry = new PatientRegistry();
+        ConsoleListener console = new ConsoleListener();
+        Listener listener = console;
+        ObservationLog log = null;
+        Metrics.registerMBean();
+
+        while (args.length >= 2 && (args[0].equals("--log") || args[0].equals("--bands") || args[0].equals("--overdue"))) {
+            if (args[0].equals("--overdue")) {
+                ObservationScheduler scheduler = new ObservationScheduler(console, Long.parseLong(args[1]) * 1000);
+                scheduler.start();
+                listener = new SchedulingListener(console, scheduler);
+            } else if (args[0].equals("--log")) {
+                Path logPath = Path.of(args[1]);
+                long replayed = ObservationLog.replay(logPath, registry);
+                System.err.println("Replayed " + replayed + " observations for " + registry.size() + " patients from " + logPath);
+                log = new ObservationLog(logPath);
+            } else {
+                BandConfigWatcher.start(Path.of(args[1]));
+                System.err.println("Scoring with bands " + ScoringBands.current().version() + " from " + args[1]);
+            }
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        ObservationLog observationLog = log;
+        Listener pipelineListener = listener;
+
+        if (args.length == 2 && args[0].equals("--port")) {
+            // One pipeline per connected device, all sharing the registry
+            try (ServerSocket server = new ServerSocket(Integer.parseInt(args[1]))) {
+                while (true) {
+                    Socket socket = server.accept();
+                    Thread.ofVirtual().start(() -> {
+                        try (socket) {
+                            new ObservationPipeline(registry, pipelineListener, observationLog, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_CAPACITY)
+                                    .run(socket.getInputStream());
+                        } catch (IOException e) {
+                            System.err.println("Connection error: " + e.getMessage());
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    });
+                }
+            }
+        } else if (args.length == 1) {
+            ObservationPipeline pipeline = new ObservationPipeline(registry, pipelineListener, observationLog, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_CAPACITY);
+            boolean failed = false;
+            try {
+                if (args[0].equals("-")) {
+                    pipeline.run(System.in);
+                } else {
+                    try (InputStream input = Files.newInputStream(Path.of(args[0]))) {
+                        pipeline.run(input);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+                failed = true;
+            } finally {
+                if (observationLog != null) {
+                    observationLog.close();
+                }
+            }
+            if (failed) {
+                System.exit(1);
+            }
+        } else {
+            System.err.println("Usage: ObservationPipeline [--log <file>] [--bands <file>] [--overdue <tickSeconds>] <file> | - | --port <port>");
+        }
+    }
+}
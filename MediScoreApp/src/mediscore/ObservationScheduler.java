@@ -0,0 +1,255 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: ObservationScheduler.java
+ * Author: Christopher Fairhurst
+ * Description: Hashed timer wheel that notices patients whose observations are overdue.
+ * ------------------------------------------------------------------------------
+ * Key Features:
+ * Each patient's next observation is due a fixed time after their last one, sooner the
+ * higher their last MediScore, see dueAfter.
+ * Every tracked patient is one entry in a bucket of a wheel of ticks, so rescheduling on
+ * a new observation is an O(1) unlink and link, and each tick only visits the one bucket
+ * whose time has come. There is no task or thread per patient, so hundreds of thousands
+ * of patients cost one entry each and a single ticker thread.
+ * A patient who is overdue is reported once, and again only after a new observation
+ * has been recorded and then missed.
+ * ------------------------------------------------------------------------------
+ * Usage:
+ * ObservationScheduler scheduler = new ObservationScheduler(listener);
+ * scheduler.start();
+ * scheduler.observed(state.patientId(), state.timestamp(), state.finalScore());
+ * Or drive it from a clock of your own with advance(nowMillis) instead of start.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class ObservationScheduler implements AutoCloseable {
+    public static final long MINUTE = 60_000L;
+    public static final long HOUR = 60 * MINUTE;
+    public static final long DEFAULT_TICK = MINUTE;
+    // How long the wheel spans, longer than any interval, so no entry goes round the wheel more than once
+    public static final long WHEEL_SPAN = 34 * HOUR;
+    // 2048 one-minute ticks span 34 hours
+    public static final int DEFAULT_WHEEL_SIZE = 2048;
+    // Largest wheel wheelSize hands out, a million buckets, which any tick under 117 ms would exceed
+    public static final int MAX_WHEEL_SIZE = 1 << 20;
+
+    // Receives overdue patients, called from the thread that advances the wheel
+    public interface Listener {
+        void onOverdue(long patientId, int finalScore, long dueTime);
+    }
+
+    // One tracked patient, linked into the bucket for their due tick
+    private static final class Entry {
+        final long patientId;
+        int finalScore;
+        long observedAt = Long.MIN_VALUE;
+        long dueTime;
+        long dueTick;
+        int bucket;
+        Entry previous;
+        Entry next;
+        boolean scheduled;
+
+        Entry(long patientId) {
+            this.patientId = patientId;
+        }
+    }
+
+    private final Listener listener;
+    private final long tickMillis;
+    private final Entry[] buckets;
+    private final int mask;
+    private final Map<Long, Entry> patients = new HashMap<>();
+    // Every tick before this one has been processed
+    private long nextTick = Long.MIN_VALUE;
+    private int scheduled;
+    private Thread ticker;
+
+    public ObservationScheduler(Listener listener) {
+        this(listener, DEFAULT_TICK, DEFAULT_WHEEL_SIZE);
+    }
+
+    // A wheel of the given tick spanning WHEEL_SPAN, see wheelSize
+    public ObservationScheduler(Listener listener, long tickMillis) {
+        this(listener, tickMillis, wheelSize(tickMillis));
+    }
+
+    // Due times are rounded up to the next tick, the wheel size is rounded up to a power of two
+    // A wheel spanning less than the longest interval still reports every patient on time, but
+    // visits each entry once per lap while it waits
+    public ObservationScheduler(Listener listener, long tickMillis, int wheelSize) {
+        if (tickMillis < 1) {
+            throw new IllegalArgumentException("Invalid tickMillis value.");
+        }
+        if (wheelSize < 1) {
+            throw new IllegalArgumentException("Invalid wheelSize value.");
+        }
+        int size = Math.max(Integer.highestOneBit(wheelSize - 1) << 1, 1);
+        this.listener = listener;
+        this.tickMillis = tickMillis;
+        this.buckets = new Entry[size];
+        this.mask = size - 1;
+    }
+
+    // Number of ticks that span WHEEL_SPAN
+    // A tick so short that the wheel would need more than MAX_WHEEL_SIZE buckets is rejected
+    public static int wheelSize(long tickMillis) {
+        if (tickMillis < 1) {
+            throw new IllegalArgumentException("Invalid tickMillis value.");
+        }
+        long size = (WHEEL_SPAN + tickMillis - 1) / tickMillis;
+        if (size > MAX_WHEEL_SIZE) {
+            throw new IllegalArgumentException("Invalid tickMillis value.");
+        }
+        return (int) size;
+    }
+
+    // How long after an observation the next one is due, by its final MediScore
+    // 0 every 12 hours, 1-4 every 4 hours, 5-6 every hour, 7 or more every 15 minutes
+    public static long dueAfter(int finalScore) {
+        if (finalScore <= 0) {
+            return 12 * HOUR;
+        } else if (finalScore <= 4) {
+            return 4 * HOUR;
+        } else if (finalScore <= 6) {
+            return HOUR;
+        }
+        return 15 * MINUTE;
+    }
+
+    // Records an observation and schedules the patient's next one from it
+    // An observation older than the one already recorded for the patient is ignored
+    public synchronized void observed(long patientId, long timestamp, int finalScore) {
+        Entry entry = patients.computeIfAbsent(patientId, Entry::new);
+        if (timestamp < entry.observedAt) {
+            return;
+        }
+        unlink(entry);
+        entry.observedAt = timestamp;
+        entry.finalScore = finalScore;
+        entry.dueTime = timestamp + dueAfter(finalScore);
+        entry.dueTick = Math.floorDiv(entry.dueTime + tickMillis - 1, tickMillis);
+        if (nextTick == Long.MIN_VALUE) {
+            nextTick = Math.floorDiv(timestamp, tickMillis);
+        }
+        link(entry);
+    }
+
+    // Stops tracking the patient, for example on discharge
+    public synchronized boolean forget(long patientId) {
+        Entry entry = patients.remove(patientId);
+        if (entry == null) {
+            return false;
+        }
+        unlink(entry);
+        return true;
+    }
+
+    // Processes every tick up to the given time and reports the patients that became overdue
+    // Returns the number reported
+    public int advance(long nowMillis) {
+        List<Entry> overdue = new ArrayList<>();
+        synchronized (this) {
+            if (nextTick == Long.MIN_VALUE) {
+                return 0;
+            }
+            long lastTick = Math.floorDiv(nowMillis, tickMillis);
+            // After a long pause every bucket is visited once rather than once per missed tick
+            long from = Math.max(nextTick, lastTick - mask);
+            for (long tick = from; tick <= lastTick; tick++) {
+                Entry entry = buckets[(int) tick & mask];
+                while (entry != null) {
+                    Entry next = entry.next;
+                    if (entry.dueTick <= lastTick) {
+                        unlink(entry);
+                        overdue.add(entry);
+                    }
+                    entry = next;
+                }
+            }
+            nextTick = Math.max(nextTick, lastTick + 1);
+        }
+        for (Entry entry : overdue) {
+            listener.onOverdue(entry.patientId, entry.finalScore, entry.dueTime);
+        }
+        return overdue.size();
+    }
+
+    // Number of patients tracked, overdue or not
+    public synchronized int size() {
+        return patients.size();
+    }
+
+    // Number of patients waiting for their next observation who are not yet overdue
+    public synchronized int scheduled() {
+        return scheduled;
+    }
+
+    // Advances the wheel from the system clock once a tick on a daemon thread
+    public synchronized void start() {
+        if (ticker != null) {
+            return;
+        }
+        ticker = Thread.ofPlatform().name("observation-scheduler").daemon().start(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    Thread.sleep(tickMillis - Math.floorMod(System.currentTimeMillis(), tickMillis));
+                } catch (InterruptedException e) {
+                    return;
+                }
+                advance(System.currentTimeMillis());
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            thread = ticker;
+            ticker = null;
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    // An entry already due goes in the next bucket to be processed, so it is reported on the next tick
+    private void link(Entry entry) {
+        int bucket = (int) Math.max(entry.dueTick, nextTick) & mask;
+        entry.bucket = bucket;
+        entry.previous = null;
+        entry.next = buckets[bucket];
+        if (entry.next != null) {
+            entry.next.previous = entry;
+        }
+        buckets[bucket] = entry;
+        entry.scheduled = true;
+        scheduled++;
+    }
+
+    private void unlink(Entry entry) {
+        if (!entry.scheduled) {
+            return;
+        }
+        if (entry.previous != null) {
+            entry.previous.next = entry.next;
+        } else {
+            buckets[entry.bucket] = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.previous = entry.previous;
+        }
+        entry.previous = null;
+        entry.next = null;
+        entry.scheduled = false;
+        scheduled--;
+    }
+}
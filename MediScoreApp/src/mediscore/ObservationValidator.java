@@ -0,0 +1,92 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: ObservationValidator.java
+ * Author: Christopher Fairhurst
+ * Description: The Patient validation rules, returning a mask of failed fields instead of throwing.
+ * ------------------------------------------------------------------------------
+ * Key Features:
+ * invalidFields checks every field and returns one ObservationField bit per failure, 0 when
+ * the observation is valid, so a noisy feed can be filtered without building an exception
+ * and its stack trace for every bad row, and every bad field is reported, not just the first.
+ * requireValid turns a mask into the same IllegalArgumentException Patient has always thrown,
+ * naming the first failed field in the original order of the checks.
+ * Every failed field is counted in Metrics.
+ * ------------------------------------------------------------------------------
+ * Rules:
+ * airOrOxygenObs    0 or 2
+ * consciousnessObs  0 to 3
+ * respirationRange  not null, 0 or more
+ * spo2              not null, 0 to 100
+ * temperature       28 to 45, NaN is rejected
+ * CBG               0 or more, NaN is rejected
+ * name              not null or empty
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+public final class ObservationValidator {
+    private static final int AIR_OR_OXYGEN_BIT = ObservationField.AIR_OR_OXYGEN.bit();
+    private static final int CONSCIOUSNESS_BIT = ObservationField.CONSCIOUSNESS.bit();
+    private static final int RESPIRATION_RANGE_BIT = ObservationField.RESPIRATION_RANGE.bit();
+    private static final int SPO2_BIT = ObservationField.SPO2.bit();
+    private static final int TEMPERATURE_BIT = ObservationField.TEMPERATURE.bit();
+    private static final int CBG_BIT = ObservationField.CBG.bit();
+    private static final int NAME_BIT = ObservationField.NAME.bit();
+
+    // The temperature limits in tenths, for readings that have already been rounded
+    private static final int MIN_TEMPERATURE_TENTHS = 280;
+    private static final int MAX_TEMPERATURE_TENTHS = 450;
+
+    private ObservationValidator() {
+    }
+
+    // Checks the readings as Patient.updatePatient does, returning the failed fields or 0
+    public static int invalidFields(int airOrOxygenObs, int consciousnessObs, Integer respirationRange, Integer spo2, float temperature, float CBG) {
+        int mask = (airOrOxygenObs != 0 && airOrOxygenObs != 2 ? AIR_OR_OXYGEN_BIT : 0)
+                | (consciousnessObs > 3 || consciousnessObs < 0 ? CONSCIOUSNESS_BIT : 0)
+                | (respirationRange == null || respirationRange < 0 ? RESPIRATION_RANGE_BIT : 0)
+                | (spo2 == null || spo2 < 0 || spo2 > 100 ? SPO2_BIT : 0)
+                | (!(temperature >= 28 && temperature <= 45) ? TEMPERATURE_BIT : 0)
+                | (!(CBG >= 0) ? CBG_BIT : 0);
+        return count(mask);
+    }
+
+    // As above with the name check the Patient constructor adds
+    public static int invalidFields(String name, int airOrOxygenObs, int consciousnessObs, Integer respirationRange, Integer spo2, float temperature, float CBG) {
+        int mask = invalidFields(airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperature, CBG);
+        return name == null || name.isEmpty() ? mask | count(NAME_BIT) : mask;
+    }
+
+    // Checks readings already held in tenths, such as a row of an ObservationBlock
+    // A temperature is checked after rounding, so 27.96 passes here where the float check rejects it
+    public static int invalidFieldsTenths(int airOrOxygenObs, int consciousnessObs, int respirationRange, int spo2, int temperatureTenths, int cbgTenths) {
+        int mask = (airOrOxygenObs != 0 && airOrOxygenObs != 2 ? AIR_OR_OXYGEN_BIT : 0)
+                | (consciousnessObs > 3 || consciousnessObs < 0 ? CONSCIOUSNESS_BIT : 0)
+                | (respirationRange < 0 ? RESPIRATION_RANGE_BIT : 0)
+                | (spo2 < 0 || spo2 > 100 ? SPO2_BIT : 0)
+                | (temperatureTenths < MIN_TEMPERATURE_TENTHS || temperatureTenths > MAX_TEMPERATURE_TENTHS ? TEMPERATURE_BIT : 0)
+                | (cbgTenths < 0 ? CBG_BIT : 0);
+        return count(mask);
+    }
+
+    // The message for the first failed field, the same one Patient throws, or null for a valid mask
+    public static String message(int mask) {
+        return mask == 0 ? null : "Invalid " + ObservationField.first(mask).parameter() + " value.";
+    }
+
+    // Throws the IllegalArgumentException Patient has always thrown if any field failed
+    public static void requireValid(int mask) {
+        if (mask != 0) {
+            throw new IllegalArgumentException(message(mask));
+        }
+    }
+
+    // Counts each failed field in Metrics and returns the mask
+    private static int count(int mask) {
+        for (int bits = mask; bits != 0; bits &= bits - 1) {
+            Metrics.validationFailed(ObservationField.first(bits));
+        }
+        return mask;
+    }
+}
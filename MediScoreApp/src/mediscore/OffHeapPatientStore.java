@@ -0,0 +1,343 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: OffHeapPatientStore.java
+ * Author: Christopher Fairhurst
+ * Description: Patient state for very large populations held in fixed-size off-heap slots.
+ * ------------------------------------------------------------------------------
+ * Key Features:
+ * Every patient is one 48-byte slot in a direct ByteBuffer holding the packed readings,
+ * the packed scores, the timestamp and the previous score and timestamp, so the heap
+ * holds no object per patient and its size stays flat as the population grows.
+ * The index from patient id to slot is an open-addressed hash table, also off-heap.
+ * record scores the observation and works out the same alert as Patient.scoreAlert,
+ * comparing against the previous score read straight from the slot.
+ * Slots are added in chunks as patients arrive and freed slots are reused.
+ * Thread-safe: lookups share a read lock and each slot is written under one of a fixed
+ * set of stripe locks, so writers for different patients rarely wait for each other.
+ * ------------------------------------------------------------------------------
+ * Unlike PatientRegistry this keeps no 24-hour score history, an alert is raised only
+ * when the score has risen by more than 2 since the previous observation, as Patient does.
+ * ------------------------------------------------------------------------------
+ * Slot layout (native byte order):
+ * offset 0   long  patient id
+ * offset 8   long  packed readings, see Observation, or the next free slot when unused
+ * offset 16  long  timestamp in epoch milliseconds
+ * offset 24  long  previous timestamp
+ * offset 32  int   packed scores, see MediScore
+ * offset 36  int   previous final score, or PatientState.NO_PREVIOUS_SCORE
+ * offset 40  int   alert ordinal
+ * offset 44  int   1 when the slot is in use
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public final class OffHeapPatientStore {
+    public static final int SLOT_BYTES = 48;
+
+    private static final int ID = 0;
+    private static final int VITALS = 8;
+    private static final int TIMESTAMP = 16;
+    private static final int PREVIOUS_TIMESTAMP = 24;
+    private static final int PACKED_SCORES = 32;
+    private static final int PREVIOUS_FINAL_SCORE = 36;
+    private static final int ALERT = 40;
+    private static final int IN_USE = 44;
+
+    // 65,536 slots, 3 MB, per chunk
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SLOTS = 1 << CHUNK_BITS;
+    private static final int STRIPES = 64;
+    private static final int NO_SLOT = -1;
+    private static final ScoreAlert[] ALERTS = ScoreAlert.values();
+
+    private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+    private final Object[] stripes = new Object[STRIPES];
+    private final Index index;
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    private int allocated;
+    private int freeSlot = NO_SLOT;
+    private int size;
+
+    public OffHeapPatientStore() {
+        this(CHUNK_SLOTS);
+    }
+
+    // Sizes the index for the expected number of patients, the store still grows beyond it
+    public OffHeapPatientStore(int expectedPatients) {
+        if (expectedPatients < 1) {
+            throw new IllegalArgumentException("Invalid expectedPatients value.");
+        }
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+        this.index = new Index(expectedPatients);
+    }
+
+    // Scores the observation, makes it the patient's current state and returns the alert for it
+    public ScoreAlert record(long patientId, Observation observation) {
+        int packedScores = observation.score();
+        int finalScore = MediScore.finalScoreOf(packedScores);
+        while (true) {
+            int slot = slotFor(patientId);
+            synchronized (stripes[slot & (STRIPES - 1)]) {
+                ByteBuffer chunk = chunks[slot >>> CHUNK_BITS];
+                int base = (slot & (CHUNK_SLOTS - 1)) * SLOT_BYTES;
+                // The patient may have been removed, and the slot reused, since it was looked up
+                if (chunk.getInt(base + IN_USE) == 0 || chunk.getLong(base + ID) != patientId) {
+                    continue;
+                }
+                int previousPackedScores = chunk.getInt(base + PACKED_SCORES);
+                int previousFinalScore = previousPackedScores == ScoreTable.NOT_SCORED
+                        ? PatientState.NO_PREVIOUS_SCORE : MediScore.finalScoreOf(previousPackedScores);
+                long previousTimestamp = chunk.getLong(base + TIMESTAMP);
+                ScoreAlert alert = ScoreAlert.evaluate(previousFinalScore, previousTimestamp, finalScore, observation.timestamp());
+                chunk.putLong(base + VITALS, observation.vitals());
+                chunk.putLong(base + TIMESTAMP, observation.timestamp());
+                chunk.putLong(base + PREVIOUS_TIMESTAMP, previousTimestamp);
+                chunk.putInt(base + PACKED_SCORES, packedScores);
+                chunk.putInt(base + PREVIOUS_FINAL_SCORE, previousFinalScore);
+                chunk.putInt(base + ALERT, alert.ordinal());
+                Metrics.alert(alert);
+                return alert;
+            }
+        }
+    }
+
+    // The latest state of the patient, or null if nothing has been recorded
+    // Only the latest score is held, so the window statistics are that score alone
+    public PatientState get(long patientId) {
+        int slot = find(patientId);
+        if (slot == NO_SLOT) {
+            return null;
+        }
+        synchronized (stripes[slot & (STRIPES - 1)]) {
+            ByteBuffer chunk = chunks[slot >>> CHUNK_BITS];
+            int base = (slot & (CHUNK_SLOTS - 1)) * SLOT_BYTES;
+            int packedScores = chunk.getInt(base + PACKED_SCORES);
+            if (chunk.getInt(base + IN_USE) == 0 || chunk.getLong(base + ID) != patientId || packedScores == ScoreTable.NOT_SCORED) {
+                return null;
+            }
+            int finalScore = MediScore.finalScoreOf(packedScores);
+            return new PatientState(patientId, Observation.unpack(chunk.getLong(base + VITALS), chunk.getLong(base + TIMESTAMP)),
+                    packedScores, chunk.getInt(base + PREVIOUS_FINAL_SCORE), chunk.getLong(base + PREVIOUS_TIMESTAMP),
+                    ALERTS[chunk.getInt(base + ALERT)], finalScore, finalScore, finalScore);
+        }
+    }
+
+    // The alert from the patient's latest observation, or null if nothing has been recorded
+    public ScoreAlert alert(long patientId) {
+        int slot = find(patientId);
+        if (slot == NO_SLOT) {
+            return null;
+        }
+        synchronized (stripes[slot & (STRIPES - 1)]) {
+            ByteBuffer chunk = chunks[slot >>> CHUNK_BITS];
+            int base = (slot & (CHUNK_SLOTS - 1)) * SLOT_BYTES;
+            if (chunk.getInt(base + IN_USE) == 0 || chunk.getLong(base + ID) != patientId
+                    || chunk.getInt(base + PACKED_SCORES) == ScoreTable.NOT_SCORED) {
+                return null;
+            }
+            return ALERTS[chunk.getInt(base + ALERT)];
+        }
+    }
+
+    // Removes the patient and frees their slot, returns false if they were not stored
+    public boolean remove(long patientId) {
+        indexLock.writeLock().lock();
+        try {
+            int slot = index.remove(patientId);
+            if (slot == NO_SLOT) {
+                return false;
+            }
+            synchronized (stripes[slot & (STRIPES - 1)]) {
+                ByteBuffer chunk = chunks[slot >>> CHUNK_BITS];
+                int base = (slot & (CHUNK_SLOTS - 1)) * SLOT_BYTES;
+                chunk.putInt(base + IN_USE, 0);
+                chunk.putLong(base + VITALS, freeSlot);
+            }
+            freeSlot = slot;
+            size--;
+            return true;
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        indexLock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    // Direct memory held by the slots and the index
+    public long offHeapBytes() {
+        indexLock.readLock().lock();
+        try {
+            return (long) chunks.length * CHUNK_SLOTS * SLOT_BYTES + index.bytes();
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    private int find(long patientId) {
+        indexLock.readLock().lock();
+        try {
+            return index.get(patientId);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    // Finds the patient's slot, giving them a new one the first time they are seen
+    private int slotFor(long patientId) {
+        int slot = find(patientId);
+        if (slot != NO_SLOT) {
+            return slot;
+        }
+        indexLock.writeLock().lock();
+        try {
+            slot = index.get(patientId);
+            if (slot != NO_SLOT) {
+                return slot;
+            }
+            slot = allocate();
+            synchronized (stripes[slot & (STRIPES - 1)]) {
+                ByteBuffer chunk = chunks[slot >>> CHUNK_BITS];
+                int base = (slot & (CHUNK_SLOTS - 1)) * SLOT_BYTES;
+                chunk.putLong(base + ID, patientId);
+                chunk.putLong(base + TIMESTAMP, 0);
+                chunk.putInt(base + PACKED_SCORES, ScoreTable.NOT_SCORED);
+                chunk.putInt(base + IN_USE, 1);
+            }
+            index.put(patientId, slot);
+            size++;
+            return slot;
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    // Takes a freed slot if there is one, otherwise the next unused slot, adding a chunk when needed
+    // Called with the index write lock held
+    private int allocate() {
+        if (freeSlot != NO_SLOT) {
+            int slot = freeSlot;
+            freeSlot = (int) chunks[slot >>> CHUNK_BITS].getLong((slot & (CHUNK_SLOTS - 1)) * SLOT_BYTES + VITALS);
+            return slot;
+        }
+        if (allocated == chunks.length * CHUNK_SLOTS) {
+            ByteBuffer[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+            grown[chunks.length] = ByteBuffer.allocateDirect(CHUNK_SLOTS * SLOT_BYTES).order(ByteOrder.nativeOrder());
+            chunks = grown;
+        }
+        return allocated++;
+    }
+
+    // Open-addressed hash table from patient id to slot in a direct buffer, with linear probing
+    // Entries are 16 bytes, the id then the slot plus one, so 0 marks an empty entry
+    // Not thread-safe, the store guards it with its index lock
+    private static final class Index {
+        private static final int ENTRY_BYTES = 16;
+
+        private ByteBuffer table;
+        private int mask;
+        private int count;
+
+        Index(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+            allocate(capacity);
+        }
+
+        private void allocate(int capacity) {
+            table = ByteBuffer.allocateDirect(capacity * ENTRY_BYTES).order(ByteOrder.nativeOrder());
+            mask = capacity - 1;
+        }
+
+        long bytes() {
+            return table.capacity();
+        }
+
+        int get(long key) {
+            for (int i = home(key); ; i = (i + 1) & mask) {
+                int value = table.getInt(i * ENTRY_BYTES + 8);
+                if (value == 0) {
+                    return NO_SLOT;
+                }
+                if (table.getLong(i * ENTRY_BYTES) == key) {
+                    return value - 1;
+                }
+            }
+        }
+
+        void put(long key, int slot) {
+            // Kept at most half full so probe sequences stay short
+            if (count + 1 > (mask + 1) >>> 1) {
+                resize();
+            }
+            int i = home(key);
+            while (table.getInt(i * ENTRY_BYTES + 8) != 0) {
+                i = (i + 1) & mask;
+            }
+            table.putLong(i * ENTRY_BYTES, key);
+            table.putInt(i * ENTRY_BYTES + 8, slot + 1);
+            count++;
+        }
+
+        // Removes the key and shifts later entries of the same probe run back, so no tombstones are needed
+        int remove(long key) {
+            int i = home(key);
+            while (true) {
+                int value = table.getInt(i * ENTRY_BYTES + 8);
+                if (value == 0) {
+                    return NO_SLOT;
+                }
+                if (table.getLong(i * ENTRY_BYTES) == key) {
+                    break;
+                }
+                i = (i + 1) & mask;
+            }
+            int slot = table.getInt(i * ENTRY_BYTES + 8) - 1;
+            int hole = i;
+            for (int j = (i + 1) & mask; table.getInt(j * ENTRY_BYTES + 8) != 0; j = (j + 1) & mask) {
+                int home = home(table.getLong(j * ENTRY_BYTES));
+                // The entry at j can fill the hole if its home is not cyclically between the hole and j
+                if (((j - home) & mask) >= ((j - hole) & mask)) {
+                    table.putLong(hole * ENTRY_BYTES, table.getLong(j * ENTRY_BYTES));
+                    table.putInt(hole * ENTRY_BYTES + 8, table.getInt(j * ENTRY_BYTES + 8));
+                    hole = j;
+                }
+            }
+            table.putInt(hole * ENTRY_BYTES + 8, 0);
+            count--;
+            return slot;
+        }
+
+        private void resize() {
+            ByteBuffer old = table;
+            int oldCapacity = mask + 1;
+            allocate(oldCapacity * 2);
+            count = 0;
+            for (int i = 0; i < oldCapacity; i++) {
+                int value = old.getInt(i * ENTRY_BYTES + 8);
+                if (value != 0) {
+                    put(old.getLong(i * ENTRY_BYTES), value - 1);
+                }
+            }
+        }
+
+        private int home(long key) {
+            key = (key ^ (key >>> 30)) * 0xbf58476d1ce4e5b9L;
+            key = (key ^ (key >>> 27)) * 0x94d049bb133111ebL;
+            return (int) (key ^ (key >>> 31)) & mask;
+        }
+    }
+}
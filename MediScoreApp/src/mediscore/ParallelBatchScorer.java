@@ -0,0 +1,85 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: ParallelBatchScorer.java
+ * Author: Christopher Fairhurst
+ * Description: Splits a large observation block across a ForkJoinPool.
+ * ------------------------------------------------------------------------------
+ * Key Features:
+ * Each task scores a contiguous range of rows with BatchScorer, so the band logic
+ * is exactly the same as the sequential path.
+ * Tasks only ever write their own rows of the ScoreBlock, so the final scores and alert
+ * flags come out in the original input order and are identical to sequential scoring
+ * however the work is split or scheduled.
+ * ------------------------------------------------------------------------------
+ * Usage:
+ * ParallelBatchScorer.score(in, out, previousFinalScores, ForkJoinPool.commonPool());
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public final class ParallelBatchScorer {
+    // Ranges at or below this size are scored on the current thread
+    // Large enough to keep task overhead well below the cost of scoring the rows
+    static final int SEQUENTIAL_THRESHOLD = 1 << 14;
+
+    private ParallelBatchScorer() {
+    }
+
+    // Scores every row of the block using the common pool
+    public static void score(ObservationBlock in, ScoreBlock out) {
+        score(in, out, null, ForkJoinPool.commonPool());
+    }
+
+    // Scores every row of the block on the given pool
+    // previousFinalScore may be null, otherwise it holds each row's previous final score
+    // (negative for none) and the alert column of the output is filled in as well
+    public static void score(ObservationBlock in, ScoreBlock out, byte[] previousFinalScore, ForkJoinPool pool) {
+        if (out.size() < in.size()) {
+            throw new IllegalArgumentException("Score block is smaller than the observation block.");
+        }
+        if (previousFinalScore != null && previousFinalScore.length < in.size()) {
+            throw new IllegalArgumentException("Previous score column is smaller than the observation block.");
+        }
+        // Every range is scored with the same bands even if new ones are installed meanwhile
+        pool.invoke(new ScoreTask(ScoringBands.current(), in, out, previousFinalScore, 0, in.size()));
+    }
+
+    // Recursively halves the range until it is small enough to score directly
+    // Tasks are never serialized, they only live for one invoke
+    @SuppressWarnings("serial")
+    private static final class ScoreTask extends RecursiveAction {
+        private final ScoringBands bands;
+        private final ObservationBlock in;
+        private final ScoreBlock out;
+        private final byte[] previousFinalScore;
+        private final int from;
+        private final int to;
+
+        ScoreTask(ScoringBands bands, ObservationBlock in, ScoreBlock out, byte[] previousFinalScore, int from, int to) {
+            this.bands = bands;
+            this.in = in;
+            this.out = out;
+            this.previousFinalScore = previousFinalScore;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                BatchScorer.score(bands, in, out, from, to);
+                if (previousFinalScore != null) {
+                    BatchScorer.flagAlerts(out, previousFinalScore, from, to);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ScoreTask(bands, in, out, previousFinalScore, from, middle),
+                        new ScoreTask(bands, in, out, previousFinalScore, middle, to));
+            }
+        }
+    }
+}
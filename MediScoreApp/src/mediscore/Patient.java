@@ -0,0 +1,345 @@
+/*
+ * ------------------------------------------------------------------------------
+ *File: Patient.java
+ * Author: Christopher Fairhurst
+ * Date: 21st February 2024
+ * Description: This class represents a patient undergoing medical assessment and facilitates
+ * the calculation of their MediScore based on various vital signs.
+ * ------------------------------------------------------------------------------
+ * Key Features:
+ * Stores patient attributes like respiration, oxygen saturation, and consciousness level.
+ * Calculates a MediScore based on individual scores for each attribute.
+ * Provides comments to explain the individual scores and overall MediScore.
+ * Tracks changes in MediScore over time and alerts for significant increases.
+ * Utilises enums (AirOrOxygen and Consciousness) to represent observation values with assigned scores.
+ * Hands tables and messages to a ResultSink, by default AsyncResultSink.console(), so scoring
+ * never waits on the console.
+ * ------------------------------------------------------------------------------
+ * Functionality:
+ * Update patient information with new vital signs.
+ * Calculate the MediScore based on current observations.
+ * Compare current MediScore to previous one and alert for significant changes.
+ * Generate comments to explain individual scores and MediScore interpretation.
+ * ------------------------------------------------------------------------------
+ * Usage:
+ * Create a Patient object with initial vital signs and fasting status.
+ * Update patient information using the updatePatient method to insert new vital sign readings.
+ * Call the calculateMediScore method to calculate the MediScore.
+ * Check for increases in Mediscore using the scoreAlert method.
+ * Access the individual scores and comments through respective methods.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+
+public class Patient {
+    // Enumeration for AirOrOxygen with integer values assigned to them
+    // Assigned values give the mediscore the individual scores for this
+    // Section of the assessment
+    public enum AirOrOxygen {
+        AIR(0), OXYGEN(2);
+        private final int respValue;
+
+        AirOrOxygen(int respValue) {
+            this.respValue = respValue;
+        }
+
+        public int getRespValue() {
+            return this.respValue;
+        }
+    }
+
+    //Enumeration for Consciousness with integer values assigned to them
+    // Assigned values give the mediscore the individual scores for this
+    // Section of the assessment
+    public enum Consciousness {
+        ALERT(0), CVPU(3);
+        private final int consciousValue;
+
+        Consciousness(int consciousValue) {
+            this.consciousValue = consciousValue;
+        }
+
+        public int getConsciousValue() {
+            return this.consciousValue;
+        }
+    }
+
+    // Attributes of the Patient class
+    private String name;
+    private Integer respirationRange;
+    private Integer spo2;
+    // Temperature and CBG are held in tenths, see Tenths
+    private int temperatureTenths;
+    private int airOrOxygenObs;
+    private int consciousnessObs;
+    private int cbgTenths;
+    private boolean isFasting;
+    private Timestamp timestamp;
+    private Timestamp previousTimestamp;
+    private int packedScores;
+    private ResultSink resultSink = AsyncResultSink.console();
+    Map<String, Integer> individualScores = new HashMap<>();
+    Map<String, Integer> previousMediScores = new HashMap<>();
+
+    // A rendered table is a little under 1500 characters
+    private static final int TABLE_CAPACITY = 1536;
+
+    // Constructor for the Patient class
+    // Creates an object of patient with the required statistics to assess the patients mediscore
+    // Rounds the float values to one decimal place as requested
+    // Also gives an enum(integer) value from int input for the observation value
+    public Patient(String name, int airOrOxygenObs, int consciousnessObs, Integer respirationRange, Integer spo2, float temperature, float CBG, boolean isFasting) {
+        validateData(name, airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperature, CBG);
+        this.name = name;
+        this.airOrOxygenObs = airOrOxygenObs;
+        this.consciousnessObs = consciousnessObs;
+        this.respirationRange = respirationRange;
+        this.spo2 = spo2;
+        this.temperatureTenths = Tenths.of(temperature); // Rounding the temperature to 1 decimal place
+        this.cbgTenths = Tenths.of(CBG);
+        this.isFasting = isFasting;
+        this.timestamp = new Timestamp(System.currentTimeMillis());
+    }
+
+    // This is a private method to validate the data input for the patient Constructor and ensure it is within the correct range
+    // Every field is checked without throwing, then the first failure is thrown, see ObservationValidator
+    private void validateData(String name, int airOrOxygenObs, int consciousnessObs, Integer respirationRange, Integer spo2, float temperature, float CBG) {
+        ObservationValidator.requireValid(ObservationValidator.invalidFields(name, airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperature, CBG));
+    }
+
+    // This is an update patient details method that allows the user to update the patient's details
+    // The new details are validated before any field is changed, so a rejected update leaves the patient as it was
+    // It is synchronized with calculateMediScore so a calculation never sees half of an update
+    // For many patients fed from many threads use PatientRegistry instead
+    public synchronized void updatePatient(int airOrOxygenObs, int consciousnessObs, Integer respirationRange, Integer spo2, float temperature, float CBG, boolean isFasting) {
+        validateUpdateData(airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperature, CBG);
+        this.airOrOxygenObs = airOrOxygenObs;
+        this.consciousnessObs = consciousnessObs;
+        this.respirationRange = respirationRange;
+        this.spo2 = spo2;
+        this.temperatureTenths = Tenths.of(temperature); // Rounding the temperature to 1 decimal place
+        this.cbgTenths = Tenths.of(CBG);
+        this.isFasting = isFasting;
+        this.timestamp = new Timestamp(System.currentTimeMillis());
+    }
+
+    // This is a method to validate the data input for the patient and updatePatient method and ensure it is within the correct range
+    // It is package-private and static so that Observation can apply the same rules
+    static void validateUpdateData(int airOrOxygenObs, int consciousnessObs, Integer respirationRange, Integer spo2, float temperature, float CBG) {
+        ObservationValidator.requireValid(ObservationValidator.invalidFields(airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperature, CBG));
+    }
+
+    // getters
+    public String getName() {
+        return name;
+    }
+
+    public Timestamp getTimestamp() {
+        return timestamp;
+    }
+
+    public Timestamp getPreviousTimestamp() {
+        return previousTimestamp;
+    }
+
+    public ResultSink getResultSink() {
+        return resultSink;
+    }
+
+    // Sends this patient's tables and messages to the given sink instead of the console
+    public void setResultSink(ResultSink resultSink) {
+        if (resultSink == null) {
+            throw new IllegalArgumentException("Invalid resultSink value.");
+        }
+        this.resultSink = resultSink;
+    }
+
+    // Method to calculate the MediScore for the patient.
+    // The scoring itself is done by the stateless MediScore kernel which returns every
+    // individual score and the final score packed into one int, or taken from the ScoreCache if one is installed.
+    // The scores are then copied into the individual scores map, overwriting the entries
+    // from the last calculation so no new map entries are created.
+    // It then prints the mediscore table checks for a raise in score and then adds the details to
+    // The previous scores map for future comparison.
+    // Everything printed goes to the result sink, which does the writing on its own thread.
+    public synchronized void calculateMediScore(Patient patient) {
+        try {
+            ScoreCache cache = ScoreCache.installed();
+            int packed = cache != null
+                    ? cache.get(patient.airOrOxygenObs, patient.consciousnessObs, patient.respirationRange, patient.spo2,
+                            patient.temperatureTenths, patient.cbgTenths, patient.isFasting).packedScores()
+                    : MediScore.scoreTenths(patient.airOrOxygenObs, patient.consciousnessObs, patient.respirationRange,
+                            patient.spo2, patient.temperatureTenths, patient.cbgTenths, patient.isFasting);
+            packedScores = packed;
+
+            individualScores.put("Air or Oxygen Score", MediScore.airOrOxygenScoreOf(packed));
+            individualScores.put("Consciousness Score", MediScore.consciousnessScoreOf(packed));
+            individualScores.put("Respiration Range Score", MediScore.respirationScoreOf(packed));
+            individualScores.put("SpO2 Score", MediScore.spo2ScoreOf(packed));
+            individualScores.put("Temperature Score", MediScore.temperatureScoreOf(packed));
+            individualScores.put("CBG Score", MediScore.cbgScoreOf(packed));
+            individualScores.put("Final Score", MediScore.finalScoreOf(packed));
+
+            // Print the Mediscore table and handle potential errors
+            try {
+                printTable(patient);
+            } catch (Exception e) {
+                resultSink.message(patient.getName(), "Error printing Mediscore table: " + e.getMessage());
+            }
+
+            // Check for score alert and handle potential errors
+            try {
+                scoreAlert(patient);
+            } catch (Exception e) {
+                resultSink.message(patient.getName(), "Error checking for score alert: " + e.getMessage());
+            }
+
+            // Add previous MediScore, handling potential null references
+            try {
+                addPreviousMediScore(patient);
+            } catch (Exception e) {
+                resultSink.message(patient.getName(), "Error adding previous Mediscore: " + e.getMessage());
+            }
+        } catch (NumberFormatException e) {
+            resultSink.message(patient.getName(), "Error during calculation: " + e.getMessage());
+        } catch (NullPointerException e) {
+            resultSink.message(patient.getName(), "Error due to missing data: " + e.getMessage());
+        } catch (Exception e) {
+            resultSink.message(patient.getName(), "Unexpected error: " + e.getMessage());
+        }
+    }
+
+    // Returns the packed result of the last calculation, see MediScore for the layout
+    public int getPackedScores() {
+        return packedScores;
+    }
+
+    // Method to print mediscore table for the patient which is called from calculate mediscore method
+    // The patient's readings and scores are handed to the result sink, which renders them in its own format
+    public void printTable(Patient patient) {
+        resultSink.scored(patient.name, patient.airOrOxygenObs, patient.consciousnessObs, patient.respirationRange, patient.spo2,
+                patient.temperatureTenths, patient.cbgTenths, patient.isFasting, patient.timestamp.getTime(), patient.tableScores());
+    }
+
+    // This method clears the hashmap to ensure the mediscore method had a clear map to input scores into
+    public void clearMap(Map<String, Integer> map) {
+        map.clear();
+    }
+
+    // This method first checks the previous scores hash map to check if the patient has a previous score
+    // It then subtracts the previous score from the current score and checks to see if it has raised by more than 2 points
+    // Within a 24-hour period of the previous score being taken
+    // It then outputs the corresponding message to the result sink
+    public void scoreAlert(Patient patient) {
+        if (previousMediScores.isEmpty()) {
+            Metrics.alert(ScoreAlert.NO_PREVIOUS_SCORE);
+            resultSink.message(patient.getName(), patient.getName() + " Has no previous score to compare with.");
+        } else {
+            Timestamp previousTimestamp = patient.getPreviousTimestamp();
+            Timestamp currentTimestamp = patient.getTimestamp();
+
+            if (previousTimestamp == null) {
+                resultSink.message(patient.getName(), patient.getName() + " Has no previous timestamp to compare with.");
+            } else {
+                try {
+                    long millisecondsInADay = 24 * 60 * 60 * 1000;
+                    long timeDifference = currentTimestamp.getTime() - previousTimestamp.getTime();
+                    boolean within24Hours = timeDifference <= millisecondsInADay;
+
+                    if (within24Hours) {
+                        int previousScore = patient.previousMediScores.get("Final Score");
+                        int newScore = patient.individualScores.get("Final Score");
+                        int scoreDifference = newScore - previousScore;
+
+                        if (scoreDifference > 2) {
+                            Metrics.alert(ScoreAlert.RAISED);
+                            resultSink.message(patient.getName(), "ALERT!!!! " + patient.getName() + " MediScore has changed by more than 2 points in the last 24 hours.");
+                        } else {
+                            Metrics.alert(ScoreAlert.NOT_RAISED);
+                            resultSink.message(patient.getName(), patient.getName() + " MediScore has not changed by more than 2 points in the last 24 hours.");
+                        }
+                    } else {
+                        Metrics.alert(ScoreAlert.PREVIOUS_SCORE_STALE);
+                        resultSink.message(patient.getName(), "Previous Mediscore was taken more than 24 hours ago.");
+                    }
+                } catch (NullPointerException e) {
+                    resultSink.message(patient.getName(), "Error: Unable to compare scores due to missing timestamps.");
+                } catch (ArithmeticException e) {
+                    resultSink.message(patient.getName(), "Error: An unexpected error occurred during timestamp comparison.");
+                }
+            }
+        }
+    }
+
+    // Method to add the previous MediScore for the patient
+    // Stores previous Mediscore in a HashMap so that it can be used
+    // when the score alert method is called and the current and previous
+    // scores can be compared
+    public void addPreviousMediScore(Patient patient) {
+        int finalScore;
+        name = patient.getName();
+        finalScore = patient.individualScores.get("Final Score");
+        previousMediScores.put("Final Score", finalScore);
+        previousTimestamp = patient.getTimestamp();
+    }
+
+    // The following methods are used to generate comments for the patient's attributes
+    // These methods are called when the table is rendered for the toString method of the Patient class
+    // Comments are then inserted into the table to give a more detailed explanation of the patient's score
+    // The comments are generated based on the patient's observation values
+    // Every possible comment is precomputed in the Comments class, so these are only lookups
+
+    // The following method generates a comment for the Air or Oxygen attribute
+    public String AirOrOxygenComment() {
+        return Comments.airOrOxygen(airOrOxygenObs);
+    }
+
+    // The following method generates a comment for the Consciousness attribute
+    public String ConsciousnessComment() {
+        return Comments.consciousness(consciousnessObs);
+    }
+
+    // The following method generates a comment for the SpO2 attribute
+    public String Spo2Comment(Patient patient) {
+        return Comments.spo2(patient.airOrOxygenObs, patient.spo2);
+    }
+
+    // The following method generates a comment for the SpO2 attribute when the patient is breathing air
+    public String Spo2CommentForAir() {
+        return Comments.spo2ForAir(spo2);
+    }
+
+    // The following method generates a comment for the SpO2 attribute when the patient is breathing oxygen
+    public String Spo2CommentForOxygen() {
+        return Comments.spo2ForOxygen(spo2);
+    }
+
+    // The following method generates a comment for the CBG attribute giving different comments
+    // Depending on whether the patient is fasting or not
+    public String CBGComment() {
+        return Comments.cbgTenths(cbgTenths, isFasting);
+    }
+
+    // Appends the patient's table to the given StringBuilder, see ScoreTable
+    // The scores show as null until calculateMediScore has been called
+    public StringBuilder appendTable(StringBuilder out) {
+        return ScoreTable.append(out, name, airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperatureTenths, cbgTenths, isFasting, tableScores());
+    }
+
+    // The packed scores to show in a table, NOT_SCORED until calculateMediScore has been called
+    private int tableScores() {
+        return individualScores.isEmpty() ? ScoreTable.NOT_SCORED : packedScores;
+    }
+
+    // Override the toString method to display the patient's attributes and their scores with comments
+    // The method also displays the patients name and the final score for the patient
+    @Override
+    public String toString() {
+        return appendTable(new StringBuilder(TABLE_CAPACITY)).toString();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: PatientHandoff.java
+ * Author: Christopher Fairhurst
+ * Description: A patient's latest state and 24-hour score history, moving from one shard to another.
+ * ------------------------------------------------------------------------------
+ * The history is what 24-hour alerting depends on, so a patient moved without it
+ * would lose alerts until a day of new scores had built up again.
+ * write and read use a compact big-endian binary form for POST /shard/import.
+ * ------------------------------------------------------------------------------
+ * Layout:
+ * long  patient id
+ * long  packed readings, see Observation
+ * long  timestamp in epoch milliseconds
+ * int   packed scores, see MediScore
+ * int   previous final score
+ * long  previous timestamp
+ * byte  alert ordinal
+ * int   number of scores in the history, then for each, oldest first:
+ * long  timestamp
+ * byte  final score
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+public record PatientHandoff(PatientState state, long[] timestamps, byte[] scores) {
+    private static final ScoreAlert[] ALERTS = ScoreAlert.values();
+
+    public PatientHandoff {
+        if (timestamps.length != scores.length) {
+            throw new IllegalArgumentException("History timestamps and scores must have the same length.");
+        }
+    }
+
+    public long patientId() {
+        return state.patientId();
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(state.patientId());
+        out.writeLong(state.observation().vitals());
+        out.writeLong(state.observation().timestamp());
+        out.writeInt(state.packedScores());
+        out.writeInt(state.previousFinalScore());
+        out.writeLong(state.previousTimestamp());
+        out.writeByte(state.alert().ordinal());
+        out.writeInt(timestamps.length);
+        for (int i = 0; i < timestamps.length; i++) {
+            out.writeLong(timestamps[i]);
+            out.writeByte(scores[i]);
+        }
+    }
+
+    // Reads one handoff written by write
+    public static PatientHandoff read(DataInput in) throws IOException {
+        long patientId = in.readLong();
+        Observation observation = Observation.unpack(in.readLong(), in.readLong());
+        int packedScores = in.readInt();
+        int previousFinalScore = in.readInt();
+        long previousTimestamp = in.readLong();
+        int alert = in.readUnsignedByte();
+        int count = in.readInt();
+        if (alert >= ALERTS.length || count < 0 || count > Short.MAX_VALUE) {
+            throw new IOException("Corrupt handoff for patient " + patientId + ".");
+        }
+        long[] timestamps = new long[count];
+        byte[] scores = new byte[count];
+        for (int i = 0; i < count; i++) {
+            timestamps[i] = in.readLong();
+            scores[i] = in.readByte();
+        }
+        PatientState state = new PatientState(patientId, observation, packedScores, previousFinalScore, previousTimestamp,
+                ALERTS[alert], -1, -1, 0);
+        return new PatientHandoff(state, timestamps, scores);
+    }
+}
@@ -0,0 +1,12 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: PatientObservation.java
+ * Author: Christopher Fairhurst
+ * Description: An observation together with the id of the patient it belongs to.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+public record PatientObservation(long patientId, Observation observation) {
+}
@@ -0,0 +1,216 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: PatientRegistry.java
+ * Author: Christopher Fairhurst
+ * Description: Thread-safe registry of patients keyed by patient id.
+ * ------------------------------------------------------------------------------
+ * Key Features:
+ * Many feeder threads, for example one per bedside device, can record observations at once.
+ * Each patient has its own lock, so writers for different patients never wait for each other.
+ * Readers never lock, they read the latest immutable PatientState.
+ * Each patient keeps a bounded ScoreHistory, so alerts compare against every score
+ * in the last 24 hours at amortised O(1) cost per observation.
+ * ------------------------------------------------------------------------------
+ * Usage:
+ * PatientRegistry registry = new PatientRegistry();
+ * PatientState state = registry.record(patientId, Observation.of(...));
+ * if (state.alert() == ScoreAlert.RAISED) { ... }
+ * Pass a StateListener to record to keep anything else per patient, such as the
+ * ObservationLog or WardAggregates, in the same order as the registry.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.LongPredicate;
+
+public class PatientRegistry {
+    // Receives each new state while the patient's record is still locked
+    public interface StateListener {
+        void recorded(PatientState state) throws IOException;
+    }
+
+    private final ConcurrentHashMap<Long, PatientRecord> patients = new ConcurrentHashMap<>();
+    private final int historyCapacity;
+
+    public PatientRegistry() {
+        this(ScoreHistory.DEFAULT_CAPACITY);
+    }
+
+    // historyCapacity is the most scores kept per patient for the 24-hour window
+    public PatientRegistry(int historyCapacity) {
+        this.historyCapacity = historyCapacity;
+    }
+
+    // Scores the observation and makes it the patient's current state
+    // The previous state's score becomes the previous score of the new state
+    public PatientState record(long patientId, Observation observation) {
+        PatientRecord record = patients.computeIfAbsent(patientId, id -> new PatientRecord(id, historyCapacity));
+        return record.record(observation);
+    }
+
+    // As record, passing the new state to the listener before the patient's next observation can be recorded,
+    // so two threads recording the same patient reach the listener in the order the registry applied them
+    // The state stays recorded if the listener throws
+    public PatientState record(long patientId, Observation observation, StateListener listener) throws IOException {
+        PatientRecord record = patients.computeIfAbsent(patientId, id -> new PatientRecord(id, historyCapacity));
+        return record.record(observation, listener);
+    }
+
+    // Installs a patient rebuilt from an ObservationLog with the history their state was worked out from,
+    // replacing anything held for them
+    // Used when replaying the log at startup, which builds each patient's history and state once
+    void restore(PatientState state, ScoreHistory history) {
+        patients.put(state.patientId(), new PatientRecord(state, history));
+    }
+
+    // The most scores kept per patient, for building a history to restore
+    int historyCapacity() {
+        return historyCapacity;
+    }
+
+    // Returns the latest state for the patient, or null if nothing has been recorded
+    public PatientState get(long patientId) {
+        PatientRecord record = patients.get(patientId);
+        return record == null ? null : record.state;
+    }
+
+    // Removes the patient and returns their last state, or null if they were not registered
+    public PatientState remove(long patientId) {
+        PatientRecord record = patients.remove(patientId);
+        return record == null ? null : record.state;
+    }
+
+    // Visits the latest state of every patient, patients being written to may be seen before or after the write
+    public void forEach(Consumer<PatientState> action) {
+        for (PatientRecord record : patients.values()) {
+            PatientState state = record.state;
+            if (state != null) {
+                action.accept(state);
+            }
+        }
+    }
+
+    public int size() {
+        return patients.size();
+    }
+
+    // Copies the state and score history of every patient the predicate selects, for handing them to another shard
+    // The patients stay registered until they are removed, so nothing is lost if the handoff fails
+    public List<PatientHandoff> export(LongPredicate selected) {
+        List<PatientHandoff> handoffs = new ArrayList<>();
+        for (PatientRecord record : patients.values()) {
+            if (selected.test(record.patientId)) {
+                PatientHandoff handoff = record.export();
+                if (handoff != null) {
+                    handoffs.add(handoff);
+                }
+            }
+        }
+        return handoffs;
+    }
+
+    // Takes over a patient handed off by another shard, merging it with anything already held for them
+    // An observation recorded here before the handoff arrived is kept, see PatientRecord.adopt
+    // An existing record is merged under its monitor rather than swapped out, so an observation being
+    // recorded at the same time lands wholly before or after the handoff and is never lost on a stale record
+    public PatientState adopt(PatientHandoff handoff) {
+        PatientState[] adopted = new PatientState[1];
+        patients.compute(handoff.patientId(), (id, existing) -> {
+            PatientRecord record = existing != null ? existing : new PatientRecord(id, historyCapacity);
+            adopted[0] = record.adopt(handoff);
+            return record;
+        });
+        return adopted[0];
+    }
+
+    // Holds the state for one patient
+    // Writers for the same patient are serialised on the record's monitor,
+    // the state itself is immutable and published through a volatile field
+    static final class PatientRecord {
+        private final long patientId;
+        // Only replaced by adopt, under the record's monitor
+        private ScoreHistory history;
+        private volatile PatientState state;
+
+        PatientRecord(long patientId, int historyCapacity) {
+            this.patientId = patientId;
+            this.history = new ScoreHistory(historyCapacity);
+        }
+
+        PatientRecord(PatientState state, ScoreHistory history) {
+            this.patientId = state.patientId();
+            this.history = history;
+            this.state = state;
+        }
+
+        // Only newly scored observations count towards the alert metrics, replayed ones were counted when first recorded
+        PatientState record(Observation observation) {
+            PatientState next = apply(observation, observation.score());
+            Metrics.alert(next.alert());
+            return next;
+        }
+
+        PatientState record(Observation observation, StateListener listener) throws IOException {
+            int packedScores = observation.score();
+            PatientState next;
+            synchronized (this) {
+                next = apply(observation, packedScores);
+                Metrics.alert(next.alert());
+                listener.recorded(next);
+            }
+            return next;
+        }
+
+        synchronized PatientState apply(Observation observation, int packedScores) {
+            PatientState previous = state;
+            int previousFinalScore = previous == null ? PatientState.NO_PREVIOUS_SCORE : previous.finalScore();
+            long previousTimestamp = previous == null ? 0 : previous.timestamp();
+            ScoreAlert alert = history.add(observation.timestamp(), MediScore.finalScoreOf(packedScores));
+            PatientState next = new PatientState(patientId, observation, packedScores, previousFinalScore, previousTimestamp,
+                    alert, history.min(), history.max(), history.mean());
+            state = next;
+            return next;
+        }
+
+        synchronized PatientHandoff export() {
+            return state == null ? null : new PatientHandoff(state, history.timestamps(), history.scores());
+        }
+
+        // Rebuilds the history from the handed off scores merged in timestamp order with any held here,
+        // and keeps whichever latest state is later, so a handoff never erases a newer observation
+        // A score held on both sides, as when an import is retried, is kept once
+        synchronized PatientState adopt(PatientHandoff handoff) {
+            long[] heldTimestamps = history.timestamps();
+            byte[] heldScores = history.scores();
+            long[] handedTimestamps = handoff.timestamps();
+            byte[] handedScores = handoff.scores();
+            history = new ScoreHistory(history.capacity());
+            int held = 0;
+            int handed = 0;
+            while (held < heldTimestamps.length || handed < handedTimestamps.length) {
+                if (handed == handedTimestamps.length
+                        || held < heldTimestamps.length && heldTimestamps[held] <= handedTimestamps[handed]) {
+                    if (handed < handedTimestamps.length && heldTimestamps[held] == handedTimestamps[handed]
+                            && heldScores[held] == handedScores[handed]) {
+                        handed++;
+                    }
+                    history.add(heldTimestamps[held], heldScores[held]);
+                    held++;
+                } else {
+                    history.add(handedTimestamps[handed], handedScores[handed]);
+                    handed++;
+                }
+            }
+            PatientState latest = state != null && state.timestamp() > handoff.state().timestamp() ? state : handoff.state();
+            state = new PatientState(patientId, latest.observation(), latest.packedScores(), latest.previousFinalScore(),
+                    latest.previousTimestamp(), latest.alert(), history.min(), history.max(), history.mean());
+            return state;
+        }
+    }
+}
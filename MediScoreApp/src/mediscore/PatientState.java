@@ -0,0 +1,30 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: PatientState.java
+ * Author: Christopher Fairhurst
+ * Description: Immutable snapshot of a patient's latest observation, its score and alert.
+ * ------------------------------------------------------------------------------
+ * The alert and the 24-hour window statistics are worked out while the patient's
+ * lock is held and published together with the score in one object, so a reader
+ * on another thread always sees them consistent with each other.
+ * windowMin, windowMax and windowMean cover the last 24 hours including this score.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+public record PatientState(long patientId, Observation observation, int packedScores,
+                           int previousFinalScore, long previousTimestamp, ScoreAlert alert,
+                           int windowMin, int windowMax, float windowMean) {
+
+    // Marker for a patient that has no previous score
+    public static final int NO_PREVIOUS_SCORE = -1;
+
+    public int finalScore() {
+        return MediScore.finalScoreOf(packedScores);
+    }
+
+    public long timestamp() {
+        return observation.timestamp();
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: ResultFormat.java
+ * Author: Christopher Fairhurst
+ * Description: The output formats a ResultSink can write.
+ * ------------------------------------------------------------------------------
+ * TABLE is the human readable table and messages the console has always shown.
+ * CSV and JSON write one line per record for other programs to read:
+ * CSV   result,name,timestamp,airOrOxygen,consciousness,respirationRange,spo2,temperature,CBG,fasting,
+ *       airOrOxygenScore,consciousnessScore,respirationRangeScore,spo2Score,temperatureScore,CBGScore,finalScore
+ *       message,name,message
+ * JSON  one object per line, with the same field names as the scoring service
+ * Scores are empty in CSV and null in JSON when the patient has not been scored yet.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+public enum ResultFormat {
+    TABLE {
+        @Override
+        public StringBuilder appendResult(StringBuilder out, String name, int airOrOxygenObs, int consciousnessObs, int respirationRange,
+                                          int spo2, int temperatureTenths, int cbgTenths, boolean isFasting, long timestamp, int packedScores) {
+            return ScoreTable.append(out, name, airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperatureTenths, cbgTenths, isFasting, packedScores)
+                    .append('\n');
+        }
+
+        @Override
+        public StringBuilder appendMessage(StringBuilder out, String name, String message) {
+            return out.append(message).append('\n');
+        }
+    },
+    CSV {
+        @Override
+        public StringBuilder appendResult(StringBuilder out, String name, int airOrOxygenObs, int consciousnessObs, int respirationRange,
+                                          int spo2, int temperatureTenths, int cbgTenths, boolean isFasting, long timestamp, int packedScores) {
+            out.append("result,");
+            appendField(out, name);
+            out.append(',').append(timestamp)
+                    .append(',').append(airOrOxygenObs)
+                    .append(',').append(consciousnessObs)
+                    .append(',').append(respirationRange)
+                    .append(',').append(spo2)
+                    .append(',');
+            Tenths.append(out, temperatureTenths).append(',');
+            Tenths.append(out, cbgTenths).append(',').append(isFasting);
+            if (packedScores == ScoreTable.NOT_SCORED) {
+                return out.append(",,,,,,,\n");
+            }
+            return out.append(',').append(MediScore.airOrOxygenScoreOf(packedScores))
+                    .append(',').append(MediScore.consciousnessScoreOf(packedScores))
+                    .append(',').append(MediScore.respirationScoreOf(packedScores))
+                    .append(',').append(MediScore.spo2ScoreOf(packedScores))
+                    .append(',').append(MediScore.temperatureScoreOf(packedScores))
+                    .append(',').append(MediScore.cbgScoreOf(packedScores))
+                    .append(',').append(MediScore.finalScoreOf(packedScores))
+                    .append('\n');
+        }
+
+        @Override
+        public StringBuilder appendMessage(StringBuilder out, String name, String message) {
+            out.append("message,");
+            appendField(out, name);
+            out.append(',');
+            appendField(out, message);
+            return out.append('\n');
+        }
+
+        // Quotes a field that contains a comma, a quote or a line break
+        private static void appendField(StringBuilder out, String value) {
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+                out.append(value);
+                return;
+            }
+            out.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    out.append('"');
+                }
+                out.append(c);
+            }
+            out.append('"');
+        }
+    },
+    JSON {
+        @Override
+        public StringBuilder appendResult(StringBuilder out, String name, int airOrOxygenObs, int consciousnessObs, int respirationRange,
+                                          int spo2, int temperatureTenths, int cbgTenths, boolean isFasting, long timestamp, int packedScores) {
+            out.append("{\"name\":");
+            Json.appendString(out, name)
+                    .append(",\"timestamp\":").append(timestamp)
+                    .append(",\"airOrOxygen\":").append(airOrOxygenObs)
+                    .append(",\"consciousness\":").append(consciousnessObs)
+                    .append(",\"respirationRange\":").append(respirationRange)
+                    .append(",\"spo2\":").append(spo2)
+                    .append(",\"temperature\":");
+            Tenths.append(out, temperatureTenths).append(",\"CBG\":");
+            Tenths.append(out, cbgTenths).append(",\"fasting\":").append(isFasting);
+            if (packedScores == ScoreTable.NOT_SCORED) {
+                return out.append(",\"finalScore\":null}\n");
+            }
+            return out.append(",\"airOrOxygenScore\":").append(MediScore.airOrOxygenScoreOf(packedScores))
+                    .append(",\"consciousnessScore\":").append(MediScore.consciousnessScoreOf(packedScores))
+                    .append(",\"respirationRangeScore\":").append(MediScore.respirationScoreOf(packedScores))
+                    .append(",\"spo2Score\":").append(MediScore.spo2ScoreOf(packedScores))
+                    .append(",\"temperatureScore\":").append(MediScore.temperatureScoreOf(packedScores))
+                    .append(",\"CBGScore\":").append(MediScore.cbgScoreOf(packedScores))
+                    .append(",\"finalScore\":").append(MediScore.finalScoreOf(packedScores))
+                    .append("}\n");
+        }
+
+        @Override
+        public StringBuilder appendMessage(StringBuilder out, String name, String message) {
+            out.append("{\"name\":");
+            Json.appendString(out, name).append(",\"message\":");
+            return Json.appendString(out, message).append("}\n");
+        }
+    };
+
+    // Appends one scored observation, ending with a line break
+    public abstract StringBuilder appendResult(StringBuilder out, String name, int airOrOxygenObs, int consciousnessObs, int respirationRange,
+                                               int spo2, int temperatureTenths, int cbgTenths, boolean isFasting, long timestamp, int packedScores);
+
+    // Appends one message, ending with a line break
+    public abstract StringBuilder appendMessage(StringBuilder out, String name, String message);
+}
@@ -0,0 +1,30 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: ResultSink.java
+ * Author: Christopher Fairhurst
+ * Description: Destination for scoring results and patient messages.
+ * ------------------------------------------------------------------------------
+ * Patient hands every scored observation and every alert or error message to a
+ * ResultSink instead of printing it, so where the output goes and what it looks
+ * like can be changed without touching the scoring code.
+ * AsyncResultSink is the standard implementation, it renders the result in the
+ * calling thread and leaves all of the I/O to a background writer.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+public interface ResultSink {
+    // Called once for every scored observation
+    // Temperature and CBG are in tenths, see Tenths
+    // packedScores is ScoreTable.NOT_SCORED when the patient has not been scored yet
+    void scored(String name, int airOrOxygenObs, int consciousnessObs, int respirationRange, int spo2,
+                int temperatureTenths, int cbgTenths, boolean isFasting, long timestamp, int packedScores);
+
+    // Called for alert, comparison and error messages about a patient
+    void message(String name, String message);
+
+    // Hands everything accepted so far to the underlying output
+    default void flush() {
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: ScoreAlert.java
+ * Author: Christopher Fairhurst
+ * Description: The outcome of comparing a new MediScore with the previous one.
+ * ------------------------------------------------------------------------------
+ * These are the same four cases that Patient.scoreAlert prints to the console.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+public enum ScoreAlert {
+    NO_PREVIOUS_SCORE,
+    PREVIOUS_SCORE_STALE,
+    NOT_RAISED,
+    RAISED;
+
+    // Scores taken more than this far apart are not compared
+    public static final long MILLISECONDS_IN_A_DAY = 24 * 60 * 60 * 1000;
+
+    // An alert is raised when the score has gone up by more than this within a day
+    public static final int RAISE_THRESHOLD = 2;
+
+    // Compares the new final score against the previous one
+    // A negative previous score means there is no previous score
+    public static ScoreAlert evaluate(int previousFinalScore, long previousTimestamp, int finalScore, long timestamp) {
+        if (previousFinalScore < 0) {
+            return NO_PREVIOUS_SCORE;
+        }
+        if (timestamp - previousTimestamp > MILLISECONDS_IN_A_DAY) {
+            return PREVIOUS_SCORE_STALE;
+        }
+        return finalScore - previousFinalScore > RAISE_THRESHOLD ? RAISED : NOT_RAISED;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: ScoreBlock.java
+ * Author: Christopher Fairhurst
+ * Description: Preallocated output columns for the batch scorer.
+ * ------------------------------------------------------------------------------
+ * Row i of every array holds the score for row i of the ObservationBlock that was scored.
+ * Scores are stored as bytes as no individual score is above 3 and the final score is at most 17.
+ * The alert column is only filled when the scorer is given the previous final scores.
+ * Rows rejected by BatchScorer.scoreValid have a final score of REJECTED.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+public final class ScoreBlock {
+    // Final score of a row that failed validation
+    public static final byte REJECTED = -1;
+
+    public final byte[] airOrOxygenScore;
+    public final byte[] consciousnessScore;
+    public final byte[] respirationScore;
+    public final byte[] spo2Score;
+    public final byte[] temperatureScore;
+    public final byte[] cbgScore;
+    public final byte[] finalScore;
+    public final boolean[] alert;
+    private final int size;
+
+    public ScoreBlock(int size) {
+        this.airOrOxygenScore = new byte[size];
+        this.consciousnessScore = new byte[size];
+        this.respirationScore = new byte[size];
+        this.spo2Score = new byte[size];
+        this.temperatureScore = new byte[size];
+        this.cbgScore = new byte[size];
+        this.finalScore = new byte[size];
+        this.alert = new boolean[size];
+        this.size = size;
+    }
+
+    // Returns row i in the packed layout used by MediScore.score
+    public int packed(int row) {
+        return MediScore.pack(airOrOxygenScore[row], consciousnessScore[row], respirationScore[row], spo2Score[row],
+                temperatureScore[row], cbgScore[row]);
+    }
+
+    // Marks a row as failing validation
+    void reject(int row) {
+        airOrOxygenScore[row] = 0;
+        consciousnessScore[row] = 0;
+        respirationScore[row] = 0;
+        spo2Score[row] = 0;
+        temperatureScore[row] = 0;
+        cbgScore[row] = 0;
+        finalScore[row] = REJECTED;
+        alert[row] = false;
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: ScoreCache.java
+ * Author: Christopher Fairhurst
+ * Description: Optional bounded cache of full scoring results keyed by the packed observation.
+ * ------------------------------------------------------------------------------
+ * Key Features:
+ * An observation is a handful of small discrete values, and real traffic repeats the same
+ * ones over and over, so the whole result for an observation is worked out once: the
+ * packed scores, the set of comments and, once it has been rendered twice, the rendered table
+ * without the patient's name.
+ * The key packs every reading into one long, see key. An observation whose readings do
+ * not fit is scored directly and never cached.
+ * The cache is a fixed array split into sets of 8 entries, a key can only live in its own
+ * set. A miss replaces the first entry of the set that has not been used since the set's
+ * clock hand last passed it (CLOCK, a cheap approximation of least recently used).
+ * Entries are immutable and replaced whole, so lookups take no lock. Two threads missing
+ * on the same key at once may both score it, which only costs the extra work.
+ * Every entry remembers the ScoringBands it was scored with, so installing new bands
+ * makes the old entries miss instead of returning stale scores.
+ * Hits, misses and evictions are counted in Metrics. Hits and misses count scoring
+ * lookups only, ScoreTable looking a scored result up again to render it is not counted.
+ * ------------------------------------------------------------------------------
+ * Usage:
+ * Start with -Dmediscore.scoreCache=<entries>, or call ScoreCache.install(new ScoreCache(entries)).
+ * Patient.calculateMediScore and ScoreTable then use the installed cache.
+ * ------------------------------------------------------------------------------
+ * Key layout (low bit first):
+ * bit 0      fasting
+ * bit 1      airOrOxygen, 0 = air, 1 = oxygen
+ * bits 2-3   consciousness
+ * bits 4-10  SpO2, 0-100
+ * bits 11-18 temperature tenths above 28.0, 0-170
+ * bits 19-40 respiration range
+ * bits 41-63 CBG in tenths
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class ScoreCache {
+    // Returned by key for an observation that cannot be cached
+    public static final long NO_KEY = -1;
+
+    private static final int WAYS = 8;
+    private static final int MIN_TEMPERATURE_TENTHS = 280;
+    private static final int MAX_TEMPERATURE_TENTHS = 450;
+    private static final int MAX_RESPIRATION = (1 << 22) - 1;
+    private static final int MAX_CBG_TENTHS = (1 << 23) - 1;
+
+    // Every distinct set of comments, so every result with the same comments shares one
+    private static final Map<CommentSet, CommentSet> COMMENT_SETS = new ConcurrentHashMap<>();
+
+    private static volatile ScoreCache installed = fromProperty(System.getProperty("mediscore.scoreCache"));
+
+    // The four comments shown for an observation
+    public record CommentSet(String airOrOxygen, String consciousness, String spo2, String cbg) {
+        static CommentSet intern(CommentSet comments) {
+            CommentSet existing = COMMENT_SETS.putIfAbsent(comments, comments);
+            return existing == null ? comments : existing;
+        }
+    }
+
+    // Everything worked out for one observation
+    public static final class Result {
+        private final int airOrOxygenObs;
+        private final int consciousnessObs;
+        private final int respirationRange;
+        private final int spo2;
+        private final int temperatureTenths;
+        private final int cbgTenths;
+        private final boolean isFasting;
+        private final int packedScores;
+        private final CommentSet comments;
+        // Built on first use, a racing second build produces the same String
+        private String table;
+        // Whether ScoreTable has asked for the table before, see cachedTable
+        private boolean renderedOnce;
+
+        private Result(int airOrOxygenObs, int consciousnessObs, int respirationRange, int spo2, int temperatureTenths,
+                       int cbgTenths, boolean isFasting, int packedScores) {
+            this.airOrOxygenObs = airOrOxygenObs;
+            this.consciousnessObs = consciousnessObs;
+            this.respirationRange = respirationRange;
+            this.spo2 = spo2;
+            this.temperatureTenths = temperatureTenths;
+            this.cbgTenths = cbgTenths;
+            this.isFasting = isFasting;
+            this.packedScores = packedScores;
+            this.comments = CommentSet.intern(new CommentSet(Comments.airOrOxygen(airOrOxygenObs), Comments.consciousness(consciousnessObs),
+                    Comments.spo2(airOrOxygenObs, spo2), Comments.cbgTenths(cbgTenths, isFasting)));
+        }
+
+        // The packed scores, see MediScore for the layout
+        public int packedScores() {
+            return packedScores;
+        }
+
+        public CommentSet comments() {
+            return comments;
+        }
+
+        // The table ScoreTable renders for this observation, from the border below the name to the final score
+        public String table() {
+            String rendered = table;
+            if (rendered == null) {
+                StringBuilder out = new StringBuilder(ScoreTable.BODY_CAPACITY);
+                ScoreTable.appendBody(out, airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperatureTenths, cbgTenths,
+                        isFasting, packedScores);
+                table = rendered = out.toString();
+            }
+            return rendered;
+        }
+
+        // The table for ScoreTable, or null the first time so an observation that is only rendered
+        // once, before being evicted, is rendered straight into the output instead of twice
+        String cachedTable() {
+            if (table == null && !renderedOnce) {
+                renderedOnce = true;
+                return null;
+            }
+            return table();
+        }
+    }
+
+    // One cached result, never changed once it is in the array
+    private static final class Entry {
+        final long key;
+        final ScoringBands bands;
+        final Result result;
+        // Set on every hit and cleared as the clock hand passes, a lost update only affects which entry is evicted
+        boolean used;
+
+        Entry(long key, ScoringBands bands, Result result) {
+            this.key = key;
+            this.bands = bands;
+            this.result = result;
+        }
+    }
+
+    private final Entry[] entries;
+    private final byte[] hands;
+    private final int setMask;
+
+    // Holds at least the given number of entries, rounded up to a power of two
+    public ScoreCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity value.");
+        }
+        // capacity / WAYS rounded up, written so it cannot overflow
+        int needed = (capacity - 1) / WAYS + 1;
+        int sets = needed == 1 ? 1 : Integer.highestOneBit(needed - 1) << 1;
+        this.entries = new Entry[sets * WAYS];
+        this.hands = new byte[sets];
+        this.setMask = sets - 1;
+    }
+
+    // The cache in use, or null when caching is off
+    public static ScoreCache installed() {
+        return installed;
+    }
+
+    // Switches caching on with the given cache, or off with null
+    public static void install(ScoreCache cache) {
+        installed = cache;
+    }
+
+    // Packs a validated observation into a key, or NO_KEY if a reading does not fit
+    public static long key(int airOrOxygenObs, int consciousnessObs, int respirationRange, int spo2, int temperatureTenths, int cbgTenths, boolean isFasting) {
+        if ((airOrOxygenObs != 0 && airOrOxygenObs != 2) || consciousnessObs < 0 || consciousnessObs > 3
+                || spo2 < 0 || spo2 > 100 || temperatureTenths < MIN_TEMPERATURE_TENTHS || temperatureTenths > MAX_TEMPERATURE_TENTHS
+                || respirationRange < 0 || respirationRange > MAX_RESPIRATION || cbgTenths < 0 || cbgTenths > MAX_CBG_TENTHS) {
+            return NO_KEY;
+        }
+        return (isFasting ? 1L : 0L)
+                | (long) (airOrOxygenObs >> 1) << 1
+                | (long) consciousnessObs << 2
+                | (long) spo2 << 4
+                | (long) (temperatureTenths - MIN_TEMPERATURE_TENTHS) << 11
+                | (long) respirationRange << 19
+                | (long) cbgTenths << 41;
+    }
+
+    // Scores an observation with the bands currently installed, through the cache
+    // The observation values are expected to have passed the Patient validation rules
+    public Result get(int airOrOxygenObs, int consciousnessObs, int respirationRange, int spo2, int temperatureTenths, int cbgTenths, boolean isFasting) {
+        Metrics.scored();
+        return find(airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperatureTenths, cbgTenths, isFasting, true);
+    }
+
+    // As get for rendering a result that has already been counted, so neither the observation
+    // nor the cache hit or miss is counted again
+    Result lookup(int airOrOxygenObs, int consciousnessObs, int respirationRange, int spo2, int temperatureTenths, int cbgTenths, boolean isFasting) {
+        return find(airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperatureTenths, cbgTenths, isFasting, false);
+    }
+
+    private Result find(int airOrOxygenObs, int consciousnessObs, int respirationRange, int spo2, int temperatureTenths, int cbgTenths,
+                        boolean isFasting, boolean counted) {
+        ScoringBands bands = ScoringBands.current();
+        long key = key(airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperatureTenths, cbgTenths, isFasting);
+        if (key == NO_KEY) {
+            return score(bands, airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperatureTenths, cbgTenths, isFasting);
+        }
+        int set = set(key);
+        int base = set * WAYS;
+        Entry[] entries = this.entries;
+        for (int way = 0; way < WAYS; way++) {
+            Entry entry = entries[base + way];
+            if (entry != null && entry.key == key && entry.bands == bands) {
+                if (!entry.used) {
+                    entry.used = true;
+                }
+                if (counted) {
+                    Metrics.cacheHit();
+                }
+                return entry.result;
+            }
+        }
+        if (counted) {
+            Metrics.cacheMiss();
+        }
+        Result result = score(bands, airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperatureTenths, cbgTenths, isFasting);
+        entries[base + victim(set, base)] = new Entry(key, bands, result);
+        return result;
+    }
+
+    // Number of entries the cache can hold
+    public int capacity() {
+        return entries.length;
+    }
+
+    // Empties the cache
+    public void clear() {
+        Arrays.fill(entries, null);
+    }
+
+    // The way to replace in a set: an empty one, else the first the clock hand finds unused since it last passed
+    private int victim(int set, int base) {
+        Entry[] entries = this.entries;
+        for (int way = 0; way < WAYS; way++) {
+            if (entries[base + way] == null) {
+                return way;
+            }
+        }
+        // clear may empty a way while the hand is moving, which is then taken without an eviction
+        int hand = hands[set];
+        while (true) {
+            Entry entry = entries[base + hand];
+            if (entry == null || !entry.used) {
+                hands[set] = (byte) ((hand + 1) & (WAYS - 1));
+                if (entry != null) {
+                    Metrics.cacheEvicted();
+                }
+                return hand;
+            }
+            entry.used = false;
+            hand = (hand + 1) & (WAYS - 1);
+        }
+    }
+
+    private int set(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed >>> 40) & setMask;
+    }
+
+    private static Result score(ScoringBands bands, int airOrOxygenObs, int consciousnessObs, int respirationRange, int spo2,
+                                int temperatureTenths, int cbgTenths, boolean isFasting) {
+        int packed = bands.scoreTenths(airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperatureTenths, cbgTenths, isFasting);
+        return new Result(airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperatureTenths, cbgTenths, isFasting, packed);
+    }
+
+    private static ScoreCache fromProperty(String capacity) {
+        if (capacity == null || capacity.isEmpty()) {
+            return null;
+        }
+        try {
+            return new ScoreCache(Integer.parseInt(capacity.trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid mediscore.scoreCache value.");
+        }
+    }
+}
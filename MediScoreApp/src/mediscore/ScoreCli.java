@@ -0,0 +1,229 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: ScoreCli.java
+ * Author: Christopher Fairhurst
+ * Description: Command line scoring of one observation, or one per line of stdin.
+ * ------------------------------------------------------------------------------
+ * Key Features:
+ * Made for scripts that start a JVM per score, so almost all of the time is JVM startup.
+ * Nothing is started but the main thread: no result writer thread, no lambdas, no
+ * reflection and no String.format. Results are appended piece by piece rather than
+ * concatenated, so no method handles are spun for a scored observation, only the
+ * messages for rejected ones concatenate.
+ * The bands, comments and table cells are static tables built when their class loads,
+ * so the first observation costs the same as every other one.
+ * Results are written with ResultFormat and rejected observations are reported on
+ * stderr, the way ObservationPipeline reports them.
+ * ------------------------------------------------------------------------------
+ * Usage:
+ * java -jar mediscore.jar [options] <airOrOxygen> <consciousness> <respirationRange> <spo2> <temperature> <CBG> <fasting>
+ * java -jar mediscore.jar [options] -
+ * The second form reads the same seven values from every line of stdin, separated by
+ * commas or spaces. Blank lines and lines starting with # are skipped.
+ * Options:
+ * --format table|csv|json  output format, table by default
+ * --name <name>            the name shown in the table and the name field, Patient by default
+ * --bands <file>           score with a site's band config, see ScoringBands
+ * The exit status is 0 when every observation was scored, 1 when any was rejected and
+ * 2 for a usage error. See the README for building a class data sharing archive.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+public final class ScoreCli {
+    public static final int SCORED = 0;
+    public static final int REJECTED = 1;
+    public static final int USAGE = 2;
+
+    private static final int FIELDS = 7;
+    private static final String DEFAULT_NAME = "Patient";
+    // Output is written out whenever this much is waiting
+    private static final int FLUSH_SIZE = 1 << 16;
+
+    private final ResultFormat format;
+    private final String name;
+    private final StringBuilder out = new StringBuilder(FLUSH_SIZE + ScoreTable.BODY_CAPACITY);
+    private final String[] fields = new String[FIELDS];
+    private int rejected;
+
+    private ScoreCli(ResultFormat format, String name) {
+        this.format = format;
+        this.name = name;
+    }
+
+    public static void main(String[] args) throws IOException {
+        exit(run(args));
+    }
+
+    // Exits with the status, only calling System.exit for a failure as it starts the
+    // System.Logger machinery to log the exit, a few milliseconds for nothing
+    static void exit(int status) {
+        if (status != SCORED) {
+            System.exit(status);
+        }
+    }
+
+    // Runs the command and returns its exit status
+    public static int run(String[] args) throws IOException {
+        ResultFormat format = ResultFormat.TABLE;
+        String name = DEFAULT_NAME;
+        int first = 0;
+        while (first + 1 < args.length && args[first].startsWith("--")) {
+            String value = args[first + 1];
+            switch (args[first]) {
+                case "--format" -> format = format(value);
+                case "--name" -> name = value;
+                case "--bands" -> {
+                    try {
+                        ScoringBands.install(ScoringBands.load(Path.of(value)));
+                    } catch (IOException | IllegalArgumentException e) {
+                        System.err.println("Unable to load bands from " + value + ": " + e.getMessage());
+                        return USAGE;
+                    }
+                }
+                default -> format = null;
+            }
+            if (format == null) {
+                return usage();
+            }
+            first += 2;
+        }
+
+        ScoreCli cli = new ScoreCli(format, name);
+        int remaining = args.length - first;
+        if (remaining == 1 && args[first].equals("-")) {
+            cli.scoreLines(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)));
+        } else if (remaining == FIELDS) {
+            System.arraycopy(args, first, cli.fields, 0, FIELDS);
+            cli.score(String.join(" ", cli.fields));
+        } else {
+            return usage();
+        }
+        cli.flush();
+        return cli.rejected == 0 ? SCORED : REJECTED;
+    }
+
+    // Scores every line, writing the output out in chunks as it builds up
+    private void scoreLines(BufferedReader reader) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            int count = split(line, fields);
+            if (count != FIELDS) {
+                reject(line, "Expected " + FIELDS + " fields but found " + count + ".");
+            } else {
+                score(line);
+            }
+            if (out.length() >= FLUSH_SIZE) {
+                flush();
+            }
+        }
+    }
+
+    // Scores the observation in fields, reporting the input line if it is rejected
+    private void score(String input) {
+        int airOrOxygenObs;
+        int consciousnessObs;
+        int respirationRange;
+        int spo2;
+        float temperature;
+        float CBG;
+        boolean isFasting;
+        try {
+            airOrOxygenObs = Integer.parseInt(fields[0]);
+            consciousnessObs = Integer.parseInt(fields[1]);
+            respirationRange = Integer.parseInt(fields[2]);
+            spo2 = Integer.parseInt(fields[3]);
+            temperature = Float.parseFloat(fields[4]);
+            CBG = Float.parseFloat(fields[5]);
+            isFasting = ObservationParser.parseBoolean(fields[6]);
+        } catch (NumberFormatException e) {
+            reject(input, "Invalid number: " + e.getMessage());
+            return;
+        } catch (IllegalArgumentException e) {
+            reject(input, e.getMessage());
+            return;
+        }
+        int invalidFields = ObservationValidator.invalidFields(airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperature, CBG);
+        if (invalidFields != 0) {
+            reject(input, ObservationValidator.message(invalidFields));
+            return;
+        }
+        int temperatureTenths = Tenths.of(temperature);
+        int cbgTenths = Tenths.of(CBG);
+        int packed = MediScore.scoreTenths(airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperatureTenths, cbgTenths, isFasting);
+        format.appendResult(out, name, airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperatureTenths, cbgTenths, isFasting,
+                System.currentTimeMillis(), packed);
+    }
+
+    private void reject(String input, String reason) {
+        rejected++;
+        flush();
+        System.err.println("Rejected " + input + ": " + reason);
+    }
+
+    private void flush() {
+        System.out.append(out);
+        System.out.flush();
+        out.setLength(0);
+    }
+
+    // Splits a line on commas and runs of spaces, returning the number of fields
+    // Stops counting at one more than fields can hold
+    static int split(String line, String[] fields) {
+        int count = 0;
+        int i = skipSpaces(line, 0);
+        while (i < line.length()) {
+            int start = i;
+            while (i < line.length() && line.charAt(i) != ',' && !isSpace(line.charAt(i))) {
+                i++;
+            }
+            if (count == fields.length) {
+                return count + 1;
+            }
+            fields[count++] = line.substring(start, i);
+            i = skipSpaces(line, i);
+            if (i < line.length() && line.charAt(i) == ',') {
+                i = skipSpaces(line, i + 1);
+            }
+        }
+        return count;
+    }
+
+    private static int skipSpaces(String line, int i) {
+        while (i < line.length() && isSpace(line.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isSpace(char c) {
+        return c <= ' ';
+    }
+
+    // The format named on the command line, or null
+    // Matched by hand rather than with valueOf, which looks the constants up reflectively
+    private static ResultFormat format(String name) {
+        return switch (name) {
+            case "table" -> ResultFormat.TABLE;
+            case "csv" -> ResultFormat.CSV;
+            case "json" -> ResultFormat.JSON;
+            default -> null;
+        };
+    }
+
+    private static int usage() {
+        System.err.println("Usage: ScoreCli [--format table|csv|json] [--name <name>] [--bands <file>]");
+        System.err.println("           <airOrOxygen> <consciousness> <respirationRange> <spo2> <temperature> <CBG> <fasting> | -");
+        return USAGE;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: ScoreExporter.java
+ * Author: Christopher Fairhurst
+ * Description: Streams the scores of imported blocks to a file as CSV.
+ * ------------------------------------------------------------------------------
+ * Key Features:
+ * Rows are formatted digit by digit into one reused buffer that is written out whenever
+ * it fills, so exporting allocates nothing per row and keeps up with ObservationImporter.
+ * One line per row:
+ * patientId,timestamp,airOrOxygenScore,consciousnessScore,respirationRangeScore,spo2Score,
+ * temperatureScore,CBGScore,finalScore,comments,errors
+ * comments holds the codes of the air or oxygen, consciousness, SpO2 and CBG comments
+ * separated by semicolons, see Comments.code. ObservationImporter --codes lists them.
+ * A rejected row has empty scores and comments, and errors holds the parameters that
+ * failed validation separated by semicolons, or malformed for a line that could not be read.
+ * ------------------------------------------------------------------------------
+ * Usage:
+ * try (ScoreExporter exporter = new ScoreExporter(Path.of("scores.csv"))) {
+ *     new ObservationImporter().read(Path.of("extract.csv"), exporter::write);
+ * }
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public final class ScoreExporter implements AutoCloseable {
+    private static final int BUFFER_SIZE = 1 << 20;
+    // Longest line a row can produce, with room to spare
+    private static final int MAX_LINE = 160;
+
+    private static final int SPO2_MAX = 100;
+    private static final int CBG_MAX_TENTHS = 100;
+
+    private static final byte AIR_CODE = (byte) Comments.code(Comments.AIR);
+    private static final byte OXYGEN_CODE = (byte) Comments.code(Comments.OXYGEN);
+    private static final byte CONSCIOUS_CODE = (byte) Comments.code(Comments.CONSCIOUS);
+    private static final byte NOT_CONSCIOUS_CODE = (byte) Comments.code(Comments.NOT_CONSCIOUS);
+    private static final byte[] SPO2_FOR_AIR_CODES = new byte[SPO2_MAX + 1];
+    private static final byte[] SPO2_FOR_OXYGEN_CODES = new byte[SPO2_MAX + 1];
+    private static final byte[] CBG_FASTING_CODES = new byte[CBG_MAX_TENTHS + 1];
+    private static final byte[] CBG_NOT_FASTING_CODES = new byte[CBG_MAX_TENTHS + 1];
+
+    private static final long[] POWERS_OF_TEN = new long[19];
+    // The tens and units digit of every number from 0 to 99
+    private static final byte[] TENS = new byte[100];
+    private static final byte[] ONES = new byte[100];
+
+    // The errors column for every validation mask, the MALFORMED mask included
+    private static final byte[][] ERRORS = new byte[256][];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+        for (int i = 0; i < 100; i++) {
+            TENS[i] = (byte) ('0' + i / 10);
+            ONES[i] = (byte) ('0' + i % 10);
+        }
+        for (int spo2 = 0; spo2 <= SPO2_MAX; spo2++) {
+            SPO2_FOR_AIR_CODES[spo2] = (byte) Comments.code(Comments.spo2ForAir(spo2));
+            SPO2_FOR_OXYGEN_CODES[spo2] = (byte) Comments.code(Comments.spo2ForOxygen(spo2));
+        }
+        for (int k = 0; k <= CBG_MAX_TENTHS; k++) {
+            CBG_FASTING_CODES[k] = (byte) Comments.code(Comments.cbgTenths(k, true));
+            CBG_NOT_FASTING_CODES[k] = (byte) Comments.code(Comments.cbgTenths(k, false));
+        }
+        for (int mask = 0; mask < ERRORS.length; mask++) {
+            StringBuilder errors = new StringBuilder();
+            if ((mask & ObservationImporter.MALFORMED) != 0) {
+                errors.append("malformed");
+            } else {
+                for (int bits = mask; bits != 0; bits &= bits - 1) {
+                    errors.append(errors.isEmpty() ? "" : ";").append(ObservationField.first(bits).parameter());
+                }
+            }
+            ERRORS[mask] = errors.toString().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private final WritableByteChannel channel;
+    private final byte[] bytes = new byte[BUFFER_SIZE];
+    private final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    private int position;
+
+    // Creates or replaces the file
+    public ScoreExporter(Path file) throws IOException {
+        this(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    // Writes to the channel, which is closed with the exporter
+    public ScoreExporter(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    // Writes one line for every row of the block
+    public void write(ObservationImporter.Block block) throws IOException {
+        ObservationBlock observations = block.observations;
+        ScoreBlock scores = block.scores;
+        for (int row = 0; row < block.rows(); row++) {
+            if (position > BUFFER_SIZE - MAX_LINE) {
+                flush();
+            }
+            putLong(block.patientIds[row]);
+            put(',');
+            putLong(block.timestamps[row]);
+            int errors = block.errors[row] & 0xFF;
+            if (errors != 0) {
+                put(",,,,,,,,,");
+                byte[] text = ERRORS[errors];
+                System.arraycopy(text, 0, bytes, position, text.length);
+                position += text.length;
+                put('\n');
+                continue;
+            }
+            putDigit(',', scores.airOrOxygenScore[row]);
+            putDigit(',', scores.consciousnessScore[row]);
+            putDigit(',', scores.respirationScore[row]);
+            putDigit(',', scores.spo2Score[row]);
+            putDigit(',', scores.temperatureScore[row]);
+            putDigit(',', scores.cbgScore[row]);
+            put(',');
+            putSmall(scores.finalScore[row]);
+
+            boolean air = observations.airOrOxygen[row] == 0;
+            int spo2 = Math.min(Math.max(observations.spo2[row], 0), SPO2_MAX);
+            int cbg = Math.min(Math.max(observations.cbgTenths[row], 0), CBG_MAX_TENTHS);
+            put(',');
+            putSmall(air ? AIR_CODE : OXYGEN_CODE);
+            put(';');
+            putSmall(observations.consciousness[row] == 0 ? CONSCIOUS_CODE : NOT_CONSCIOUS_CODE);
+            put(';');
+            putSmall(air ? SPO2_FOR_AIR_CODES[spo2] : SPO2_FOR_OXYGEN_CODES[spo2]);
+            put(';');
+            putSmall(observations.fasting[row] ? CBG_FASTING_CODES[cbg] : CBG_NOT_FASTING_CODES[cbg]);
+            put(',');
+            put('\n');
+        }
+    }
+
+    // Writes out everything buffered so far
+    public void flush() throws IOException {
+        buffer.limit(position).position(0);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        position = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void put(char c) {
+        bytes[position++] = (byte) c;
+    }
+
+    private void put(String ascii) {
+        for (int i = 0; i < ascii.length(); i++) {
+            bytes[position++] = (byte) ascii.charAt(i);
+        }
+    }
+
+    // A separator followed by a score of 0-9
+    private void putDigit(char separator, int digit) {
+        bytes[position++] = (byte) separator;
+        bytes[position++] = (byte) ('0' + digit);
+    }
+
+    // A number of 0-99, such as a final score or a comment code
+    private void putSmall(int value) {
+        if (value >= 10) {
+            bytes[position++] = (byte) ('0' + value / 10);
+        }
+        bytes[position++] = (byte) ('0' + value % 10);
+    }
+
+    // Writes two digits at a time from the TENS and ONES tables, working back from the last digit
+    private void putLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            put(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            put('-');
+            value = -value;
+        }
+        int digits = 1;
+        while (digits < POWERS_OF_TEN.length && value >= POWERS_OF_TEN[digits]) {
+            digits++;
+        }
+        int end = position + digits;
+        int i = end;
+        while (value >= 100) {
+            int pair = (int) (value % 100);
+            value /= 100;
+            bytes[--i] = ONES[pair];
+            bytes[--i] = TENS[pair];
+        }
+        if (value >= 10) {
+            bytes[--i] = ONES[(int) value];
+            bytes[--i] = TENS[(int) value];
+        } else {
+            bytes[--i] = (byte) ('0' + value);
+        }
+        position = end;
+    }
+}
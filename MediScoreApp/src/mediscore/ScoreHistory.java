@@ -0,0 +1,172 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: ScoreHistory.java
+ * Author: Christopher Fairhurst
+ * Description: Bounded history of a patient's final scores over the last 24 hours.
+ * ------------------------------------------------------------------------------
+ * Key Features:
+ * Scores and timestamps are kept in a primitive ring buffer of fixed capacity,
+ * so the memory used per patient never grows.
+ * The rolling minimum and maximum are kept in monotonic deques and the mean from a
+ * running sum, so adding a score and checking for an alert is amortised O(1)
+ * instead of a scan of the history.
+ * An alert is raised when the new score is more than 2 points above any score
+ * still inside the 24-hour window, which is the lowest score in the window.
+ * ------------------------------------------------------------------------------
+ * Timestamps are expected to be non-decreasing, as they are for a single bedside device.
+ * If more scores arrive within 24 hours than the capacity holds, the oldest ones are dropped early.
+ * This class is not thread-safe, PatientRegistry guards each history with the patient's lock.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+public final class ScoreHistory {
+    // Enough for an observation every 15 minutes with room to spare
+    public static final int DEFAULT_CAPACITY = 128;
+
+    private final long[] timestamps;
+    private final byte[] scores;
+    private final int mask;
+    // Sequence numbers of the oldest entry and the next entry to be written
+    private long head;
+    private long tail;
+    private int sum;
+    private boolean hasHadScore;
+
+    // Monotonic deques of sequence numbers, minimum scores increase from front to back and
+    // maximum scores decrease from front to back, so the front always holds the window's extreme
+    private final long[] minDeque;
+    private final long[] maxDeque;
+    private long minHead;
+    private long minTail;
+    private long maxHead;
+    private long maxTail;
+
+    public ScoreHistory() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    // The capacity is rounded up to a power of two
+    public ScoreHistory(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity value.");
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        size = Math.max(size, 1);
+        this.timestamps = new long[size];
+        this.scores = new byte[size];
+        this.minDeque = new long[size];
+        this.maxDeque = new long[size];
+        this.mask = size - 1;
+    }
+
+    // Adds the new final score and returns the alert for it
+    // The alert is worked out against the scores before this one that are still in the window
+    public ScoreAlert add(long timestamp, int finalScore) {
+        evictOlderThan(timestamp - ScoreAlert.MILLISECONDS_IN_A_DAY);
+
+        ScoreAlert alert;
+        if (isEmpty()) {
+            alert = hasHadScore ? ScoreAlert.PREVIOUS_SCORE_STALE : ScoreAlert.NO_PREVIOUS_SCORE;
+        } else if (finalScore - min() > ScoreAlert.RAISE_THRESHOLD) {
+            alert = ScoreAlert.RAISED;
+        } else {
+            alert = ScoreAlert.NOT_RAISED;
+        }
+
+        if (tail - head == scores.length) {
+            evictHead();
+        }
+        int slot = (int) tail & mask;
+        timestamps[slot] = timestamp;
+        scores[slot] = (byte) finalScore;
+        sum += finalScore;
+
+        while (minTail > minHead && scoreAt(minDeque[(int) (minTail - 1) & mask]) >= finalScore) {
+            minTail--;
+        }
+        minDeque[(int) minTail++ & mask] = tail;
+        while (maxTail > maxHead && scoreAt(maxDeque[(int) (maxTail - 1) & mask]) <= finalScore) {
+            maxTail--;
+        }
+        maxDeque[(int) maxTail++ & mask] = tail;
+
+        tail++;
+        hasHadScore = true;
+        return alert;
+    }
+
+    // Drops every score taken before the cut-off time
+    public void evictOlderThan(long cutoff) {
+        while (!isEmpty() && timestamps[(int) head & mask] < cutoff) {
+            evictHead();
+        }
+    }
+
+    private void evictHead() {
+        sum -= scores[(int) head & mask];
+        if (minDeque[(int) minHead & mask] == head) {
+            minHead++;
+        }
+        if (maxDeque[(int) maxHead & mask] == head) {
+            maxHead++;
+        }
+        head++;
+    }
+
+    private int scoreAt(long sequence) {
+        return scores[(int) sequence & mask];
+    }
+
+    public boolean isEmpty() {
+        return tail == head;
+    }
+
+    // Number of scores in the window
+    public int count() {
+        return (int) (tail - head);
+    }
+
+    // Lowest score in the window, or -1 when it is empty
+    public int min() {
+        return isEmpty() ? -1 : scoreAt(minDeque[(int) minHead & mask]);
+    }
+
+    // Highest score in the window, or -1 when it is empty
+    public int max() {
+        return isEmpty() ? -1 : scoreAt(maxDeque[(int) maxHead & mask]);
+    }
+
+    // Mean score over the window, or 0 when it is empty
+    public float mean() {
+        return isEmpty() ? 0 : (float) sum / count();
+    }
+
+    // Timestamp of the latest score, or 0 when it is empty
+    public long lastTimestamp() {
+        return isEmpty() ? 0 : timestamps[(int) (tail - 1) & mask];
+    }
+
+    // Timestamps in the window, oldest first
+    public long[] timestamps() {
+        long[] window = new long[count()];
+        for (int i = 0; i < window.length; i++) {
+            window[i] = timestamps[(int) (head + i) & mask];
+        }
+        return window;
+    }
+
+    // Scores in the window, oldest first
+    public byte[] scores() {
+        byte[] window = new byte[count()];
+        for (int i = 0; i < window.length; i++) {
+            window[i] = scores[(int) (head + i) & mask];
+        }
+        return window;
+    }
+
+    public int capacity() {
+        return scores.length;
+    }
+}
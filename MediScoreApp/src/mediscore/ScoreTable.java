@@ -0,0 +1,162 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: ScoreTable.java
+ * Author: Christopher Fairhurst
+ * Description: Renders the MediScore table straight into a StringBuilder.
+ * ------------------------------------------------------------------------------
+ * Produces exactly the table Patient.toString has always printed, but without String.format.
+ * The border, the header row and the property cell of every row never change so they
+ * are built once, and the remaining cells are padded in place.
+ * Callers that print a table per observation can keep reusing one StringBuilder,
+ * so rendering a table allocates nothing.
+ * When a ScoreCache is installed the table below the name is rendered once per distinct
+ * observation and copied from the cache after that.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+public final class ScoreTable {
+    // Column widths of the table
+    private static final int PROPERTY_WIDTH = 17;
+    private static final int OBSERVATION_WIDTH = 11;
+    private static final int SCORE_WIDTH = 5;
+    private static final int COMMENT_WIDTH = 75;
+
+    // Passed as the packed scores when the patient has not been scored yet
+    public static final int NOT_SCORED = -1;
+
+    // The table below the name is a little under 1500 characters
+    static final int BODY_CAPACITY = 1536;
+
+    // Enough spaces to pad the widest column
+    private static final String SPACES = " ".repeat(COMMENT_WIDTH);
+    private static final String LINE = "+-------------------+-------------+-------+-----------------------------------------------------------------------------+\n";
+    private static final String HEADER = row("Property", "Observation", "Score", "Comment");
+    private static final String AIR_OR_OXYGEN_ROW = propertyCell("Air or Oxygen");
+    private static final String CONSCIOUSNESS_ROW = propertyCell("Consciousness");
+    private static final String RESPIRATION_ROW = propertyCell("Respiration Range");
+    private static final String SPO2_ROW = propertyCell("SpO2");
+    private static final String TEMPERATURE_ROW = propertyCell("Temperature");
+    private static final String CBG_ROW = propertyCell("CBG");
+
+    private ScoreTable() {
+    }
+
+    // Appends the table for one set of observations and their packed scores, temperature and CBG in tenths
+    public static StringBuilder append(StringBuilder out, String name, int airOrOxygenObs, int consciousnessObs, int respirationRange,
+                                       int spo2, int temperatureTenths, int cbgTenths, boolean isFasting, int packedScores) {
+        out.append("\nName: ").append(name).append('\n');
+        ScoreCache cache = ScoreCache.installed();
+        if (cache != null && packedScores != NOT_SCORED) {
+            ScoreCache.Result result = cache.lookup(airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperatureTenths, cbgTenths, isFasting);
+            // Scores from other bands than the cached ones are rendered as they are
+            String table = result.packedScores() == packedScores ? result.cachedTable() : null;
+            if (table != null) {
+                return out.append(table);
+            }
+        }
+        return appendBody(out, airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperatureTenths, cbgTenths, isFasting, packedScores);
+    }
+
+    // Appends the table below the name line
+    static StringBuilder appendBody(StringBuilder out, int airOrOxygenObs, int consciousnessObs, int respirationRange,
+                                    int spo2, int temperatureTenths, int cbgTenths, boolean isFasting, int packedScores) {
+        boolean scored = packedScores != NOT_SCORED;
+        out.append(LINE).append(HEADER).append(LINE);
+
+        out.append(AIR_OR_OXYGEN_ROW);
+        appendObservation(out, airOrOxygenObs);
+        appendScore(out, scored, MediScore.airOrOxygenScoreOf(packedScores));
+        appendComment(out, Comments.airOrOxygen(airOrOxygenObs));
+
+        out.append(CONSCIOUSNESS_ROW);
+        appendObservation(out, consciousnessObs);
+        appendScore(out, scored, MediScore.consciousnessScoreOf(packedScores));
+        appendComment(out, Comments.consciousness(consciousnessObs));
+
+        out.append(RESPIRATION_ROW);
+        appendObservation(out, respirationRange);
+        appendScore(out, scored, MediScore.respirationScoreOf(packedScores));
+        appendComment(out, "");
+
+        out.append(SPO2_ROW);
+        appendObservation(out, spo2);
+        appendScore(out, scored, MediScore.spo2ScoreOf(packedScores));
+        appendComment(out, Comments.spo2(airOrOxygenObs, spo2));
+
+        out.append(TEMPERATURE_ROW);
+        appendTenths(out, temperatureTenths);
+        appendScore(out, scored, MediScore.temperatureScoreOf(packedScores));
+        appendComment(out, "");
+
+        out.append(CBG_ROW);
+        appendTenths(out, cbgTenths);
+        appendScore(out, scored, MediScore.cbgScoreOf(packedScores));
+        appendComment(out, Comments.cbgTenths(cbgTenths, isFasting));
+
+        out.append("The patient's final Medi score is ");
+        if (scored) {
+            out.append(MediScore.finalScoreOf(packedScores));
+        } else {
+            out.append("null");
+        }
+        return out.append(".\n");
+    }
+
+    private static void appendObservation(StringBuilder out, int observation) {
+        int start = out.length();
+        out.append(observation);
+        endCell(out, start, OBSERVATION_WIDTH);
+    }
+
+    private static void appendTenths(StringBuilder out, int tenths) {
+        int start = out.length();
+        Tenths.append(out, tenths);
+        endCell(out, start, OBSERVATION_WIDTH);
+    }
+
+    private static void appendScore(StringBuilder out, boolean scored, int score) {
+        int start = out.length();
+        if (scored) {
+            out.append(score);
+        } else {
+            out.append("null");
+        }
+        endCell(out, start, SCORE_WIDTH);
+    }
+
+    private static void appendComment(StringBuilder out, String comment) {
+        out.append(comment);
+        pad(out, COMMENT_WIDTH - comment.length());
+        out.append(" |\n").append(LINE);
+    }
+
+    // Pads the cell that started at start out to the column width and starts the next cell
+    private static void endCell(StringBuilder out, int start, int width) {
+        pad(out, width - (out.length() - start));
+        out.append(" | ");
+    }
+
+    private static void pad(StringBuilder out, int count) {
+        if (count > 0) {
+            out.append(SPACES, 0, count);
+        }
+    }
+
+    private static String propertyCell(String property) {
+        StringBuilder cell = new StringBuilder("| ").append(property);
+        pad(cell, PROPERTY_WIDTH - property.length());
+        return cell.append(" | ").toString();
+    }
+
+    private static String row(String property, String observation, String score, String comment) {
+        StringBuilder row = new StringBuilder(propertyCell(property)).append(observation);
+        pad(row, OBSERVATION_WIDTH - observation.length());
+        row.append(" | ").append(score);
+        pad(row, SCORE_WIDTH - score.length());
+        row.append(" | ").append(comment);
+        pad(row, COMMENT_WIDTH - comment.length());
+        return row.append(" |\n").toString();
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: ScoringBands.java
+ * Author: Christopher Fairhurst
+ * Description: Scoring bands compiled into flat lookup tables, loadable per site or protocol.
+ * ------------------------------------------------------------------------------
+ * Key Features:
+ * Every band is a byte table indexed by the observation value, respiration and SpO2 directly
+ * and temperature and CBG in tenths, so scoring an observation is a handful of array loads.
+ * DEFAULT is built from the band methods in MediScore, so it scores exactly as they do,
+ * including the edge cases at 35.1, 36.1, 38.1, 39.1, 3.9 and 7.8.
+ * Other bands are read from a properties file, see load.
+ * The bands in use are swapped atomically with install. A scorer reads current() once
+ * and keeps using those tables, so a reload never pauses or mixes an in-flight score.
+ * ------------------------------------------------------------------------------
+ * Config file:
+ * version=site-a-2024
+ * airOrOxygen=0:0, 2:2
+ * consciousness=0:0, 1:3
+ * respiration=0:3, 9:1, 12:0, 21:2, 25:3
+ * spo2.air=0:3, 84:2, 86:1, 93:0
+ * spo2.oxygen=0:3, 88:2, 93:1, 97:0
+ * temperature=0.0:3, 35.2:1, 36.2:0, 38.2:1, 39.2:2
+ * cbg.fasting=0.0:2, 3.9:0, 5.5:2, 6.0:3
+ * cbg.notFasting=0.0:3, 4.5:2, 5.9:0, 7.8:2, 9.0:3
+ * Each band is a list of lowerBound:score pairs in ascending order starting at 0. A value
+ * scores the band with the highest lower bound it reaches, and values above the last bound
+ * score the last band. Temperature and CBG bounds have one decimal place.
+ * The file above gives the same scores as DEFAULT.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Properties;
+
+public final class ScoringBands {
+    // Individual scores are packed into 4 bits, see MediScore
+    private static final int MAX_SCORE = 15;
+    // Largest lower bound accepted from a config file, keeps the tables small
+    private static final int MAX_BOUND = 10_000;
+
+    // Ranges the built-in bands are tabulated over, above these the score no longer changes
+    private static final int RESPIRATION_MAX = 25;
+    private static final int SPO2_MAX = 100;
+    private static final int TEMPERATURE_MAX_TENTHS = 500;
+    private static final int CBG_MAX_TENTHS = 100;
+
+    public static final ScoringBands DEFAULT = builtIn();
+
+    private static volatile ScoringBands current = DEFAULT;
+
+    private final String version;
+    // Tables are package-private so BatchScorer can read them in its loop
+    final byte[] airOrOxygen;
+    final byte[] consciousness;
+    final byte[] respiration;
+    final int respirationMax;
+    // Air bands followed by oxygen bands, indexed by spo2 + (airOrOxygen / 2) * (spo2Max + 1)
+    final byte[] spo2;
+    final int spo2Max;
+    final byte[] temperature;
+    final int temperatureMaxTenths;
+    // Not fasting bands followed by fasting bands, indexed by tenths + (fasting ? cbgMaxTenths + 1 : 0)
+    final byte[] cbg;
+    final int cbgMaxTenths;
+
+    private ScoringBands(String version, byte[] airOrOxygen, byte[] consciousness, byte[] respiration, byte[] spo2Air, byte[] spo2Oxygen,
+                         byte[] temperature, byte[] cbgNotFasting, byte[] cbgFasting) {
+        this.version = version;
+        this.airOrOxygen = fit(airOrOxygen, 3);
+        this.consciousness = fit(consciousness, 4);
+        this.respiration = respiration;
+        this.respirationMax = respiration.length - 1;
+        this.spo2Max = Math.max(spo2Air.length, spo2Oxygen.length) - 1;
+        this.spo2 = concat(spo2Air, spo2Oxygen, spo2Max + 1);
+        this.temperature = temperature;
+        this.temperatureMaxTenths = temperature.length - 1;
+        this.cbgMaxTenths = Math.max(cbgNotFasting.length, cbgFasting.length) - 1;
+        this.cbg = concat(cbgNotFasting, cbgFasting, cbgMaxTenths + 1);
+    }
+
+    // The bands every scorer is using right now
+    public static ScoringBands current() {
+        return current;
+    }
+
+    // Replaces the bands in use, scores already under way finish with the old bands
+    public static void install(ScoringBands bands) {
+        if (bands == null) {
+            throw new IllegalArgumentException("Invalid bands value.");
+        }
+        current = bands;
+    }
+
+    public String version() {
+        return version;
+    }
+
+    // Scores one observation, rounding temperature and CBG to tenths first as Patient does
+    public int score(int airOrOxygenObs, int consciousnessObs, int respirationRange, int spo2, float temperature, float CBG, boolean isFasting) {
+        return scoreTenths(airOrOxygenObs, consciousnessObs, respirationRange, spo2, Tenths.of(temperature), Tenths.of(CBG), isFasting);
+    }
+
+    // Scores one observation with temperature and CBG in tenths and returns the packed result
+    public int scoreTenths(int airOrOxygenObs, int consciousnessObs, int respirationRange, int spo2, int temperatureTenths, int cbgTenths, boolean isFasting) {
+        int air = airOrOxygenObs & 2;
+        return MediScore.pack(
+                airOrOxygen[air],
+                consciousness[consciousnessObs & 3],
+                respiration[clamp(respirationRange, respirationMax)],
+                this.spo2[clamp(spo2, spo2Max) + (air >> 1) * (spo2Max + 1)],
+                temperature[clamp(temperatureTenths, temperatureMaxTenths)],
+                cbg[clamp(cbgTenths, cbgMaxTenths) + (isFasting ? cbgMaxTenths + 1 : 0)]);
+    }
+
+    // Reads bands from a properties file, see the top of this file for the format
+    public static ScoringBands load(Path path) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        return parse(properties, path.getFileName().toString());
+    }
+
+    // Compiles bands from properties, using defaultVersion when there is no version key
+    // Throws IllegalArgumentException naming the first band that is missing or invalid
+    public static ScoringBands parse(Properties properties, String defaultVersion) {
+        return new ScoringBands(properties.getProperty("version", defaultVersion),
+                compile(properties, "airOrOxygen", false),
+                compile(properties, "consciousness", false),
+                compile(properties, "respiration", false),
+                compile(properties, "spo2.air", false),
+                compile(properties, "spo2.oxygen", false),
+                compile(properties, "temperature", true),
+                compile(properties, "cbg.notFasting", true),
+                compile(properties, "cbg.fasting", true));
+    }
+
+    // Turns one band list into a table running from 0 to its last lower bound
+    private static byte[] compile(Properties properties, String key, boolean tenths) {
+        String value = properties.getProperty(key);
+        if (value == null || value.isBlank()) {
+            throw new IllegalArgumentException("Missing " + key + " bands.");
+        }
+        String[] bands = value.split(",");
+        int[] bounds = new int[bands.length];
+        int[] scores = new int[bands.length];
+        for (int i = 0; i < bands.length; i++) {
+            String[] pair = bands[i].trim().split(":");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Invalid " + key + " band: " + bands[i].trim());
+            }
+            try {
+                bounds[i] = tenths ? parseTenths(pair[0].trim()) : Integer.parseInt(pair[0].trim());
+                scores[i] = Integer.parseInt(pair[1].trim());
+            } catch (NumberFormatException | ArithmeticException e) {
+                throw new IllegalArgumentException("Invalid " + key + " band: " + bands[i].trim());
+            }
+            if (i == 0 ? bounds[i] != 0 : bounds[i] <= bounds[i - 1]) {
+                throw new IllegalArgumentException("Invalid " + key + " bands, lower bounds must rise from 0.");
+            }
+            if (bounds[i] > MAX_BOUND || scores[i] < 0 || scores[i] > MAX_SCORE) {
+                throw new IllegalArgumentException("Invalid " + key + " band: " + bands[i].trim());
+            }
+        }
+        byte[] table = new byte[bounds[bounds.length - 1] + 1];
+        for (int i = 0; i < bounds.length; i++) {
+            int end = i + 1 < bounds.length ? bounds[i + 1] : table.length;
+            Arrays.fill(table, bounds[i], end, (byte) scores[i]);
+        }
+        return table;
+    }
+
+    // Parses a bound with at most one decimal place into tenths without going through float
+    private static int parseTenths(String bound) {
+        int point = bound.indexOf('.');
+        if (point < 0) {
+            return Math.multiplyExact(Integer.parseInt(bound), 10);
+        }
+        String fraction = bound.substring(point + 1);
+        if (fraction.length() != 1 || !Character.isDigit(fraction.charAt(0)) || point == 0) {
+            throw new NumberFormatException(bound);
+        }
+        return Math.addExact(Math.multiplyExact(Integer.parseInt(bound.substring(0, point)), 10), fraction.charAt(0) - '0');
+    }
+
+    // Tabulates the band methods in MediScore
+    private static ScoringBands builtIn() {
+        byte[] airOrOxygen = new byte[3];
+        for (int obs = 0; obs < airOrOxygen.length; obs++) {
+            airOrOxygen[obs] = (byte) MediScore.airOrOxygenScore(obs);
+        }
+        byte[] consciousness = new byte[4];
+        for (int obs = 0; obs < consciousness.length; obs++) {
+            consciousness[obs] = (byte) MediScore.consciousnessScore(obs);
+        }
+        byte[] respiration = new byte[RESPIRATION_MAX + 1];
+        for (int rate = 0; rate <= RESPIRATION_MAX; rate++) {
+            respiration[rate] = (byte) MediScore.respirationRateScore(rate);
+        }
+        byte[] spo2Air = new byte[SPO2_MAX + 1];
+        byte[] spo2Oxygen = new byte[SPO2_MAX + 1];
+        for (int spo2 = 0; spo2 <= SPO2_MAX; spo2++) {
+            spo2Air[spo2] = (byte) MediScore.spo2ScoreForAir(spo2);
+            spo2Oxygen[spo2] = (byte) MediScore.spo2ScoreForOxygen(spo2);
+        }
+        byte[] temperature = new byte[TEMPERATURE_MAX_TENTHS + 1];
+        for (int k = 0; k <= TEMPERATURE_MAX_TENTHS; k++) {
+            temperature[k] = (byte) MediScore.temperatureScoreTenths(k);
+        }
+        byte[] cbgNotFasting = new byte[CBG_MAX_TENTHS + 1];
+        byte[] cbgFasting = new byte[CBG_MAX_TENTHS + 1];
+        for (int k = 0; k <= CBG_MAX_TENTHS; k++) {
+            cbgNotFasting[k] = (byte) MediScore.cbgNotFastingTenths(k);
+            cbgFasting[k] = (byte) MediScore.cbgFastingTenths(k);
+        }
+        return new ScoringBands("built-in", airOrOxygen, consciousness, respiration, spo2Air, spo2Oxygen, temperature, cbgNotFasting, cbgFasting);
+    }
+
+    // Puts two tables one after the other, each padded to length with its last score
+    private static byte[] concat(byte[] first, byte[] second, int length) {
+        byte[] table = new byte[2 * length];
+        padInto(first, table, 0, length);
+        padInto(second, table, length, length);
+        return table;
+    }
+
+    // Cuts or pads a table to exactly length entries, padding with its last score
+    private static byte[] fit(byte[] band, int length) {
+        byte[] table = new byte[length];
+        padInto(Arrays.copyOf(band, Math.min(band.length, length)), table, 0, length);
+        return table;
+    }
+
+    private static void padInto(byte[] band, byte[] table, int offset, int length) {
+        System.arraycopy(band, 0, table, offset, band.length);
+        Arrays.fill(table, offset + band.length, offset + length, band[band.length - 1]);
+    }
+
+    // Clamps an index into [0, max] without branching
+    private static int clamp(int value, int max) {
+        return Math.min(Math.max(value, 0), max);
+    }
+}
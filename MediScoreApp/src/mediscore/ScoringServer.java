@@ -0,0 +1,532 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: ScoringServer.java
+ * Author: Christopher Fairhurst
+ * Description: HTTP/JSON endpoint for MediScore scoring on the JDK's built-in HTTP server.
+ * ------------------------------------------------------------------------------
+ * Key Features:
+ * Every request runs on its own virtual thread, so slow clients do not tie up platform threads.
+ * Scores single observations and batches, with the same bands, comments and validation as Patient.
+ * When an observation carries a patientId it is recorded in the PatientRegistry and the
+ * response includes the 24-hour alert for that patient.
+ * With an ObservationLog every recorded observation is appended to the log before the
+ * response is sent, and the log is replayed into the registry at startup.
+ * ------------------------------------------------------------------------------
+ * Endpoints:
+ * POST /score        one observation object, returns one result object
+ * POST /score/batch  an array of observation objects, returns an array of results
+ *                    Every observation is checked before any is recorded, so a batch with one
+ *                    bad observation is rejected whole, naming its index, and records nothing
+ * GET  /metrics      counters and latencies in the Prometheus text format, see Metrics
+ * POST /shard/ring   the shard's own name and the ring it belongs to, see Sharding below
+ * POST /shard/import patients handed off by another shard, see PatientHandoff
+ * GET  /wards        every ward's patient, high score and alert counts, see WardAggregates
+ * GET  /wards/<ward> one ward's score histogram and worst patients, ?worst=N lists N of them (default 10)
+ * Observation object:
+ * {"patientId":1,"airOrOxygen":2,"consciousness":0,"respirationRange":20,"spo2":95,
+ *  "temperature":37.2,"CBG":7.0,"fasting":true}
+ * patientId and timestamp (epoch milliseconds) are optional.
+ * With a patientId, "ward":"<name>" puts the patient on that ward, and every score they get
+ * from then on updates the ward's statistics.
+ * ------------------------------------------------------------------------------
+ * Usage:
+ * java -cp target/classes mediscore.ScoringServer 8080 [--log <file>] [--bands <file>]
+ * --bands scores with a site's band config, reloaded whenever the file changes.
+ * ------------------------------------------------------------------------------
+ * Sharding:
+ * Several servers can split the patients between them by consistent hashing, see HashRing
+ * and ShardRouter. POST /shard/ring sends a shard the new ring as plain text lines:
+ * self <this shard's name>
+ * shard <name>   one line per shard in the ring
+ * The shard hands every patient it no longer owns, with their score history, to the new
+ * owner's /shard/import and only then forgets them. From then on it rejects observations
+ * for patients it does not own, so a router with an out of date ring finds out.
+ * Scoring requests wait while the shard hands patients off and are then checked against
+ * the new ring, so nothing is recorded for a patient on the shard they are leaving,
+ * whichever process changed the ring. The shard they are joining may take the new ring
+ * first and record an observation before the handoff arrives. The handoff is then merged
+ * with it, keeping the later state and every score, but the alert already given for that
+ * observation did not see the handed off scores. Handoffs are not written to the ObservationLog.
+ * Ward membership is only kept in memory, it is neither logged nor handed off, so a patient
+ * is back on no ward after a restart or a move until an observation names their ward again.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class ScoringServer {
+    public static final int DEFAULT_PORT = 8080;
+
+    static {
+        // The built-in server writes the headers and the body separately, without TCP_NODELAY
+        // Nagle's algorithm holds the body back until the client's delayed ACK, adding ~40 ms per request
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final PatientRegistry registry;
+    private final ObservationLog log;
+    private final WardAggregates wards = new WardAggregates();
+    // This shard's name and ring, both null until the server is told it is a shard
+    private volatile String shardName;
+    private volatile HashRing ring;
+    // Scoring holds the read lock, a ring change and its handoff the write lock
+    private final ReentrantReadWriteLock ringLock = new ReentrantReadWriteLock();
+
+    public ScoringServer(int port, PatientRegistry registry) throws IOException {
+        this(port, registry, null);
+    }
+
+    // log may be null, otherwise every recorded observation is appended to it
+    public ScoringServer(int port, PatientRegistry registry, ObservationLog log) throws IOException {
+        this.registry = registry;
+        this.log = log;
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/score", exchange -> handle(exchange, false));
+        server.createContext("/score/batch", exchange -> handle(exchange, true));
+        server.createContext("/metrics", this::metrics);
+        server.createContext("/shard/ring", this::ring);
+        server.createContext("/shard/import", this::importPatients);
+        server.createContext("/wards", this::wards);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.close();
+    }
+
+    // The ward statistics kept from the observations this server records
+    public WardAggregates wards() {
+        return wards;
+    }
+
+    // The port actually bound, useful when started on port 0
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange, boolean batch) throws IOException {
+        long start = Metrics.start();
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                send(exchange, 405, error("Only POST is supported."));
+                return;
+            }
+            String body;
+            try (InputStream input = exchange.getRequestBody()) {
+                body = new String(input.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            StringBuilder response = new StringBuilder(batch ? 512 : 256);
+            ringLock.readLock().lock();
+            try {
+                if (batch) {
+                    List<Map<String, Object>> observations = Json.parseArray(body);
+                    Row[] rows = new Row[observations.size()];
+                    int[] invalidFields = new int[rows.length];
+                    for (int i = 0; i < rows.length; i++) {
+                        try {
+                            rows[i] = row(observations.get(i), invalidFields, i);
+                        } catch (IllegalArgumentException e) {
+                            throw new IllegalArgumentException("Observation " + i + ": " + e.getMessage());
+                        }
+                    }
+                    for (int i = 0; i < rows.length; i++) {
+                        if (invalidFields[i] != 0) {
+                            throw new IllegalArgumentException("Observation " + i + ": " + ObservationValidator.message(invalidFields[i]));
+                        }
+                    }
+                    response.append('[');
+                    for (int i = 0; i < rows.length; i++) {
+                        if (i > 0) {
+                            response.append(',');
+                        }
+                        appendResult(response, rows[i]);
+                    }
+                    response.append(']');
+                } else {
+                    int[] invalidFields = new int[1];
+                    Row row = row(Json.parseObject(body), invalidFields, 0);
+                    ObservationValidator.requireValid(invalidFields[0]);
+                    appendResult(response, row);
+                }
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, error(e.getMessage()));
+                return;
+            } finally {
+                ringLock.readLock().unlock();
+                if (log != null) {
+                    log.flush();
+                }
+            }
+            send(exchange, 200, response.toString());
+        } finally {
+            Metrics.recordSince(Metrics.REQUEST_LATENCY, start);
+        }
+    }
+
+    // Serves the metrics as plain text for a scraper
+    private void metrics(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                send(exchange, 405, error("Only GET is supported."));
+                return;
+            }
+            send(exchange, 200, "text/plain; version=0.0.4; charset=utf-8", Metrics.appendText(new StringBuilder(2048)).toString());
+        }
+    }
+
+    // One observation of a request, checked against the ring but not yet recorded
+    // patientId and ward are null when the observation names no patient or ward
+    private record Row(Observation observation, Long patientId, String ward) {
+    }
+
+    // Reads one observation object and checks that this shard owns its patient, without recording anything
+    // The readings are validated into invalidFields[index] rather than thrown, and are only rounded
+    // into the observation when they are valid, otherwise the row's observation is null
+    private Row row(Map<String, Object> fields, int[] invalidFields, int index) {
+        int airOrOxygenObs = intField(fields, "airOrOxygen");
+        int consciousnessObs = intField(fields, "consciousness");
+        int respirationRange = intField(fields, "respirationRange");
+        int spo2 = intField(fields, "spo2");
+        float temperature = (float) numberField(fields, "temperature");
+        float CBG = (float) numberField(fields, "CBG");
+        boolean isFasting = booleanField(fields, "fasting");
+        long timestamp = fields.get("timestamp") == null ? System.currentTimeMillis() : (long) numberField(fields, "timestamp");
+
+        int invalid = ObservationValidator.invalidFields(airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperature, CBG);
+        invalidFields[index] = invalid;
+        Observation observation = invalid != 0 ? null
+                : Observation.ofValidated(airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperature, CBG, isFasting, timestamp);
+
+        if (fields.get("patientId") == null) {
+            return new Row(observation, null, null);
+        }
+        long patientId = (long) numberField(fields, "patientId");
+        HashRing currentRing = ring;
+        if (currentRing != null && !currentRing.owner(patientId).equals(shardName)) {
+            throw new IllegalArgumentException("Patient " + patientId + " belongs to shard " + currentRing.owner(patientId) + ".");
+        }
+        Object ward = fields.get("ward");
+        if (ward != null && !(ward instanceof String)) {
+            throw new IllegalArgumentException("Invalid ward value.");
+        }
+        return new Row(observation, patientId, (String) ward);
+    }
+
+    // Scores a checked observation, records it if it names a patient, and appends the result object
+    private void appendResult(StringBuilder out, Row row) throws IOException {
+        Observation observation = row.observation();
+        int packed;
+        PatientState state = null;
+        if (row.patientId() != null) {
+            if (row.ward() != null) {
+                wards.assign(row.patientId(), row.ward());
+            }
+            state = registry.record(row.patientId(), observation, this::recorded);
+            packed = state.packedScores();
+        } else {
+            packed = observation.score();
+        }
+
+        out.append("{\"airOrOxygenScore\":").append(MediScore.airOrOxygenScoreOf(packed))
+                .append(",\"consciousnessScore\":").append(MediScore.consciousnessScoreOf(packed))
+                .append(",\"respirationRangeScore\":").append(MediScore.respirationScoreOf(packed))
+                .append(",\"spo2Score\":").append(MediScore.spo2ScoreOf(packed))
+                .append(",\"temperatureScore\":").append(MediScore.temperatureScoreOf(packed))
+                .append(",\"CBGScore\":").append(MediScore.cbgScoreOf(packed))
+                .append(",\"finalScore\":").append(MediScore.finalScoreOf(packed))
+                .append(",\"comments\":{\"airOrOxygen\":");
+        Json.appendString(out, Comments.airOrOxygen(observation.airOrOxygenObs())).append(",\"consciousness\":");
+        Json.appendString(out, Comments.consciousness(observation.consciousnessObs())).append(",\"spo2\":");
+        Json.appendString(out, Comments.spo2(observation.airOrOxygenObs(), observation.spo2())).append(",\"CBG\":");
+        Json.appendString(out, Comments.cbgTenths(observation.cbgTenths(), observation.isFasting())).append('}');
+        if (state != null) {
+            out.append(",\"patientId\":").append(state.patientId())
+                    .append(",\"alert\":\"").append(state.alert()).append('"');
+        }
+        out.append('}');
+    }
+
+    // Called with the patient's record locked, so the wards and the log see each patient's states in registry order
+    private void recorded(PatientState state) throws IOException {
+        wards.record(state);
+        if (log != null) {
+            log.append(state);
+        }
+    }
+
+    // Joins a new ring, handing off the patients this shard no longer owns before answering
+    private void ring(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                send(exchange, 405, error("Only POST is supported."));
+                return;
+            }
+            String self = null;
+            List<String> shards = new ArrayList<>();
+            try (InputStream input = exchange.getRequestBody()) {
+                for (String line : new String(input.readAllBytes(), StandardCharsets.UTF_8).split("\n")) {
+                    String trimmed = line.trim();
+                    if (trimmed.startsWith("self ")) {
+                        self = trimmed.substring(5).trim();
+                    } else if (trimmed.startsWith("shard ")) {
+                        shards.add(trimmed.substring(6).trim());
+                    } else if (!trimmed.isEmpty()) {
+                        send(exchange, 400, error("Unexpected ring line: " + trimmed));
+                        return;
+                    }
+                }
+            }
+            HashRing newRing;
+            try {
+                if (self == null) {
+                    throw new IllegalArgumentException("Missing self line.");
+                }
+                newRing = new HashRing(shards);
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, error(e.getMessage()));
+                return;
+            }
+            int handedOff;
+            ringLock.writeLock().lock();
+            try {
+                handedOff = handOff(self, newRing);
+                shardName = self;
+                ring = newRing;
+            } catch (IOException e) {
+                send(exchange, 502, error("Handoff failed: " + e.getMessage()));
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                send(exchange, 503, error("Handoff interrupted."));
+                return;
+            } finally {
+                ringLock.writeLock().unlock();
+            }
+            send(exchange, 200, "{\"handedOff\":" + handedOff + ",\"patients\":" + registry.size() + "}");
+        }
+    }
+
+    // Sends every patient owned by another shard in the new ring to that shard, then forgets them
+    private int handOff(String self, HashRing newRing) throws IOException, InterruptedException {
+        Map<String, List<PatientHandoff>> byOwner = new HashMap<>();
+        for (PatientHandoff handoff : registry.export(id -> !newRing.owner(id).equals(self))) {
+            byOwner.computeIfAbsent(newRing.owner(handoff.patientId()), owner -> new ArrayList<>()).add(handoff);
+        }
+        if (byOwner.isEmpty()) {
+            return 0;
+        }
+        int handedOff = 0;
+        try (HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build()) {
+            for (Map.Entry<String, List<PatientHandoff>> entry : byOwner.entrySet()) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (DataOutputStream out = new DataOutputStream(bytes)) {
+                    for (PatientHandoff handoff : entry.getValue()) {
+                        handoff.write(out);
+                    }
+                }
+                HttpRequest request = HttpRequest.newBuilder(URI.create(entry.getKey() + "/shard/import"))
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(bytes.toByteArray()))
+                        .header("Content-Type", "application/octet-stream")
+                        .build();
+                HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() != 200) {
+                    throw new IOException(entry.getKey() + " answered " + response.statusCode() + " " + response.body());
+                }
+                for (PatientHandoff handoff : entry.getValue()) {
+                    registry.remove(handoff.patientId());
+                    wards.discharge(handoff.patientId());
+                }
+                handedOff += entry.getValue().size();
+            }
+        }
+        return handedOff;
+    }
+
+    // Serves the ward statistics, a summary of every ward or one ward in full
+    private void wards(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                send(exchange, 405, error("Only GET is supported."));
+                return;
+            }
+            long now = System.currentTimeMillis();
+            String path = exchange.getRequestURI().getPath();
+            String name = path.length() > "/wards/".length() ? path.substring("/wards/".length()) : null;
+            StringBuilder out = new StringBuilder(256);
+            if (name == null) {
+                out.append("{\"wards\":[");
+                for (String ward : wards.wards()) {
+                    WardAggregates.Snapshot snapshot = wards.snapshot(ward, 0, now);
+                    if (out.charAt(out.length() - 1) != '[') {
+                        out.append(',');
+                    }
+                    appendWard(out, snapshot).append('}');
+                }
+                send(exchange, 200, out.append("]}").toString());
+                return;
+            }
+            int worst;
+            try {
+                String query = exchange.getRequestURI().getQuery();
+                worst = query != null && query.startsWith("worst=") ? Integer.parseInt(query.substring("worst=".length())) : 10;
+                if (worst < 0) {
+                    throw new NumberFormatException();
+                }
+            } catch (NumberFormatException e) {
+                send(exchange, 400, error("Invalid worst value."));
+                return;
+            }
+            WardAggregates.Snapshot snapshot = wards.snapshot(name, worst, now);
+            if (snapshot == null) {
+                send(exchange, 404, error("Unknown ward " + name + "."));
+                return;
+            }
+            appendWard(out, snapshot).append(",\"histogram\":[");
+            int[] histogram = snapshot.histogram();
+            for (int score = 0; score < histogram.length; score++) {
+                out.append(score > 0 ? "," : "").append(histogram[score]);
+            }
+            out.append("],\"worst\":[");
+            for (int i = 0; i < snapshot.worst().size(); i++) {
+                WardAggregates.Ranked ranked = snapshot.worst().get(i);
+                out.append(i > 0 ? "," : "").append("{\"patientId\":").append(ranked.patientId())
+                        .append(",\"finalScore\":").append(ranked.finalScore()).append('}');
+            }
+            send(exchange, 200, out.append("]}").toString());
+        }
+    }
+
+    // Appends the fields every ward summary has, leaving the object open
+    private static StringBuilder appendWard(StringBuilder out, WardAggregates.Snapshot snapshot) {
+        out.append("{\"ward\":");
+        return Json.appendString(out, snapshot.ward())
+                .append(",\"patients\":").append(snapshot.patients())
+                .append(",\"scored\":").append(snapshot.scored())
+                .append(",\"highRisk\":").append(snapshot.highRisk())
+                .append(",\"alertsLastHour\":").append(snapshot.alertsLastHour());
+    }
+
+    // Adopts patients handed off by another shard
+    private void importPatients(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                send(exchange, 405, error("Only POST is supported."));
+                return;
+            }
+            byte[] body;
+            try (InputStream input = exchange.getRequestBody()) {
+                body = input.readAllBytes();
+            }
+            List<PatientHandoff> handoffs = new ArrayList<>();
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(body))) {
+                while (in.available() > 0) {
+                    handoffs.add(PatientHandoff.read(in));
+                }
+            } catch (IOException e) {
+                send(exchange, 400, error("Invalid handoff: " + e.getMessage()));
+                return;
+            }
+            for (PatientHandoff handoff : handoffs) {
+                registry.adopt(handoff);
+            }
+            send(exchange, 200, "{\"adopted\":" + handoffs.size() + "}");
+        }
+    }
+
+    private static double numberField(Map<String, Object> fields, String name) {
+        if (fields.get(name) instanceof Double value) {
+            return value;
+        }
+        throw new IllegalArgumentException("Missing or invalid " + name + " value.");
+    }
+
+    private static int intField(Map<String, Object> fields, String name) {
+        double value = numberField(fields, name);
+        if (value != Math.rint(value) || Math.abs(value) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid " + name + " value.");
+        }
+        return (int) value;
+    }
+
+    private static boolean booleanField(Map<String, Object> fields, String name) {
+        if (fields.get(name) instanceof Boolean value) {
+            return value;
+        }
+        throw new IllegalArgumentException("Missing or invalid " + name + " value.");
+    }
+
+    private static String error(String message) {
+        return Json.appendString(new StringBuilder("{\"error\":"), message).append('}').toString();
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        send(exchange, status, "application/json", body);
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        PatientRegistry registry = new PatientRegistry();
+        ObservationLog log = null;
+        Metrics.registerMBean();
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--log")) {
+                Path logPath = Path.of(args[i + 1]);
+                long replayed = ObservationLog.replay(logPath, registry);
+                System.out.println("Replayed " + replayed + " observations for " + registry.size() + " patients from " + logPath);
+                log = new ObservationLog(logPath);
+            } else if (args[i].equals("--bands")) {
+                BandConfigWatcher.start(Path.of(args[i + 1]));
+                System.out.println("Scoring with bands " + ScoringBands.current().version() + " from " + args[i + 1]);
+            } else {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        ScoringServer server = new ScoringServer(port, registry, log);
+        server.start();
+        System.out.println("MediScore scoring service listening on port " + server.port());
+    }
+}
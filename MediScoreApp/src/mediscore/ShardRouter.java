@@ -0,0 +1,359 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: ShardRouter.java
+ * Author: Christopher Fairhurst
+ * Description: Routes observations to the ScoringServer shard that owns each patient.
+ * ------------------------------------------------------------------------------
+ * Key Features:
+ * Patients are split between shards by a HashRing of the shards' base URLs, so each
+ * patient's state and 24-hour history live on exactly one shard.
+ * A batch is split by owner and the parts are posted to /score/batch on every owning
+ * shard at once, so throughput grows with the number of shards.
+ * Every observation is validated before any part is sent, so a bad observation records
+ * nothing anywhere. A shard records its part whole or not at all, and if some shards
+ * fail after others have recorded their parts, PartialBatchException says which did.
+ * reshard tells every shard, old and new, about the new ring. Each shard hands the
+ * patients it no longer owns, with their history, straight to the new owner. Scoring
+ * through this router waits until the handoff is complete, and each shard holds back
+ * observations during its own handoff, so no observation reaches a patient while they
+ * are moving.
+ * If a shard fails to take the new ring, every shard is put back on the old one, which
+ * hands any patient that already moved back to its old owner. If that fails too the
+ * shards disagree about the ring: isMixed is true and score fails until a reshard succeeds.
+ * ------------------------------------------------------------------------------
+ * Usage, with shards started as ScoringServer on their own ports:
+ * java -cp target/classes mediscore.ShardRouter reshard <shard url>... [--remove <shard url>...]
+ * java -cp target/classes mediscore.ShardRouter load <clients> <seconds> <batchSize> <shard url>...
+ * reshard joins the listed shards into one ring, --remove lists shards leaving the ring,
+ * whose patients are handed to the remaining shards. It does not know the old ring, so on
+ * a failure it lists the shards already on the new ring and exits with status 1, and the
+ * same command should be run again. Routers in other processes keep their old ring, the
+ * shards reject what they send for patients who moved until they are given the new one.
+ * load drives randomised observations through the router and reports the throughput.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class ShardRouter implements AutoCloseable {
+    private final HttpClient client;
+    // Scoring holds the read lock, resharding the write lock
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile HashRing ring;
+    // Set when a failed reshard could not be rolled back, unsettled holds the shards that may still be on the new ring
+    private volatile boolean mixed;
+    private final Set<String> unsettled = new LinkedHashSet<>();
+
+    // Thrown by score when some shards recorded their part of the batch and others did not
+    // A shard that answered with an error recorded none of its part, one that could not be
+    // reached may or may not have, so only the parts of the failed shards need sending again
+    public static final class PartialBatchException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final String[] results;
+
+        PartialBatchException(String message, IOException cause, String[] results) {
+            super(message, cause);
+            this.results = results;
+        }
+
+        // As score returns, with null for the shards that failed as well as those sent nothing
+        public String[] results() {
+            return results.clone();
+        }
+    }
+
+    // Routes with the given ring, the shards are expected to have been told it already
+    public ShardRouter(List<String> shards) {
+        this.ring = new HashRing(shards);
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+
+    public HashRing ring() {
+        return ring;
+    }
+
+    // Whether a failed reshard left the shards on different rings, scoring fails until a reshard succeeds
+    public boolean isMixed() {
+        return mixed;
+    }
+
+    // Scores a batch, sending each observation to the shard that owns its patient
+    // Returns the JSON array each shard answered with, in the order of ring().nodes(), or null for a shard that was sent nothing
+    // Throws IllegalArgumentException, having sent nothing, if any observation is invalid
+    public String[] score(List<ObservationParser.RawObservation> batch) throws IOException, InterruptedException {
+        for (int i = 0; i < batch.size(); i++) {
+            int invalidFields = batch.get(i).invalidFields();
+            if (invalidFields != 0) {
+                throw new IllegalArgumentException("Observation " + i + ": " + ObservationValidator.message(invalidFields));
+            }
+        }
+        lock.readLock().lockInterruptibly();
+        try {
+            if (mixed) {
+                throw new IOException("The shards disagree about the ring after a failed reshard, reshard again.");
+            }
+            HashRing current = ring;
+            int shards = current.nodes().size();
+            StringBuilder[] bodies = new StringBuilder[shards];
+            for (ObservationParser.RawObservation observation : batch) {
+                int owner = current.ownerIndex(observation.patientId());
+                StringBuilder body = bodies[owner];
+                if (body == null) {
+                    body = bodies[owner] = new StringBuilder(batch.size() * 160 / shards + 16).append('[');
+                } else {
+                    body.append(',');
+                }
+                appendObservation(body, observation);
+            }
+            List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>(shards);
+            for (int i = 0; i < shards; i++) {
+                if (bodies[i] == null) {
+                    responses.add(null);
+                    continue;
+                }
+                HttpRequest request = HttpRequest.newBuilder(URI.create(current.nodes().get(i) + "/score/batch"))
+                        .POST(HttpRequest.BodyPublishers.ofString(bodies[i].append(']').toString()))
+                        .header("Content-Type", "application/json")
+                        .build();
+                responses.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+            }
+            // Every answer is waited for, so the caller learns which shards recorded their part
+            String[] results = new String[shards];
+            IOException failure = null;
+            int sent = 0;
+            int recorded = 0;
+            for (int i = 0; i < shards; i++) {
+                if (responses.get(i) == null) {
+                    continue;
+                }
+                sent++;
+                try {
+                    results[i] = body(current.nodes().get(i), responses.get(i).join());
+                    recorded++;
+                } catch (CompletionException e) {
+                    failure = failure(failure, new IOException(current.nodes().get(i) + ": " + e.getCause(), e.getCause()));
+                } catch (IOException e) {
+                    failure = failure(failure, e);
+                }
+            }
+            if (failure == null) {
+                return results;
+            }
+            if (recorded == 0) {
+                throw failure;
+            }
+            throw new PartialBatchException(recorded + " of " + sent + " shards recorded their part, " + failure.getMessage(), failure, results);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Moves to a new set of shards, handing every moving patient's state and history to its new owner
+    // Shards in the old ring that are missing from the new one hand all of their patients away
+    // If any shard fails, every shard is put back on the old ring before the failure is thrown
+    // Returns the number of patients that moved
+    public long reshard(List<String> shards) throws IOException, InterruptedException {
+        lock.writeLock().lockInterruptibly();
+        try {
+            HashRing oldRing = ring;
+            HashRing newRing = new HashRing(shards);
+            Set<String> everyShard = new LinkedHashSet<>(shards);
+            everyShard.addAll(oldRing.nodes());
+            everyShard.addAll(unsettled);
+            long moved;
+            try {
+                moved = announce(client, newRing, everyShard);
+            } catch (IOException e) {
+                rollBack(oldRing, everyShard, e);
+                throw e;
+            }
+            ring = newRing;
+            mixed = false;
+            unsettled.clear();
+            return moved;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Puts every shard back on the old ring, which hands the patients that already moved back to their old owners
+    // Every shard is tried even if some fail, those failures are added to the reshard's and leave the ring mixed
+    // A new shard that refuses the connection is not running, so it holds no patients and is left out
+    private void rollBack(HashRing oldRing, Set<String> everyShard, IOException failure) throws InterruptedException {
+        Set<String> failed = new LinkedHashSet<>();
+        for (String shard : everyShard) {
+            try {
+                announce(client, oldRing, shard);
+            } catch (IOException e) {
+                failure.addSuppressed(e);
+                if (oldRing.nodes().contains(shard) || !(e.getCause() instanceof ConnectException)) {
+                    failed.add(shard);
+                }
+            }
+        }
+        if (!failed.isEmpty()) {
+            // The next reshard has to reach every shard that may still be on the new ring
+            mixed = true;
+            unsettled.addAll(failed);
+        }
+    }
+
+    // Sends the ring to each shard in turn and adds up how many patients each handed off
+    // Stops at the first shard that fails, naming the shards that had already taken the ring
+    private static long announce(HttpClient client, HashRing ring, Iterable<String> shards) throws IOException, InterruptedException {
+        long moved = 0;
+        List<String> announced = new ArrayList<>();
+        for (String shard : shards) {
+            try {
+                moved += announce(client, ring, shard);
+            } catch (IOException e) {
+                throw new IOException("Shards on the new ring " + announced + ", failed at " + e.getMessage(), e);
+            }
+            announced.add(shard);
+        }
+        return moved;
+    }
+
+    // Sends the ring to one shard and returns how many patients it handed off
+    private static long announce(HttpClient client, HashRing ring, String shard) throws IOException, InterruptedException {
+        StringBuilder body = new StringBuilder("self ").append(shard).append('\n');
+        for (String node : ring.nodes()) {
+            body.append("shard ").append(node).append('\n');
+        }
+        HttpRequest request = HttpRequest.newBuilder(URI.create(shard + "/shard/ring"))
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .header("Content-Type", "text/plain")
+                .build();
+        HttpResponse<String> response;
+        try {
+            response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        } catch (IOException e) {
+            throw new IOException(shard + ": " + e, e);
+        }
+        Object handedOff = Json.parseObject(body(shard, response)).get("handedOff");
+        return handedOff instanceof Double count ? count.longValue() : 0;
+    }
+
+    // Keeps the first failure and adds the rest to it as suppressed
+    private static IOException failure(IOException first, IOException next) {
+        if (first == null) {
+            return next;
+        }
+        first.addSuppressed(next);
+        return first;
+    }
+
+    private static String body(String shard, HttpResponse<String> response) throws IOException {
+        if (response.statusCode() != 200) {
+            throw new IOException(shard + " answered " + response.statusCode() + " " + response.body());
+        }
+        return response.body();
+    }
+
+    // Writes an observation in the form ScoringServer reads
+    static StringBuilder appendObservation(StringBuilder out, ObservationParser.RawObservation observation) {
+        return out.append("{\"patientId\":").append(observation.patientId())
+                .append(",\"airOrOxygen\":").append(observation.airOrOxygenObs())
+                .append(",\"consciousness\":").append(observation.consciousnessObs())
+                .append(",\"respirationRange\":").append(observation.respirationRange())
+                .append(",\"spo2\":").append(observation.spo2())
+                .append(",\"temperature\":").append(observation.temperature())
+                .append(",\"CBG\":").append(observation.CBG())
+                .append(",\"fasting\":").append(observation.isFasting())
+                .append(",\"timestamp\":").append(observation.timestamp())
+                .append('}');
+    }
+
+    @Override
+    public void close() {
+        client.close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length >= 2 && args[0].equals("reshard")) {
+            List<String> shards = new ArrayList<>();
+            List<String> removed = new ArrayList<>();
+            List<String> target = shards;
+            for (int i = 1; i < args.length; i++) {
+                if (args[i].equals("--remove")) {
+                    target = removed;
+                } else {
+                    target.add(args[i]);
+                }
+            }
+            Set<String> everyShard = new LinkedHashSet<>(shards);
+            everyShard.addAll(removed);
+            try (HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build()) {
+                long moved = announce(client, new HashRing(shards), everyShard);
+                System.out.println("Ring of " + shards.size() + " shards, " + moved + " patients handed off");
+            } catch (IOException e) {
+                System.err.println("Reshard failed, run it again. " + e.getMessage());
+                System.exit(1);
+            }
+        } else if (args.length >= 5 && args[0].equals("load")) {
+            load(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+                    Arrays.asList(args).subList(4, args.length));
+        } else {
+            System.err.println("Usage: ShardRouter reshard <shard url>... [--remove <shard url>...]");
+            System.err.println("       ShardRouter load <clients> <seconds> <batchSize> <shard url>...");
+        }
+    }
+
+    // Closed-loop clients sending batches of random observations for 100,000 patients through one router
+    private static void load(int clients, int seconds, int batchSize, List<String> shards) throws InterruptedException {
+        AtomicLong observations = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        try (ShardRouter router = new ShardRouter(shards)) {
+            long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+            List<Thread> threads = new ArrayList<>(clients);
+            for (int c = 0; c < clients; c++) {
+                SplittableRandom random = new SplittableRandom(42 + c);
+                threads.add(Thread.ofVirtual().start(() -> {
+                    while (System.nanoTime() < deadline) {
+                        List<ObservationParser.RawObservation> batch = new ArrayList<>(batchSize);
+                        long now = System.currentTimeMillis();
+                        for (int i = 0; i < batchSize; i++) {
+                            batch.add(new ObservationParser.RawObservation(random.nextInt(100_000), random.nextBoolean() ? 0 : 2,
+                                    random.nextInt(4), random.nextInt(5, 35), random.nextInt(80, 101),
+                                    random.nextInt(340, 410) / 10.0f, random.nextInt(30, 110) / 10.0f, random.nextBoolean(), now));
+                        }
+                        try {
+                            router.score(batch);
+                            observations.addAndGet(batchSize);
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+        System.out.println("Shards:        " + shards.size());
+        System.out.println("Clients:       " + clients + ", batch size " + batchSize + ", " + seconds + " s");
+        System.out.printf("Throughput:    %.0f observations/s, %d failed batches%n", observations.get() / (double) seconds, errors.get());
+    }
+}
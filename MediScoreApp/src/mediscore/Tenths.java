@@ -0,0 +1,41 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: Tenths.java
+ * Author: Christopher Fairhurst
+ * Description: Fixed-point tenths for temperature and CBG.
+ * ------------------------------------------------------------------------------
+ * Temperature and CBG are only ever used to one decimal place, so they are held as an
+ * int count of tenths from the moment a reading comes in: 37.2 is 372 and 3.9 is 39.
+ * Scoring, comments, packing and rendering all work on the int, so no float comparison
+ * or rounding happens after the reading is taken and every JVM gets the same answer.
+ * of is the one place a float reading is rounded, exactly as Patient always rounded it.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+public final class Tenths {
+    // Below this every tenths value prints the same as the float it used to be stored as
+    private static final int PLAIN_DIGITS_LIMIT = 1_000_000;
+
+    private Tenths() {
+    }
+
+    // Rounds a reading to the nearest tenth, the same as Math.round(x * 10) / 10.0f did
+    public static int of(float value) {
+        return Math.round(value * 10);
+    }
+
+    // The reading as the float Patient used to store
+    public static float toFloat(int tenths) {
+        return tenths / 10.0f;
+    }
+
+    // Appends the reading exactly as appending toFloat(tenths) would, for example 37.2 or 4.0
+    public static StringBuilder append(StringBuilder out, int tenths) {
+        if (tenths < 0 || tenths >= PLAIN_DIGITS_LIMIT) {
+            return out.append(toFloat(tenths));
+        }
+        return out.append(tenths / 10).append('.').append((char) ('0' + tenths % 10));
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: WardAggregates.java
+ * Author: Christopher Fairhurst
+ * Description: Live per-ward statistics kept up to date as each patient's score changes.
+ * ------------------------------------------------------------------------------
+ * Key Features:
+ * Each ward keeps a histogram of its patients' latest final scores, the number of
+ * patients scoring HIGH_SCORE or more, the alerts raised in each of the last 60 minutes
+ * and its patients ordered from the worst score down.
+ * A new score only moves the patient from one histogram bucket to another and re-sorts
+ * them, so recording costs O(log n) in the ward's size and nothing is ever recomputed
+ * by visiting every patient.
+ * Reading the histogram, the high score count or the last hour's alerts costs O(1),
+ * and the worst N patients O(log n + N).
+ * Each ward has its own lock, so wards are updated and read independently.
+ * ------------------------------------------------------------------------------
+ * Usage:
+ * WardAggregates wards = new WardAggregates();
+ * wards.assign(patientId, "Ward 7");
+ * wards.record(registry.record(patientId, observation));
+ * When a patient can be recorded from more than one thread, record from the registry's
+ * StateListener instead, registry.record(patientId, observation, wards::record), so the
+ * ward sees the patient's scores in the order the registry applied them.
+ * WardAggregates.Snapshot snapshot = wards.snapshot("Ward 7", 10, System.currentTimeMillis());
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class WardAggregates {
+    // Patients at or above this final score are counted as high risk
+    public static final int HIGH_SCORE = 5;
+    // Final scores above this are counted in the top bucket of the histogram
+    public static final int MAX_SCORE = 18;
+
+    private static final long MINUTE = 60_000L;
+    private static final int ALERT_MINUTES = 60;
+
+    // A patient in the worst patients list
+    public record Ranked(long patientId, int finalScore) {
+    }
+
+    // A ward's statistics at one moment
+    // histogram[s] is the number of patients whose latest final score is s, the last bucket counts MAX_SCORE and above
+    public record Snapshot(String ward, int patients, int scored, int[] histogram, int highRisk, int alertsLastHour, List<Ranked> worst) {
+    }
+
+    // One patient's place in a ward, changed only while holding the member's monitor and then the ward's
+    private static final class Member {
+        final long patientId;
+        Ward ward;
+        int finalScore = PatientState.NO_PREVIOUS_SCORE;
+
+        Member(long patientId) {
+            this.patientId = patientId;
+        }
+    }
+
+    // Worst score first, ties broken by patient id so every member has one place
+    private static final Comparator<Member> WORST_FIRST = (a, b) -> a.finalScore != b.finalScore
+            ? Integer.compare(b.finalScore, a.finalScore)
+            : Long.compare(a.patientId, b.patientId);
+
+    private static final class Ward {
+        final String name;
+        final int[] histogram = new int[MAX_SCORE + 1];
+        final TreeSet<Member> ranked = new TreeSet<>(WORST_FIRST);
+        // Alerts per minute, the minute each slot holds and its count
+        final long[] alertMinute = new long[ALERT_MINUTES];
+        final int[] alertCount = new int[ALERT_MINUTES];
+        int patients;
+        int highRisk;
+
+        Ward(String name) {
+            this.name = name;
+        }
+
+        // Moves a member to a new score, or adds their first one
+        void score(Member member, int finalScore) {
+            if (member.finalScore == finalScore) {
+                return;
+            }
+            if (member.finalScore != PatientState.NO_PREVIOUS_SCORE) {
+                unscore(member);
+            }
+            member.finalScore = finalScore;
+            histogram[Math.min(finalScore, MAX_SCORE)]++;
+            if (finalScore >= HIGH_SCORE) {
+                highRisk++;
+            }
+            ranked.add(member);
+        }
+
+        void unscore(Member member) {
+            ranked.remove(member);
+            histogram[Math.min(member.finalScore, MAX_SCORE)]--;
+            if (member.finalScore >= HIGH_SCORE) {
+                highRisk--;
+            }
+        }
+
+        void add(Member member) {
+            patients++;
+            if (member.finalScore != PatientState.NO_PREVIOUS_SCORE) {
+                int finalScore = member.finalScore;
+                member.finalScore = PatientState.NO_PREVIOUS_SCORE;
+                score(member, finalScore);
+            }
+        }
+
+        void remove(Member member) {
+            patients--;
+            if (member.finalScore != PatientState.NO_PREVIOUS_SCORE) {
+                unscore(member);
+            }
+        }
+
+        // Counts an alert in its minute, an alert older than everything kept is dropped
+        void alert(long timestamp) {
+            long minute = Math.floorDiv(timestamp, MINUTE);
+            int slot = Math.floorMod(minute, ALERT_MINUTES);
+            if (alertMinute[slot] < minute || alertCount[slot] == 0) {
+                alertMinute[slot] = minute;
+                alertCount[slot] = 0;
+            } else if (alertMinute[slot] > minute) {
+                return;
+            }
+            alertCount[slot]++;
+        }
+
+        int alertsLastHour(long now) {
+            long nowMinute = Math.floorDiv(now, MINUTE);
+            int alerts = 0;
+            for (int slot = 0; slot < ALERT_MINUTES; slot++) {
+                long minute = alertMinute[slot];
+                if (minute > nowMinute - ALERT_MINUTES && minute <= nowMinute) {
+                    alerts += alertCount[slot];
+                }
+            }
+            return alerts;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Ward> wards = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Member> members = new ConcurrentHashMap<>();
+
+    // Puts the patient on a ward, moving them and their latest score from any ward they were on
+    public void assign(long patientId, String ward) {
+        if (ward == null || ward.isEmpty()) {
+            throw new IllegalArgumentException("Invalid ward value.");
+        }
+        Ward target = wards.computeIfAbsent(ward, Ward::new);
+        while (true) {
+            Member member = members.computeIfAbsent(patientId, Member::new);
+            synchronized (member) {
+                if (members.get(patientId) != member) {
+                    // Discharged while we were waiting, start again with a new member
+                    continue;
+                }
+                if (member.ward == target) {
+                    return;
+                }
+                if (member.ward != null) {
+                    synchronized (member.ward) {
+                        member.ward.remove(member);
+                    }
+                }
+                member.ward = target;
+                synchronized (target) {
+                    target.add(member);
+                }
+                return;
+            }
+        }
+    }
+
+    // Applies a patient's new state to their ward, doing nothing for a patient on no ward
+    // A raised alert is counted in the minute of the observation
+    public void record(PatientState state) {
+        Member member = members.get(state.patientId());
+        if (member == null) {
+            return;
+        }
+        synchronized (member) {
+            Ward ward = member.ward;
+            if (ward == null) {
+                return;
+            }
+            synchronized (ward) {
+                ward.score(member, state.finalScore());
+                if (state.alert() == ScoreAlert.RAISED) {
+                    ward.alert(state.timestamp());
+                }
+            }
+        }
+    }
+
+    // Takes the patient off their ward, returning false if they were not on one
+    public boolean discharge(long patientId) {
+        Member member = members.remove(patientId);
+        if (member == null) {
+            return false;
+        }
+        synchronized (member) {
+            if (member.ward != null) {
+                synchronized (member.ward) {
+                    member.ward.remove(member);
+                }
+                member.ward = null;
+            }
+        }
+        return true;
+    }
+
+    // The ward the patient is on, or null
+    public String wardOf(long patientId) {
+        Member member = members.get(patientId);
+        if (member == null) {
+            return null;
+        }
+        synchronized (member) {
+            return member.ward == null ? null : member.ward.name;
+        }
+    }
+
+    // Every ward that has had a patient assigned
+    public Set<String> wards() {
+        return wards.keySet();
+    }
+
+    // Number of patients on the ward scoring at least HIGH_SCORE
+    public int highRisk(String ward) {
+        Ward aggregates = wards.get(ward);
+        if (aggregates == null) {
+            return 0;
+        }
+        synchronized (aggregates) {
+            return aggregates.highRisk;
+        }
+    }
+
+    // Number of raised alerts on the ward in the hour up to now
+    public int alertsLastHour(String ward, long now) {
+        Ward aggregates = wards.get(ward);
+        if (aggregates == null) {
+            return 0;
+        }
+        synchronized (aggregates) {
+            return aggregates.alertsLastHour(now);
+        }
+    }
+
+    // The ward's patients with the highest latest scores, worst first
+    public List<Ranked> worst(String ward, int count) {
+        Ward aggregates = wards.get(ward);
+        if (aggregates == null) {
+            return List.of();
+        }
+        synchronized (aggregates) {
+            return worst(aggregates, count);
+        }
+    }
+
+    // All of the ward's statistics read together, or null for a ward that has never had a patient
+    public Snapshot snapshot(String ward, int worst, long now) {
+        Ward aggregates = wards.get(ward);
+        if (aggregates == null) {
+            return null;
+        }
+        synchronized (aggregates) {
+            return new Snapshot(aggregates.name, aggregates.patients, aggregates.ranked.size(), aggregates.histogram.clone(),
+                    aggregates.highRisk, aggregates.alertsLastHour(now), worst(aggregates, worst));
+        }
+    }
+
+    private static List<Ranked> worst(Ward ward, int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Invalid count value.");
+        }
+        List<Ranked> worst = new ArrayList<>(Math.min(count, ward.ranked.size()));
+        Iterator<Member> members = ward.ranked.iterator();
+        while (worst.size() < count && members.hasNext()) {
+            Member member = members.next();
+            worst.add(new Ranked(member.patientId, member.finalScore));
+        }
+        return worst;
+    }
+}
@@ -0,0 +1,517 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: WardSimulator.java
+ * Author: Christopher Fairhurst
+ * Description: Seeded, replayable load test that scores simulated ward traffic in process.
+ * ------------------------------------------------------------------------------
+ * Key Features:
+ * Every simulated patient follows a trajectory: stable, deteriorating or recovering.
+ * A severity between 0 and 1 drifts with the trajectory, and each observation's vitals
+ * are drawn around the values that severity gives. A deteriorating patient who reaches
+ * the top starts to recover, a recovered patient becomes stable, and a stable patient
+ * occasionally starts to deteriorate, so alerts come and go as they would on a ward.
+ * Each patient draws from their own random stream seeded from the run's seed and their
+ * id, and patients are split across threads by id, so the same arguments always score
+ * the same observations in the same order per patient, whatever the thread count or rate.
+ * The checksum of every packed score and the alert counts then match from run to run
+ * and from version to version, and only the timings may differ.
+ * Engines:
+ * patient  Patient.updatePatient then calculateMediScore, which checks scoreAlert,
+ *          with every table rendered by ResultFormat.TABLE and thrown away
+ *          Patient stamps observations with the wall clock, so this engine ignores the
+ *          simulated clock and --interval does not change its alerts
+ * registry PatientRegistry.record with the 24-hour alert window, feeding WardAggregates
+ * Reports throughput, latency percentiles of each observation, GC pauses and alert
+ * outcomes, for the rounds after the warm-up. Latency is measured from when the
+ * observation was due, so a paced run that falls behind shows the delay as latency.
+ * ------------------------------------------------------------------------------
+ * Usage:
+ * java -cp target/classes mediscore.WardSimulator [--engine patient|registry] [--patients <n>]
+ *     [--rounds <n>] [--warmup <rounds>] [--rate <observations/s>] [--threads <n>]
+ *     [--mix <stable>:<deteriorating>:<recovering>] [--wards <n>] [--interval <minutes>] [--seed <n>]
+ * Defaults: registry engine, 10000 patients, 50 rounds after 10 warm-up rounds, no rate limit,
+ * 1 thread, a mix of 70:20:10, 20 wards, an observation every 15 minutes and seed 42.
+ * Every round scores one observation for every patient. Observations are stamped with a
+ * simulated clock that starts at a fixed time and moves on by the interval each round,
+ * which only the registry engine uses.
+ * --rate paces the rounds after the warm-up, 0 runs flat out.
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+public final class WardSimulator {
+    // Simulated clock start, 2024-01-01T00:00:00Z, fixed so the timestamps are reproducible
+    private static final long START_TIME = 1_704_067_200_000L;
+    private static final long MINUTE = 60_000L;
+
+    public enum Engine {
+        PATIENT, REGISTRY
+    }
+
+    public enum Trajectory {
+        STABLE, DETERIORATING, RECOVERING
+    }
+
+    // The arguments of one run
+    public record Config(Engine engine, int patients, int rounds, int warmupRounds, long rate, int threads,
+                         int[] mix, int wards, int intervalMinutes, long seed) {
+        public Config {
+            if (patients < 1) {
+                throw new IllegalArgumentException("Invalid patients value.");
+            }
+            if (rounds < 1 || warmupRounds < 0) {
+                throw new IllegalArgumentException("Invalid rounds value.");
+            }
+            if (rate < 0) {
+                throw new IllegalArgumentException("Invalid rate value.");
+            }
+            if (threads < 1) {
+                throw new IllegalArgumentException("Invalid threads value.");
+            }
+            if (mix.length != Trajectory.values().length || Arrays.stream(mix).anyMatch(share -> share < 0) || Arrays.stream(mix).sum() == 0) {
+                throw new IllegalArgumentException("Invalid mix value.");
+            }
+            if (wards < 1) {
+                throw new IllegalArgumentException("Invalid wards value.");
+            }
+            if (intervalMinutes < 1) {
+                throw new IllegalArgumentException("Invalid interval value.");
+            }
+        }
+
+        public static Config defaults() {
+            return new Config(Engine.REGISTRY, 10_000, 50, 10, 0, 1, new int[]{70, 20, 10}, 20, 15, 42);
+        }
+    }
+
+    // What a run measured
+    // checksum and alerts cover every round, the rest only the rounds after the warm-up
+    public record Report(long observations, long nanos, LatencyHistogram latency, long gcPauses, long gcPauseMillis,
+                         long gcMaxPauseMillis, long[] alerts, long checksum, int[] initialMix) {
+        public double throughput() {
+            return observations * 1e9 / nanos;
+        }
+    }
+
+    // One simulated patient and the vitals of their latest observation
+    static final class SimulatedPatient {
+        final long patientId;
+        final boolean isFasting;
+        final SplittableRandom random;
+        Trajectory trajectory;
+        double severity;
+
+        int airOrOxygenObs;
+        int consciousnessObs;
+        int respirationRange;
+        int spo2;
+        float temperature;
+        float CBG;
+
+        SimulatedPatient(long patientId, Trajectory trajectory, long seed) {
+            this.patientId = patientId;
+            this.random = new SplittableRandom(seed * 0x9E3779B97F4A7C15L + patientId);
+            this.trajectory = trajectory;
+            this.isFasting = random.nextInt(4) == 0;
+            this.severity = switch (trajectory) {
+                case STABLE -> random.nextDouble(0.05, 0.3);
+                case DETERIORATING -> random.nextDouble(0.1, 0.3);
+                case RECOVERING -> random.nextDouble(0.7, 0.95);
+            };
+        }
+
+        // Moves the severity along the trajectory and draws the next observation's vitals
+        void next() {
+            switch (trajectory) {
+                case STABLE -> {
+                    severity = clamp(severity + random.nextDouble(-0.02, 0.02), 0, 0.35);
+                    if (random.nextInt(200) == 0) {
+                        trajectory = Trajectory.DETERIORATING;
+                    }
+                }
+                case DETERIORATING -> {
+                    severity = Math.min(severity + random.nextDouble(0.01, 0.06), 1);
+                    if (severity == 1) {
+                        trajectory = Trajectory.RECOVERING;
+                    }
+                }
+                case RECOVERING -> {
+                    severity = Math.max(severity - random.nextDouble(0.005, 0.04), 0.1);
+                    if (severity == 0.1) {
+                        trajectory = Trajectory.STABLE;
+                    }
+                }
+            }
+            double s = severity;
+            airOrOxygenObs = s > 0.55 ? 2 : 0;
+            consciousnessObs = s > 0.85 && random.nextInt(2) == 0 ? 3 : s > 0.7 && random.nextInt(5) == 0 ? 1 : 0;
+            respirationRange = (int) Math.round(clamp(14 + 16 * s + random.nextGaussian() * 1.5, 6, 40));
+            spo2 = (int) Math.round(clamp(98 - 14 * s + random.nextGaussian(), 70, 100));
+            temperature = tenth(clamp(36.9 + 2.4 * s + random.nextGaussian() * 0.2, 34, 41.5));
+            CBG = tenth(isFasting
+                    ? clamp(5.0 + 4 * s + random.nextGaussian() * 0.4, 2.5, 20)
+                    : clamp(6.5 + 6 * s + random.nextGaussian() * 0.6, 2.5, 20));
+        }
+
+        private static double clamp(double value, double min, double max) {
+            return Math.max(min, Math.min(max, value));
+        }
+
+        private static float tenth(double value) {
+            return Math.round(value * 10) / 10f;
+        }
+    }
+
+    // Renders every table and message the way the console would and throws it away,
+    // so the patient engine pays for the output without any I/O
+    private static final class DiscardingSink implements ResultSink {
+        private final StringBuilder out = new StringBuilder(ScoreTable.BODY_CAPACITY + 64);
+
+        @Override
+        public void scored(String name, int airOrOxygenObs, int consciousnessObs, int respirationRange, int spo2,
+                           int temperatureTenths, int cbgTenths, boolean isFasting, long timestamp, int packedScores) {
+            out.setLength(0);
+            ResultFormat.TABLE.appendResult(out, name, airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperatureTenths,
+                    cbgTenths, isFasting, timestamp, packedScores);
+        }
+
+        @Override
+        public void message(String name, String message) {
+            out.setLength(0);
+            ResultFormat.TABLE.appendMessage(out, name, message);
+        }
+    }
+
+    // Records the GC pauses reported while it is recording
+    // Concurrent cycles are left out as the application keeps running through them
+    private static final class GcPauses implements NotificationListener {
+        private final LongAdder pauses = new LongAdder();
+        private final LongAdder millis = new LongAdder();
+        private final AtomicLong maxMillis = new AtomicLong();
+        private volatile boolean recording;
+
+        void install() {
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if (collector instanceof NotificationEmitter emitter) {
+                    emitter.addNotificationListener(this, null, null);
+                }
+            }
+        }
+
+        void uninstall() {
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if (collector instanceof NotificationEmitter emitter) {
+                    try {
+                        emitter.removeNotificationListener(this);
+                    } catch (ListenerNotFoundException e) {
+                        // Never added
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (!recording || !notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                return;
+            }
+            GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            if (info.getGcName().contains("Concurrent") || info.getGcName().contains("Cycles")) {
+                return;
+            }
+            long duration = info.getGcInfo().getDuration();
+            pauses.increment();
+            millis.add(duration);
+            maxMillis.accumulateAndGet(duration, Math::max);
+        }
+    }
+
+    private final Config config;
+    private final SimulatedPatient[] simulated;
+    private final int[] initialMix = new int[Trajectory.values().length];
+    private final PatientRegistry registry = new PatientRegistry();
+    private final WardAggregates wards = new WardAggregates();
+    private final Patient[] patients;
+
+    public WardSimulator(Config config) {
+        this.config = config;
+        this.simulated = new SimulatedPatient[config.patients()];
+        this.patients = config.engine() == Engine.PATIENT ? new Patient[config.patients()] : null;
+        // Trajectories are dealt from the mix with the run's own stream, so they depend only on the seed
+        SplittableRandom random = new SplittableRandom(config.seed());
+        int total = Arrays.stream(config.mix()).sum();
+        for (int i = 0; i < simulated.length; i++) {
+            int pick = random.nextInt(total);
+            int t = 0;
+            while (pick >= config.mix()[t]) {
+                pick -= config.mix()[t++];
+            }
+            initialMix[t]++;
+            simulated[i] = new SimulatedPatient(i + 1, Trajectory.values()[t], config.seed());
+        }
+    }
+
+    // The ward statistics the registry engine keeps
+    public WardAggregates wards() {
+        return wards;
+    }
+
+    // Runs every round on config.threads() threads and reports the rounds after the warm-up
+    // The first thing a worker throws stops the other workers and is thrown from here
+    public Report run() throws InterruptedException {
+        int threads = config.threads();
+        LatencyHistogram latency = new LatencyHistogram();
+        GcPauses gc = new GcPauses();
+        long[] alertsBefore = alertCounts();
+        long[] measureFrom = new long[1];
+        CyclicBarrier warmedUp = new CyclicBarrier(threads, () -> {
+            gc.recording = true;
+            measureFrom[0] = System.nanoTime();
+        });
+        long[] checksums = new long[threads];
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] workers = new Thread[threads];
+        gc.install();
+        try {
+            for (int t = 0; t < threads; t++) {
+                int worker = t;
+                workers[t] = Thread.ofPlatform().name("ward-simulator-" + t).unstarted(() -> {
+                    try {
+                        checksums[worker] = runWorker(worker, latency, warmedUp, measureFrom, failure);
+                    } catch (Throwable e) {
+                        // The other workers stop at their next observation, or with an exception if
+                        // they are waiting at or about to reach the barrier, which loses to this one
+                        failure.compareAndSet(null, e);
+                        warmedUp.reset();
+                        for (Thread other : workers) {
+                            if (other != Thread.currentThread()) {
+                                other.interrupt();
+                            }
+                        }
+                    }
+                });
+            }
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            Throwable failed = failure.get();
+            if (failed instanceof RuntimeException e) {
+                throw e;
+            }
+            if (failed instanceof Error e) {
+                throw e;
+            }
+            if (failed != null) {
+                throw new IllegalStateException("Simulation worker failed.", failed);
+            }
+            long nanos = System.nanoTime() - measureFrom[0];
+            gc.recording = false;
+
+            long[] alerts = alertCounts();
+            for (int i = 0; i < alerts.length; i++) {
+                alerts[i] -= alertsBefore[i];
+            }
+            long checksum = 0;
+            for (long sum : checksums) {
+                checksum += sum;
+            }
+            return new Report((long) config.patients() * config.rounds(), nanos, latency, gc.pauses.sum(), gc.millis.sum(),
+                    gc.maxMillis.get(), alerts, checksum, initialMix.clone());
+        } finally {
+            gc.uninstall();
+        }
+    }
+
+    // Scores every round for the patients whose index falls to this worker, returning their checksum
+    private long runWorker(int worker, LatencyHistogram latency, CyclicBarrier warmedUp, long[] measureFrom,
+                           AtomicReference<Throwable> failure) throws InterruptedException, BrokenBarrierException {
+        int threads = config.threads();
+        DiscardingSink sink = new DiscardingSink();
+        long interval = config.intervalMinutes() * MINUTE;
+        // Time between this worker's observations when paced
+        double period = config.rate() == 0 ? 0 : threads * 1e9 / config.rate();
+        long checksum = 0;
+        long paced = 0;
+        for (int round = 0; round < config.warmupRounds() + config.rounds(); round++) {
+            boolean measured = round >= config.warmupRounds();
+            if (round == config.warmupRounds()) {
+                warmedUp.await();
+            }
+            long roundTime = START_TIME + round * interval;
+            for (int i = worker; i < simulated.length; i += threads) {
+                if (failure.get() != null) {
+                    return checksum;
+                }
+                SimulatedPatient patient = simulated[i];
+                patient.next();
+                // Patients are spread evenly over the interval, so the ward sees a steady stream
+                long timestamp = roundTime + interval * i / simulated.length;
+                long due = measured && period > 0 ? measureFrom[0] + (long) (paced++ * period) : 0;
+                if (due != 0) {
+                    long wait;
+                    while ((wait = due - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                        if (Thread.interrupted()) {
+                            throw new InterruptedException();
+                        }
+                    }
+                }
+                long start = System.nanoTime();
+                int packed = score(i, patient, timestamp, sink);
+                if (measured) {
+                    latency.record(System.nanoTime() - (due != 0 ? due : start));
+                }
+                checksum += (packed + 1L) * mix(patient.patientId * 31 + round);
+            }
+        }
+        return checksum;
+    }
+
+    // Scores one observation with the configured engine and returns the packed scores
+    private int score(int index, SimulatedPatient simulated, long timestamp, DiscardingSink sink) {
+        if (config.engine() == Engine.PATIENT) {
+            Patient patient = patients[index];
+            if (patient == null) {
+                patient = new Patient("Patient " + simulated.patientId, simulated.airOrOxygenObs, simulated.consciousnessObs,
+                        simulated.respirationRange, simulated.spo2, simulated.temperature, simulated.CBG, simulated.isFasting);
+                patient.setResultSink(sink);
+                patients[index] = patient;
+            } else {
+                patient.updatePatient(simulated.airOrOxygenObs, simulated.consciousnessObs, simulated.respirationRange, simulated.spo2,
+                        simulated.temperature, simulated.CBG, simulated.isFasting);
+            }
+            patient.calculateMediScore(patient);
+            return patient.getPackedScores();
+        }
+        if (registry.get(simulated.patientId) == null) {
+            wards.assign(simulated.patientId, "Ward " + (1 + index % config.wards()));
+        }
+        PatientState state = registry.record(simulated.patientId, Observation.of(simulated.airOrOxygenObs, simulated.consciousnessObs,
+                simulated.respirationRange, simulated.spo2, simulated.temperature, simulated.CBG, simulated.isFasting, timestamp));
+        wards.record(state);
+        return state.packedScores();
+    }
+
+    // The simulated time of the last round, for reading the ward statistics
+    public long endTime() {
+        return START_TIME + (config.warmupRounds() + config.rounds()) * config.intervalMinutes() * MINUTE;
+    }
+
+    private static long[] alertCounts() {
+        long[] counts = new long[ScoreAlert.values().length];
+        for (ScoreAlert alert : ScoreAlert.values()) {
+            counts[alert.ordinal()] = Metrics.alerts(alert);
+        }
+        return counts;
+    }
+
+    // Spreads the bits of a patient and round so the checksum changes with any single score
+    private static long mix(long value) {
+        long z = value * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Config defaults = Config.defaults();
+        Engine engine = defaults.engine();
+        int patients = defaults.patients();
+        int rounds = defaults.rounds();
+        int warmupRounds = defaults.warmupRounds();
+        long rate = defaults.rate();
+        int threads = defaults.threads();
+        int[] mix = defaults.mix();
+        int wardCount = defaults.wards();
+        int intervalMinutes = defaults.intervalMinutes();
+        long seed = defaults.seed();
+        Config config;
+        try {
+            for (int i = 0; i < args.length; i += 2) {
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException("Missing " + args[i] + " value.");
+                }
+                String value = args[i + 1];
+                switch (args[i]) {
+                    case "--engine" -> engine = Engine.valueOf(value.toUpperCase());
+                    case "--patients" -> patients = Integer.parseInt(value);
+                    case "--rounds" -> rounds = Integer.parseInt(value);
+                    case "--warmup" -> warmupRounds = Integer.parseInt(value);
+                    case "--rate" -> rate = Long.parseLong(value);
+                    case "--threads" -> threads = Integer.parseInt(value);
+                    case "--mix" -> mix = Arrays.stream(value.split(":")).mapToInt(Integer::parseInt).toArray();
+                    case "--wards" -> wardCount = Integer.parseInt(value);
+                    case "--interval" -> intervalMinutes = Integer.parseInt(value);
+                    case "--seed" -> seed = Long.parseLong(value);
+                    default -> throw new IllegalArgumentException("Unknown option " + args[i] + ".");
+                }
+            }
+            config = new Config(engine, patients, rounds, warmupRounds, rate, threads, mix, wardCount, intervalMinutes, seed);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: WardSimulator [--engine patient|registry] [--patients <n>] [--rounds <n>] [--warmup <rounds>]");
+            System.err.println("       [--rate <observations/s>] [--threads <n>] [--mix <stable>:<deteriorating>:<recovering>]");
+            System.err.println("       [--wards <n>] [--interval <minutes>] [--seed <n>]");
+            System.err.println("The patient engine stamps observations with the wall clock, so --interval only affects the registry engine.");
+            return;
+        }
+        WardSimulator simulator = new WardSimulator(config);
+        Report report = simulator.run();
+
+        System.out.println("Run:           engine " + engine.name().toLowerCase() + ", " + patients + " patients, " + rounds + " rounds after "
+                + warmupRounds + " warm-up, rate " + (rate == 0 ? "unlimited" : rate + "/s") + ", " + threads + (threads == 1 ? " thread" : " threads") + ", seed " + seed);
+        System.out.println("Mix:           " + report.initialMix()[0] + " stable, " + report.initialMix()[1] + " deteriorating, "
+                + report.initialMix()[2] + " recovering at the start");
+        System.out.println("JVM:           " + System.getProperty("java.vm.name") + " " + Runtime.version() + ", "
+                + Runtime.getRuntime().availableProcessors() + " processors, "
+                + String.join(" and ", ManagementFactory.getGarbageCollectorMXBeans().stream().map(GarbageCollectorMXBean::getName).toList()));
+        System.out.println("Checksum:      " + Long.toHexString(report.checksum()));
+        System.out.println("Observations:  " + report.observations() + " measured");
+        System.out.printf("Throughput:    %.0f observations/s%n", report.throughput());
+        LatencyHistogram latency = report.latency();
+        long[] snapshot = latency.snapshot();
+        System.out.printf("Latency p50:   %.3f us%n", LatencyHistogram.valueAt(snapshot, 0.50) / 1e3);
+        System.out.printf("Latency p99:   %.3f us%n", LatencyHistogram.valueAt(snapshot, 0.99) / 1e3);
+        System.out.printf("Latency p999:  %.3f us%n", LatencyHistogram.valueAt(snapshot, 0.999) / 1e3);
+        System.out.printf("Latency max:   %.3f us%n", LatencyHistogram.valueAt(snapshot, 1.0) / 1e3);
+        System.out.println("GC pauses:     " + report.gcPauses() + ", " + report.gcPauseMillis() + " ms in total, longest "
+                + report.gcMaxPauseMillis() + " ms");
+        long[] alerts = report.alerts();
+        System.out.println("Alerts:        " + alerts[ScoreAlert.RAISED.ordinal()] + " raised, " + alerts[ScoreAlert.NOT_RAISED.ordinal()]
+                + " not raised, " + alerts[ScoreAlert.NO_PREVIOUS_SCORE.ordinal()] + " no previous score, "
+                + alerts[ScoreAlert.PREVIOUS_SCORE_STALE.ordinal()] + " stale" + (Metrics.isEnabled() ? "" : " (metrics are off)"));
+        if (engine == Engine.REGISTRY) {
+            WardAggregates wards = simulator.wards();
+            int highRisk = 0;
+            int alertsLastHour = 0;
+            for (String ward : wards.wards()) {
+                highRisk += wards.highRisk(ward);
+                alertsLastHour += wards.alertsLastHour(ward, simulator.endTime());
+            }
+            System.out.println("Wards:         " + wards.wards().size() + " wards, " + highRisk + " patients scoring "
+                    + WardAggregates.HIGH_SCORE + " or more, " + alertsLastHour + " alerts in the last simulated hour");
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: BatchScorerParityTest.java
+ * Author: Christopher Fairhurst
+ * Description: Checks BatchScorer and Patient.calculateMediScore against the original float scoring.
+ * ------------------------------------------------------------------------------
+ * Key Features:
+ * The original Patient band chains and validation are copied below as the reference, comparing
+ * floats against doubles exactly as they always did, so a wrong threshold in the compiled
+ * tables fails here even though BatchScorer and Patient both read those tables.
+ * Temperature and CBG are given in hundredths on and either side of the rounding to each
+ * band edge, and the same float reaches the reference, Patient and ObservationBlock.set,
+ * so the rounding to tenths is checked as well as the bands.
+ * Random rows cover the whole valid range, with a fixed seed to keep failures reproducible.
+ * scoreValid must reject exactly the rows the reference rejects, with the message the
+ * Patient constructor throws, including values too large for the block's byte and short columns.
+ * ------------------------------------------------------------------------------
+ * Usage:
+ * mvn test
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BatchScorerParityTest {
+    private static final int RANDOM_ROWS = 100_000;
+
+    // Each band edge in the original chains and the value just below it, with the ends of the valid range
+    private static final int[] RESPIRATION_EDGES = {0, 8, 9, 11, 12, 20, 21, 24, 25};
+    private static final int[] SPO2_EDGES = {0, 83, 84, 85, 86, 87, 88, 92, 93, 96, 97, 100};
+    // As above in hundredths, see hundredthsAround
+    private static final int[] TEMPERATURE_HUNDREDTHS = hundredthsAround(new int[]{280, 351, 352, 361, 362, 381, 382, 391, 392, 450}, 2800, 4500);
+    private static final int[] CBG_HUNDREDTHS = hundredthsAround(new int[]{0, 38, 39, 44, 45, 54, 55, 58, 59, 60, 77, 78, 89, 90, 300}, 0, 3000);
+    private static final int[] AIR_OR_OXYGEN = {0, 2};
+
+    // Patient reports every score to its sink, none of it is needed here
+    private static final ResultSink DISCARD = new ResultSink() {
+        @Override
+        public void scored(String name, int airOrOxygenObs, int consciousnessObs, int respirationRange, int spo2,
+                           int temperatureTenths, int cbgTenths, boolean isFasting, long timestamp, int packedScores) {
+        }
+
+        @Override
+        public void message(String name, String message) {
+        }
+    };
+
+    @Test
+    void bandEdgesScoreAsReference() {
+        int rows = SPO2_EDGES.length * TEMPERATURE_HUNDREDTHS.length * CBG_HUNDREDTHS.length * AIR_OR_OXYGEN.length * 2;
+        ObservationBlock block = new ObservationBlock(rows);
+        float[] temperatures = new float[rows];
+        float[] cbgs = new float[rows];
+        int row = 0;
+        for (int spo2 : SPO2_EDGES) {
+            for (int temperature : TEMPERATURE_HUNDREDTHS) {
+                for (int cbg : CBG_HUNDREDTHS) {
+                    for (int airOrOxygenObs : AIR_OR_OXYGEN) {
+                        for (int fasting = 0; fasting < 2; fasting++) {
+                            // Respiration and consciousness do not depend on the other fields, so they take turns
+                            // instead of multiplying the rows, every Patient here builds its own table
+                            temperatures[row] = temperature / 100.0f;
+                            cbgs[row] = cbg / 100.0f;
+                            block.set(row, airOrOxygenObs, row % 4, RESPIRATION_EDGES[row % RESPIRATION_EDGES.length], spo2,
+                                    temperatures[row], cbgs[row], fasting == 1);
+                            row++;
+                        }
+                    }
+                }
+            }
+        }
+        assertScoresAsReference(block, temperatures, cbgs);
+    }
+
+    @Test
+    void randomRowsScoreAsReference() {
+        SplittableRandom random = new SplittableRandom(42);
+        ObservationBlock block = new ObservationBlock(RANDOM_ROWS);
+        float[] temperatures = new float[RANDOM_ROWS];
+        float[] cbgs = new float[RANDOM_ROWS];
+        for (int i = 0; i < RANDOM_ROWS; i++) {
+            temperatures[i] = random.nextInt(2800, 4501) / 100.0f;
+            cbgs[i] = random.nextInt(0, 3001) / 100.0f;
+            block.set(i, random.nextBoolean() ? 0 : 2, random.nextInt(4), random.nextInt(0, 61), random.nextInt(0, 101),
+                    temperatures[i], cbgs[i], random.nextBoolean());
+        }
+        assertScoresAsReference(block, temperatures, cbgs);
+    }
+
+    @Test
+    void scoreValidRejectsWhatPatientRejects() {
+        SplittableRandom random = new SplittableRandom(7);
+        ObservationBlock block = new ObservationBlock(RANDOM_ROWS);
+        int[][] readings = new int[RANDOM_ROWS][];
+        for (int i = 0; i < RANDOM_ROWS; i++) {
+            // Every range reaches a little past the valid values, so roughly a third of the rows are invalid,
+            // and now and then a value is far too large for the block's narrow columns
+            // The readings are whole tenths, as a block holds them, so rounding cannot move one across a limit
+            readings[i] = new int[]{wide(random, -1, 4), wide(random, -1, 5), random.nextInt(-2, 61), random.nextInt(-2, 103),
+                    wide(random, 275, 456), random.nextInt(-5, 301)};
+            int[] r = readings[i];
+            block.setTenths(i, r[0], r[1], r[2], r[3], r[4], r[5], random.nextBoolean());
+        }
+        ScoreBlock scores = new ScoreBlock(RANDOM_ROWS);
+        byte[] errors = new byte[RANDOM_ROWS];
+        int rejected = BatchScorer.scoreValid(block, scores, errors);
+        int invalid = 0;
+        for (int i = 0; i < RANDOM_ROWS; i++) {
+            int[] r = readings[i];
+            float temperature = Tenths.toFloat(r[4]);
+            float cbg = Tenths.toFloat(r[5]);
+            String expected = referenceRejection(r[0], r[1], r[2], r[3], temperature, cbg);
+            assertEquals(expected, patientRejection(r[0], r[1], r[2], r[3], temperature, cbg), "row " + i);
+            assertEquals(expected, ObservationValidator.message(errors[i]), "row " + i);
+            if (expected != null) {
+                invalid++;
+                assertEquals(ScoreBlock.REJECTED, scores.finalScore[i], "row " + i);
+            } else {
+                assertEquals(reference(r[0], r[1], r[2], r[3], temperature, cbg, block.fasting[i]), scores.packed(i), "row " + i);
+            }
+        }
+        assertEquals(invalid, rejected);
+    }
+
+    // Scores the block and checks every row, and Patient given the same readings, against the reference
+    private static void assertScoresAsReference(ObservationBlock block, float[] temperatures, float[] cbgs) {
+        ScoreBlock scores = new ScoreBlock(block.size());
+        BatchScorer.score(block, scores);
+        for (int i = 0; i < block.size(); i++) {
+            int expected = reference(block.airOrOxygen[i], block.consciousness[i], block.resp[i], block.spo2[i], temperatures[i], cbgs[i], block.fasting[i]);
+            assertEquals(expected, scores.packed(i), "BatchScorer row " + i);
+            Patient patient = new Patient("Parity", block.airOrOxygen[i], block.consciousness[i], block.resp[i], block.spo2[i],
+                    temperatures[i], cbgs[i], block.fasting[i]);
+            patient.setResultSink(DISCARD);
+            patient.calculateMediScore(patient);
+            assertEquals(expected, patient.getPackedScores(), "Patient row " + i);
+        }
+    }
+
+    // The band edges in tenths as readings in hundredths on each edge and either side of the rounding to it, within [min, max]
+    private static int[] hundredthsAround(int[] edgesTenths, int min, int max) {
+        return Arrays.stream(edgesTenths)
+                .flatMap(edge -> IntStream.of(edge * 10 - 6, edge * 10 - 5, edge * 10, edge * 10 + 4, edge * 10 + 5))
+                .filter(hundredths -> hundredths >= min && hundredths <= max)
+                .distinct()
+                .toArray();
+    }
+
+    // A value in [min, max), or one time in fifty a value that only fits an int, such as 258 or 65816
+    private static int wide(SplittableRandom random, int min, int max) {
+        return random.nextInt(50) == 0 ? random.nextInt(-100_000, 100_000) : random.nextInt(min, max);
+    }
+
+    // The message the Patient constructor throws for these readings, or null if it accepts them
+    private static String patientRejection(int airOrOxygenObs, int consciousnessObs, int respirationRange, int spo2, float temperature, float CBG) {
+        try {
+            new Patient("Parity", airOrOxygenObs, consciousnessObs, respirationRange, spo2, temperature, CBG, false);
+            return null;
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+    }
+
+    // The original Patient.validateUpdateData, returning the message it threw or null
+    private static String referenceRejection(int airOrOxygenObs, int consciousnessObs, Integer respirationRange, Integer spo2, float temperature, float CBG) {
+        if (airOrOxygenObs != 0 && airOrOxygenObs != 2) {
+            return "Invalid airOrOxygenObs value.";
+        }
+        if (consciousnessObs > 3 || consciousnessObs < 0) {
+            return "Invalid consciousnessObs value.";
+        }
+        if (respirationRange == null || respirationRange < 0) {
+            return "Invalid respirationRange value.";
+        }
+        if (spo2 == null || spo2 < 0 || spo2 > 100) {
+            return "Invalid spo2 value.";
+        }
+        if (temperature < 28 || temperature > 45) {
+            return "Invalid temperature value.";
+        }
+        if (CBG < 0) {
+            return "Invalid CBG value.";
+        }
+        return null;
+    }
+
+    // The original Patient scoring, rounding as its constructor did and comparing the floats against doubles
+    private static int reference(int airOrOxygenObs, int consciousnessObs, int respirationRange, int spo2, float rawTemperature, float rawCBG, boolean isFasting) {
+        float temperature = Math.round(rawTemperature * 10) / 10.0f;
+        float CBG = Math.round(rawCBG * 10) / 10.0f;
+
+        int airOrOxygenScore = airOrOxygenObs == 0 ? 0 : 2;
+        int consciousnessScore = consciousnessObs == 0 ? 0 : 3;
+
+        int respirationRateScore;
+        if (respirationRange >= 25) {
+            respirationRateScore = 3;
+        } else if (respirationRange >= 21) {
+            respirationRateScore = 2;
+        } else if (respirationRange >= 12) {
+            respirationRateScore = 0;
+        } else if (respirationRange >= 9) {
+            respirationRateScore = 1;
+        } else {
+            respirationRateScore = 3;
+        }
+
+        int spo2Score;
+        if (airOrOxygenObs == 0) {
+            if (spo2 >= 93) {
+                spo2Score = 0;
+            } else if (spo2 >= 86) {
+                spo2Score = 1;
+            } else if (spo2 >= 84) {
+                spo2Score = 2;
+            } else {
+                spo2Score = 3;
+            }
+        } else {
+            if (spo2 >= 97) {
+                spo2Score = 0;
+            } else if (spo2 >= 93) {
+                spo2Score = 1;
+            } else if (spo2 >= 88) {
+                spo2Score = 2;
+            } else {
+                spo2Score = 3;
+            }
+        }
+
+        int temperatureScore;
+        if (temperature >= 39.1) {
+            temperatureScore = 2;
+        } else if (temperature >= 38.1) {
+            temperatureScore = 1;
+        } else if (temperature >= 36.1) {
+            temperatureScore = 0;
+        } else if (temperature >= 35.1) {
+            temperatureScore = 1;
+        } else {
+            temperatureScore = 3;
+        }
+
+        int CBGScore = 0;
+        if (isFasting) {
+            if (CBG >= 6.0) {
+                CBGScore = 3;
+            } else if (CBG >= 5.5) {
+                CBGScore = 2;
+            } else if (CBG >= 4.0) {
+                CBGScore = 0;
+            } else if (CBG >= 3.5 && CBG < 3.9) {
+                CBGScore = 2;
+            } else if (CBG <= 3.5) {
+                CBGScore = 2;
+            }
+        } else {
+            if (CBG >= 9.0) {
+                CBGScore = 3;
+            } else if (CBG >= 7.9) {
+                CBGScore = 2;
+            } else if (CBG >= 5.9 && CBG < 7.8) {
+                CBGScore = 0;
+            } else if (CBG >= 4.5) {
+                CBGScore = 2;
+            } else if (CBG <= 4.5) {
+                CBGScore = 3;
+            }
+        }
+
+        int finalScore = airOrOxygenScore + consciousnessScore + respirationRateScore + spo2Score + temperatureScore + CBGScore;
+        return airOrOxygenScore | consciousnessScore << 4 | respirationRateScore << 8 | spo2Score << 12
+                | temperatureScore << 16 | CBGScore << 20 | finalScore << 24;
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * ------------------------------------------------------------------------------
+ * File: ShardingTest.java
+ * Author: Christopher Fairhurst
+ * Description: Runs four ScoringServer shards in their own JVMs and checks that resharding
+ * never changes an alert.
+ * ------------------------------------------------------------------------------
+ * Key Features:
+ * Observations for 300 patients are sent through a ShardRouter over two simulated days
+ * while the ring grows from two shards to four, loses one and gets it back. Every alert
+ * the shards answer with must match a single PatientRegistry fed the same observations,
+ * which only holds if each patient's history moved with them.
+ * A reshard that includes a shard that is not running must fail and roll back, leaving
+ * the ring settled and the alerts still matching. So must a reshard whose last shard
+ * fails to join after every other shard has already handed its patients off, which the
+ * fourth shard does once through a proxy that fails its first ring change.
+ * ------------------------------------------------------------------------------
+ * Usage:
+ * mvn test
+ * ------------------------------------------------------------------------------
+ */
+
+package mediscore;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardingTest {
+    private static final int SHARDS = 4;
+    private static final int PATIENTS = 300;
+    private static final int ROUNDS = 24;
+    // Simulated clock start, 2024-01-01T00:00:00Z
+    private static final long START_TIME = 1_704_067_200_000L;
+    private static final long ROUND = 2 * 60 * 60 * 1000L;
+    private static final String LISTENING = "MediScore scoring service listening on port ";
+    // The end of every result object in a /score/batch answer, Json only reads flat objects
+    private static final Pattern ALERT = Pattern.compile("\"patientId\":(\\d+),\"alert\":\"(\\w+)\"");
+
+    private static final List<Process> processes = new ArrayList<>();
+    private static final List<String> shards = new ArrayList<>();
+    private static HttpServer proxy;
+
+    @BeforeAll
+    static void startShards() throws IOException, URISyntaxException {
+        String classes = Path.of(ScoringServer.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        for (int i = 0; i < SHARDS; i++) {
+            Process process = new ProcessBuilder(java, "-cp", classes, "mediscore.ScoringServer", "0")
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            processes.add(process);
+            BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = out.readLine()) != null && !line.startsWith(LISTENING)) {
+            }
+            if (line == null) {
+                throw new IOException("Shard " + i + " exited before listening.");
+            }
+            shards.add("http://127.0.0.1:" + line.substring(LISTENING.length()).trim());
+        }
+        proxy = failFirstRingChange(shards.get(SHARDS - 1));
+    }
+
+    @AfterAll
+    static void stopShards() {
+        if (proxy != null) {
+            proxy.stop(0);
+        }
+        for (Process process : processes) {
+            process.destroy();
+        }
+    }
+
+    @Test
+    void reshardingKeepsEveryAlert() throws Exception {
+        PatientRegistry expected = new PatientRegistry();
+        SplittableRandom random = new SplittableRandom(42);
+        String first = shards.get(0);
+        String second = shards.get(1);
+        String third = shards.get(2);
+        String fourth = "http://127.0.0.1:" + proxy.getAddress().getPort();
+        int raised = 0;
+        try (ShardRouter router = new ShardRouter(List.of(first, second))) {
+            router.reshard(List.of(first, second));
+            for (int round = 0; round < ROUNDS; round++) {
+                switch (round) {
+                    case 6 -> assertTrue(router.reshard(List.of(first, second, third)) > 0);
+                    case 10 -> {
+                        List<String> withDeadShard = List.of(first, second, third, deadShard());
+                        assertThrows(IOException.class, () -> router.reshard(withDeadShard));
+                        assertFalse(router.isMixed());
+                    }
+                    case 12 -> assertTrue(router.reshard(List.of(first, third)) > 0);
+                    case 15 -> {
+                        List<String> withFailingShard = List.of(first, second, third, fourth);
+                        assertThrows(IOException.class, () -> router.reshard(withFailingShard));
+                        assertFalse(router.isMixed());
+                    }
+                    case 18 -> assertTrue(router.reshard(List.of(first, second, third)) > 0);
+                    case 21 -> assertTrue(router.reshard(List.of(first, second, third, fourth)) > 0);
+                    default -> {
+                    }
+                }
+                raised += scoreRound(router, expected, random, round);
+            }
+        }
+        assertTrue(raised > 0, "no alert was raised, so the histories were never compared");
+    }
+
+    // Sends one observation for every patient and checks each alert, returning the number raised
+    private static int scoreRound(ShardRouter router, PatientRegistry expected, SplittableRandom random, int round) throws Exception {
+        List<ObservationParser.RawObservation> batch = new ArrayList<>(PATIENTS);
+        for (int patientId = 0; patientId < PATIENTS; patientId++) {
+            batch.add(new ObservationParser.RawObservation(patientId, random.nextBoolean() ? 0 : 2, random.nextInt(4),
+                    random.nextInt(5, 30), random.nextInt(82, 101), random.nextInt(340, 410) / 10.0f,
+                    random.nextInt(30, 100) / 10.0f, random.nextBoolean(), START_TIME + round * ROUND + patientId * 1000L));
+        }
+        Map<Long, String> alerts = new HashMap<>();
+        for (String answer : router.score(batch)) {
+            if (answer != null) {
+                Matcher matcher = ALERT.matcher(answer);
+                while (matcher.find()) {
+                    alerts.put(Long.parseLong(matcher.group(1)), matcher.group(2));
+                }
+            }
+        }
+        assertEquals(PATIENTS, alerts.size());
+        int raised = 0;
+        for (ObservationParser.RawObservation observation : batch) {
+            ScoreAlert alert = expected.record(observation.patientId(), observation.accept().observation()).alert();
+            assertEquals(alert.name(), alerts.get(observation.patientId()), "patient " + observation.patientId() + " in round " + round);
+            raised += alert == ScoreAlert.RAISED ? 1 : 0;
+        }
+        return raised;
+    }
+
+    // Stands in for a shard, passing every request on to it except the first ring change, which it answers with 500
+    private static HttpServer failFirstRingChange(String shard) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        AtomicBoolean failed = new AtomicBoolean();
+        server.createContext("/", exchange -> {
+            try (exchange) {
+                byte[] body;
+                try (InputStream input = exchange.getRequestBody()) {
+                    body = input.readAllBytes();
+                }
+                if (exchange.getRequestURI().getPath().equals("/shard/ring") && failed.compareAndSet(false, true)) {
+                    exchange.sendResponseHeaders(500, -1);
+                    return;
+                }
+                HttpRequest request = HttpRequest.newBuilder(URI.create(shard + exchange.getRequestURI()))
+                        .method(exchange.getRequestMethod(), HttpRequest.BodyPublishers.ofByteArray(body))
+                        .build();
+                HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                exchange.sendResponseHeaders(response.statusCode(), response.body().length == 0 ? -1 : response.body().length);
+                exchange.getResponseBody().write(response.body());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    // The URL of a port nothing is listening on
+    private static String deadShard() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return "http://127.0.0.1:" + socket.getLocalPort();
+        }
+    }
+}